@@ -189,8 +189,6 @@ public class AwsEngines implements CxEngines {
 		findEngines();
 		
 		final String name = engine.getName();
-		final String type = engineTypeMap.get(size.getName());
-		final Map<String, String> tags = createEngineTags(size.getName());
 		
 		Instance instance = provisionedEngines.get(name);
 		String instanceId = null;
@@ -200,21 +198,9 @@ public class AwsEngines implements CxEngines {
 		boolean success = false;
 		final Stopwatch timer = Stopwatch.createStarted();
 		try {
-			if (instance == null) {
-				instance = launchEngine(engine, name, type, tags);
-			}
-	
+			instance = provisionInstance(engine, name, size);
 			instanceId = instance.getInstanceId();
 			
-			if (Ec2.isTerminated(instance)) {
-				instance = launchEngine(engine, name, type, tags);
-				instanceId = instance.getInstanceId();
-			} else if (!Ec2.isRunning(instance)) {
-				instance = ec2Client.start(instanceId);
-			} else {
-				// host is running
-			}
-			
 			final Host host = createHost(name, instance);
 			engine.setHost(host);
 			
@@ -240,6 +226,68 @@ public class AwsEngines implements CxEngines {
 		}
 	}
 	
+	@Override
+	@Retryable(
+			value = { RuntimeException.class },
+			maxAttempts = AwsConstants.RETRY_ATTEMPTS,
+			backoff = @Backoff(delay = AwsConstants.RETRY_DELAY))
+	public void provision(DynamicEngine engine, EngineSize size) {
+		log.debug("provision(): {}; size={}", engine, size);
+		
+		findEngines();
+		
+		final String name = engine.getName();
+		log.info("action=ProvisioningEngine; name={}; {}", name, engine); 
+
+		Instance instance = null;
+		boolean success = false;
+		final Stopwatch timer = Stopwatch.createStarted();
+		try {
+			instance = provisionInstance(engine, name, size);
+			success = true;
+		} finally {
+			log.info("action=ProvisionedEngine; success={}; name={}; elapsedTime={}s; {}", 
+					success, name, timer.elapsed(TimeUnit.SECONDS), Ec2.print(instance)); 
+		}
+	}
+	
+	@Override
+	public void awaitRunning(DynamicEngine engine) {
+		log.debug("awaitRunning(): {}", engine);
+		
+		final String name = engine.getName();
+		final Instance instance = provisionedEngines.get(name);
+		if (instance == null || !Ec2.isRunning(instance)) {
+			final String msg = String.format("Engine instance not running; name=%s; %s", name, Ec2.print(instance));
+			throw new RuntimeException(msg);
+		}
+		engine.setHost(createHost(name, instance));
+	}
+	
+	@Override
+	@Retryable(
+			value = { RuntimeException.class },
+			maxAttempts = AwsConstants.RETRY_ATTEMPTS,
+			backoff = @Backoff(delay = AwsConstants.RETRY_DELAY))
+	public void awaitReady(DynamicEngine engine) {
+		log.debug("awaitReady(): {}", engine);
+		
+		final Stopwatch timer = Stopwatch.createStarted();
+		try {
+			pingEngine(engine.getHost());
+		} catch (Exception e) {
+			throw new RuntimeException("Engine failed to respond", e);
+		} finally {
+			log.info("action=PingedEngine; name={}; elapsedTime={}s", 
+					engine.getName(), timer.elapsed(TimeUnit.SECONDS)); 
+		}
+	}
+	
+	@Override
+	public void runLaunchScripts(DynamicEngine engine) {
+		runScript(awsConfig.getScriptOnLaunch(), engine);
+	}
+	
 	@Override
 	public void stop(DynamicEngine engine) {
 		stop(engine, false);
@@ -281,6 +329,28 @@ public class AwsEngines implements CxEngines {
 		}
 	}
 
+	/**
+	 * Launches a new instance if not provisioned or terminated, otherwise starts 
+	 * the instance if not running.  Blocks until the instance leaves the pending state.
+	 */
+	private Instance provisionInstance(final DynamicEngine engine, final String name, final EngineSize size) {
+		log.trace("provisionInstance(): name={}; size={}", name, size);
+		
+		final String type = engineTypeMap.get(size.getName());
+		final Map<String, String> tags = createEngineTags(size.getName());
+		
+		Instance instance = provisionedEngines.get(name);
+		if (instance == null || Ec2.isTerminated(instance)) {
+			instance = launchEngine(engine, name, type, tags);
+		} else if (!Ec2.isRunning(instance)) {
+			instance = ec2Client.start(instance.getInstanceId());
+			provisionedEngines.put(name, instance);
+		} else {
+			// host is running
+		}
+		return instance;
+	}
+
 	private Instance launchEngine(final DynamicEngine engine, final String name, 
 			final String type, final Map<String, String> tags) {
 		log.debug("launchEngine(): name={}; type={}", name, type);
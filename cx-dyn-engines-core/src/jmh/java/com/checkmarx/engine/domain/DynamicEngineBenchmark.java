@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.domain;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.servers.AllocationJournal;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures a {@link DynamicEngine} state transition, idle to scanning and back.  
+ * {@code compareAndSetState} and {@code setState} run without a pool; 
+ * run with {@code -prof gc}, {@code gc.alloc.rate.norm} should be about 0 bytes per operation.  
+ * {@code pooledSetState} runs in a built pool, so each transition also moves the engine between 
+ * the pool's state sets, publishes the size snapshot and, if {@code journaled}, journals the change.  
+ * {@code setState} logs at debug, so run with logging at info.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DynamicEngineBenchmark {
+	
+	private DynamicEngine engine;
+	
+	@Setup
+	public void setUp() {
+		engine = DynamicEngine.fromProvisionedInstance("engine-1", "S", 3600, DateTime.now(), true);
+	}
+	
+	@Benchmark
+	public DynamicEngine.State compareAndSetState() {
+		engine.compareAndSetState(DynamicEngine.State.IDLE, DynamicEngine.State.SCANNING);
+		engine.compareAndSetState(DynamicEngine.State.SCANNING, DynamicEngine.State.IDLE);
+		return engine.getState();
+	}
+	
+	@Benchmark
+	public DynamicEngine.State setState() {
+		engine.setState(DynamicEngine.State.SCANNING);
+		engine.setState(DynamicEngine.State.IDLE);
+		return engine.getState();
+	}
+	
+	@Benchmark
+	public DynamicEngine.State pooledSetState(PooledEngine pooled) {
+		pooled.engine.setState(DynamicEngine.State.SCANNING);
+		pooled.engine.setState(DynamicEngine.State.IDLE);
+		return pooled.engine.getState();
+	}
+	
+	/**
+	 * An idle engine in a built pool, with state changes journaled if {@code journaled}
+	 */
+	@State(Scope.Thread)
+	public static class PooledEngine {
+		
+		@Param({ "false", "true" })
+		private boolean journaled;
+		
+		private DynamicEngine engine;
+		private AllocationJournal journal;
+		private File journalFile;
+		
+		@Setup
+		public void setUp() throws IOException {
+			final EngineSize size = new EngineSize("S", 0, 99999);
+			final EnginePool pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+					.addEntry(new EnginePoolEntry(size, 1)).build();
+			if (journaled) {
+				journalFile = Files.createTempFile("allocation-journal", ".dat").toFile();
+				journalFile.delete();
+				final CxConfig config = new CxConfig();
+				config.setJournalFile(journalFile.getPath());
+				journal = new AllocationJournal(config, new ObjectMapper());
+				journal.open();
+				pool.setStateListener(journal);
+			}
+			engine = pool.allocateEngine(size, DynamicEngine.State.UNPROVISIONED, DynamicEngine.State.IDLE);
+		}
+		
+		@TearDown
+		public void tearDown() {
+			if (journal == null) return;
+			
+			journal.close();
+			journalFile.delete();
+			new File(journalFile.getPath() + ".snapshot").delete();
+		}
+		
+	}
+
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.domain;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.rest.model.ProgramLanguage;
+import com.checkmarx.engine.rest.model.Project;
+import com.checkmarx.engine.rest.model.ScanRequest;
+
+/**
+ * Measures sizing a scan with compiled {@link EngineMatchRules}, against evaluating the same 
+ * conditions as a precompiled Groovy script through JSR-223.  The scan matches the last rule, 
+ * so every rule is evaluated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineMatchRulesBenchmark {
+	
+	private static final String RULES = 
+			"L : language in (Java, Kotlin) and incremental and loc < 500000\n" +
+			"L : project ~ '^core-' and loc > 200000\n" +
+			"M : team = 7 or team = 8\n" +
+			"M : origin in (Jenkins, Bamboo) and not incremental\n" +
+			"S : language = Go and public\n" +
+			"S : projectId = 5 or projectId = 6\n" +
+			"S : origin = 'CxFlow CLI'\n";
+	
+	private static final String SCRIPT = 
+			"def langs = scan.languages*.name*.toLowerCase();" +
+			"if (langs.any { it in ['java', 'kotlin'] } && scan.incremental && scan.loc < 500000) return 'L';" +
+			"if (scan.project.name =~ /(?i)^core-/ && scan.loc > 200000) return 'L';" +
+			"if (scan.teamId == '7' || scan.teamId == '8') return 'M';" +
+			"if (scan.origin?.toLowerCase() in ['jenkins', 'bamboo'] && !scan.incremental) return 'M';" +
+			"if (langs.contains('go') && scan.isPublic()) return 'S';" +
+			"if (scan.project.id == 5 || scan.project.id == 6) return 'S';" +
+			"if (scan.origin?.equalsIgnoreCase('CxFlow CLI')) return 'S';" +
+			"return null";
+	
+	private EnginePool pool;
+	private ScanRequest scan;
+	private CompiledScript script;
+	private Bindings bindings;
+	
+	@Setup
+	public void setUp() throws ScriptException {
+		pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+				.addEntry(new EnginePoolEntry(new EngineSize("S", 0, 99999), 1))
+				.addEntry(new EnginePoolEntry(new EngineSize("M", 100000, 499999), 1))
+				.addEntry(new EnginePoolEntry(new EngineSize("L", 500000, 999999999), 1))
+				.build();
+		pool.setMatchRules(EngineMatchRules.compile(RULES, pool::getEngineSize));
+		
+		final ProgramLanguage[] languages = { new ProgramLanguage(1, "CSharp"), new ProgramLanguage(2, "JavaScript") };
+		scan = new ScanRequest(1, "run", "1", new Project(42, "app"), null, 
+				20000, false, false, "CxFlow CLI", languages, null, null, null);
+		
+		final ScriptEngine engine = new ScriptEngineManager().getEngineByName("groovy");
+		if (engine == null) throw new IllegalStateException("Groovy ScriptEngine not found");
+		script = ((Compilable) engine).compile(SCRIPT);
+		bindings = engine.createBindings();
+	}
+	
+	@Benchmark
+	public EngineSize compiledRules() {
+		return pool.calcEngineSize(scan);
+	}
+	
+	@Benchmark
+	public Object scriptEval() throws ScriptException {
+		bindings.put("scan", scan);
+		return script.eval(bindings);
+	}
+
+}
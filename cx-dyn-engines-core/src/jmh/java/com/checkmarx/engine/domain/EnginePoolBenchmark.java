@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.domain;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.google.common.collect.Lists;
+
+/**
+ * Measures engine allocation under contention, allocating with a CAS on the engine state 
+ * as {@link EnginePool} does, and with every allocation under one pool-wide lock as before.  
+ * Each operation allocates an idle engine, then idles it again.  
+ * Threads are spread across {@code sizes} engine sizes; with one size all threads contend 
+ * for the same engines.  Run at 16 to 64 threads with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class EnginePoolBenchmark {
+	
+	private static final int BATCH = 100;
+	private static final int ENGINES = 64;
+	
+	@Param({ "1", "4" })
+	private int sizes;
+	
+	private final List<EngineSize> engineSizes = Lists.newArrayList();
+	private final Object poolLock = new Object();
+	private EnginePool pool;
+	
+	@State(Scope.Thread)
+	public static class ThreadSize {
+		
+		private static final AtomicInteger threads = new AtomicInteger();
+		private final int index = threads.getAndIncrement();
+		
+	}
+	
+	@Setup
+	public void setUp() {
+		final DefaultEnginePoolBuilder builder = new DefaultEnginePoolBuilder(new EnginePoolConfig());
+		for (int i = 0; i < sizes; i++) {
+			final EngineSize size = new EngineSize("S" + i, i * 100000, (i + 1) * 100000 - 1);
+			engineSizes.add(size);
+			builder.addEntry(new EnginePoolEntry(size, ENGINES));
+		}
+		pool = builder.build();
+		for (EngineSize size : engineSizes) {
+			for (int i = 0; i < ENGINES; i++) {
+				pool.idleEngine(pool.allocateEngine(size, DynamicEngine.State.UNPROVISIONED));
+			}
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long lockFree(ThreadSize thread) {
+		final EngineSize size = engineSizes.get(thread.index % sizes);
+		long allocated = 0;
+		for (int i = 0; i < BATCH; i++) {
+			allocated += allocate(size);
+		}
+		return allocated;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long globalLock(ThreadSize thread) {
+		final EngineSize size = engineSizes.get(thread.index % sizes);
+		long allocated = 0;
+		for (int i = 0; i < BATCH; i++) {
+			synchronized (poolLock) {
+				allocated += allocate(size);
+			}
+		}
+		return allocated;
+	}
+	
+	private long allocate(EngineSize size) {
+		final DynamicEngine engine = pool.allocateEngine(size, DynamicEngine.State.IDLE);
+		if (engine == null) return 0;
+		
+		pool.idleEngine(engine);
+		return 1;
+	}
+
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.rest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequestSummary;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+
+/**
+ * Compares binding the scans queue response to {@code ScanRequest[]} with the
+ * streaming {@link ScanQueueParser}.  Run with {@code -prof gc} to compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanQueueParserBenchmark {
+	
+	@Param({ "10", "100", "1000" })
+	private int scanCount;
+	
+	/**
+	 * Percentage of scans that changed since the previous poll, and so are bound
+	 */
+	@Param({ "0", "5" })
+	private int changedPct;
+	
+	private ObjectMapper mapper;
+	private ScanQueueParser parser;
+	private byte[] content;
+	
+	@Setup
+	public void setUp() {
+		mapper = new ObjectMapper()
+				.registerModule(new JodaModule())
+				.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		parser = new ScanQueueParser(mapper);
+		content = createScansQueue(scanCount).getBytes(StandardCharsets.UTF_8);
+	}
+	
+	@Benchmark
+	public List<ScanRequest> bindScanRequests() throws IOException {
+		return Arrays.asList(mapper.readValue(content, ScanRequest[].class));
+	}
+	
+	@Benchmark
+	public long parseSummaries() throws IOException {
+		final List<ScanRequestSummary> scans = parser.parse(content);
+		final int changedEvery = changedPct == 0 ? Integer.MAX_VALUE : 100 / changedPct;
+		long result = 0;
+		for (int i = 0; i < scans.size(); i++) {
+			final ScanRequestSummary scan = scans.get(i);
+			result += scan.getStageId() + scan.getEngineId() + scan.getLoc();
+			if (i % changedEvery == 0) {
+				result += scan.getScan().getId();
+			}
+		}
+		return result;
+	}
+	
+	private static String createScansQueue(int scanCount) {
+		final StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < scanCount; i++) {
+			if (i > 0) sb.append(',');
+			final boolean scanning = i % 2 == 0;
+			sb.append("{\"id\":").append(1000000 + i)
+				.append(",\"runId\":\"08001234-").append(i).append("\"")
+				.append(",\"stage\":{\"id\":").append(scanning ? 4 : 3)
+				.append(",\"value\":\"").append(scanning ? "Scanning" : "Queued").append("\"}")
+				.append(",\"stageDetails\":\"Scan is running\",\"stepDetails\":\"\"")
+				.append(",\"teamId\":\"00000000-1111-1111-b111-989c9070eb11\"")
+				.append(",\"project\":{\"id\":").append(i % 50)
+				.append(",\"name\":\"project-").append(i % 50).append("\"")
+				.append(",\"link\":{\"rel\":\"project\",\"uri\":\"/projects/").append(i % 50).append("\"}}")
+				.append(",\"engine\":").append(scanning ? "{\"id\":" + (i % 20) + ",\"link\":null}" : "null")
+				.append(",\"languages\":[{\"id\":1,\"name\":\"Java\"},{\"id\":4,\"name\":\"JavaScript\"}]")
+				.append(",\"loc\":").append(10000 + i * 100)
+				.append(",\"isIncremental\":false,\"isPublic\":true,\"origin\":\"Portal\"")
+				.append(",\"dateCreated\":\"2019-01-15T10:00:00.000Z\"")
+				.append(",\"queuedOn\":\"2019-01-15T10:00:05.000Z\"")
+				.append(",\"engineStartedOn\":").append(scanning ? "\"2019-01-15T10:01:00.000Z\"" : "null")
+				.append(",\"completedOn\":null}");
+		}
+		return sb.append(']').toString();
+	}
+
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.checkmarx.engine.domain.DefaultEnginePoolBuilder;
+import com.checkmarx.engine.domain.DynamicEngine;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EnginePoolConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.utils.ConcurrentLongLongHashMap;
+import com.checkmarx.engine.utils.EventLoop;
+
+/**
+ * Compares engine allocation throughput with the allocation state mutated by many threads 
+ * under locks, as in the default {@link EngineManager} mode, with the same state changes 
+ * posted to a single-writer {@link EventLoop}.  
+ * Each operation allocates an idle engine, tracks a scan on it, then idles it again.
+ * Vary the thread count with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class EngineEventLoopBenchmark {
+	
+	private static final int BATCH = 100;
+	private static final int ENGINES = 64;
+	
+	private final EngineSize size = new EngineSize("S", 0, 99999);
+	private EnginePool pool;
+	private ConcurrentLongLongHashMap engineScans;
+	private EventLoop eventLoop;
+	
+	@State(Scope.Thread)
+	public static class ScanIds {
+		
+		private static final AtomicInteger threads = new AtomicInteger();
+		private long next = threads.incrementAndGet() * 1000000000L;
+		
+	}
+	
+	@Setup
+	public void setUp() {
+		pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+				.addEntry(new EnginePoolEntry(size, ENGINES))
+				.build();
+		for (int i = 0; i < ENGINES; i++) {
+			pool.idleEngine(pool.allocateEngine(size, DynamicEngine.State.UNPROVISIONED));
+		}
+		engineScans = new ConcurrentLongLongHashMap(ENGINES, -1);
+		eventLoop = new EventLoop("bench-events", 1024);
+		eventLoop.start();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		eventLoop.stop(10, TimeUnit.SECONDS);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long lockedState(ScanIds scanIds) {
+		long allocated = 0;
+		for (int i = 0; i < BATCH; i++) {
+			allocated += allocate(scanIds.next++);
+		}
+		return allocated;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public long eventLoop(ScanIds scanIds) throws InterruptedException {
+		// only touched by the event loop, read after the latch
+		final long[] allocated = { 0 };
+		for (int i = 0; i < BATCH; i++) {
+			final long scanId = scanIds.next++;
+			eventLoop.execute(() -> allocated[0] += allocate(scanId));
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		eventLoop.execute(done::countDown);
+		done.await();
+		return allocated[0];
+	}
+	
+	private long allocate(long scanId) {
+		final DynamicEngine engine = pool.allocateEngine(size, DynamicEngine.State.IDLE);
+		if (engine == null) return 0;
+		
+		engineScans.put(scanId, scanId);
+		engineScans.remove(scanId);
+		pool.idleEngine(engine);
+		return 1;
+	}
+
+}
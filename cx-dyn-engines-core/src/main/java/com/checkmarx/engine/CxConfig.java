@@ -13,10 +13,13 @@
  ******************************************************************************/
 package com.checkmarx.engine;
 
+import java.util.Map;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
 
 @Component
 @ConfigurationProperties(prefix="cx")
@@ -27,12 +30,46 @@ public class CxConfig {
 	private String userName;
 	private String password;
 	private int concurrentScanLimit;
+	private boolean scanLimitBorrowing = false;
+	private Map<String, Integer> teamScanLimits = Maps.newHashMap();
 	private String cxEnginePrefix = "**";
 	private boolean cxEngineUseSSL = false;
 	private int expireEngineBufferMins = 1;
 	private int idleMonitorSecs = 15;
+	private int engineBlockThreads = 4;
+	private int engineBlockAttempts = 3;
+	private int scanQueuedThreads = 10;
+	private int scanFinishedThreads = 5;
+	private int engineExpiringThreads = 5;
+	private int engineLaunchThreads = 0;
+	private boolean engineEventLoop = false;
+	private int engineEventLoopCapacity = 1024;
+	private int engineReuseWindowSecs = 120;
+	private int bestFitMaxSizeSteps = 1;
+	private int bestFitMinIdle = 0;
+	private boolean warmPool = true;
+	private boolean forecastScaling = false;
+	private double forecastAlpha = 0.3;
+	private int forecastLeadMins = 10;
+	private String forecastFile = "arrival-forecast.json";
+	private int blockedScanAgingSecs = 300;
+	private int scanOverheadSecs = 60;
+	private int scanLocPerSec = 100;
+	private double scanEstimateAlpha = 0.3;
+	private String scanEstimateFile = "scan-estimates.json";
+	private int scanEstimateSaveSecs = 60;
+	private boolean allocationJournal = false;
+	private String journalFile = "allocation-journal.dat";
+	private int journalSnapshotSecs = 300;
+	private String engineRulesFile;
+	private int engineRulesReloadSecs = 30;
 	private int queueCapacity = 100;
 	private int queueIntervalSecs = 20;
+	private boolean queueDeltaPolling = true;
+	private boolean queueAdaptivePolling = true;
+	private int queueIntervalMinSecs = 5;
+	private int queueIntervalMaxSecs = 30;
+	private int queueMissingScanPolls = 3;
 	private String queueingEngineName="DynamicEngine";
 	private String restUrl;
 	private int timeoutSecs = 20;
@@ -62,6 +99,31 @@ public class CxConfig {
 		this.concurrentScanLimit = concurrentScanLimit;
 	}
 
+	/**
+	 * @return if true, a scan whose engine size is at its scan limit may use a free 
+	 * 			slot of another engine size.  See {@code cx-engine.pool[n].scanLimit}.
+	 * 			Default value is {@code false}.
+	 */
+	public boolean isScanLimitBorrowing() {
+		return scanLimitBorrowing;
+	}
+
+	public void setScanLimitBorrowing(boolean scanLimitBorrowing) {
+		this.scanLimitBorrowing = scanLimitBorrowing;
+	}
+
+	/**
+	 * @return maximum # of concurrent scans by team; key=ScanRequest.teamId.
+	 * 			Teams not listed are only subject to the other scan limits.
+	 */
+	public Map<String, Integer> getTeamScanLimits() {
+		return teamScanLimits;
+	}
+
+	public void setTeamScanLimits(Map<String, Integer> teamScanLimits) {
+		this.teamScanLimits = teamScanLimits;
+	}
+
 	/**
 	 * @return the prefix to append to the engine name registered with CxManager.
 	 * 			Default value is {@code '**'}.  This can be used to distinguish
@@ -99,6 +161,352 @@ public class CxConfig {
 		this.idleMonitorSecs = idleMonitorSecs;
 	}
 
+	/**
+	 * @return the maximum number of engines blocked concurrently.  
+	 * 			Default value is {@code 4}.
+	 */
+	public int getEngineBlockThreads() {
+		return engineBlockThreads;
+	}
+
+	public void setEngineBlockThreads(int engineBlockThreads) {
+		this.engineBlockThreads = engineBlockThreads;
+	}
+
+	/**
+	 * @return the number of attempts to block an engine before giving up.  
+	 * 			Default value is {@code 3}.
+	 */
+	public int getEngineBlockAttempts() {
+		return engineBlockAttempts;
+	}
+
+	public void setEngineBlockAttempts(int engineBlockAttempts) {
+		this.engineBlockAttempts = engineBlockAttempts;
+	}
+
+	/**
+	 * @return the number of threads allocating engines to queued scans.  
+	 * 			Default value is {@code 10}.
+	 */
+	public int getScanQueuedThreads() {
+		return scanQueuedThreads;
+	}
+
+	public void setScanQueuedThreads(int scanQueuedThreads) {
+		this.scanQueuedThreads = scanQueuedThreads;
+	}
+
+	/**
+	 * @return the number of threads releasing engines from finished scans.  
+	 * 			Default value is {@code 5}.
+	 */
+	public int getScanFinishedThreads() {
+		return scanFinishedThreads;
+	}
+
+	public void setScanFinishedThreads(int scanFinishedThreads) {
+		this.scanFinishedThreads = scanFinishedThreads;
+	}
+
+	/**
+	 * @return the number of threads stopping expired engines.  
+	 * 			Default value is {@code 5}.
+	 */
+	public int getEngineExpiringThreads() {
+		return engineExpiringThreads;
+	}
+
+	public void setEngineExpiringThreads(int engineExpiringThreads) {
+		this.engineExpiringThreads = engineExpiringThreads;
+	}
+
+	/**
+	 * @return the number of threads launching engines; 
+	 * 			if {@code 0}, one thread per engine in the pool.  
+	 * 			Default value is {@code 0}.
+	 */
+	public int getEngineLaunchThreads() {
+		return engineLaunchThreads;
+	}
+
+	public void setEngineLaunchThreads(int engineLaunchThreads) {
+		this.engineLaunchThreads = engineLaunchThreads;
+	}
+
+	/**
+	 * @return true if scan and engine events are processed by a single event loop thread 
+	 * 			that owns the engine allocation state; the thread pools then only make 
+	 * 			blocking calls to the CxManager and the engine provider.  
+	 * 			Default value is {@code false}.
+	 */
+	public boolean isEngineEventLoop() {
+		return engineEventLoop;
+	}
+
+	public void setEngineEventLoop(boolean engineEventLoop) {
+		this.engineEventLoop = engineEventLoop;
+	}
+
+	/**
+	 * @return the number of events the event loop buffers before posting threads wait.  
+	 * 			Default value is {@code 1024}.
+	 */
+	public int getEngineEventLoopCapacity() {
+		return engineEventLoopCapacity;
+	}
+
+	public void setEngineEventLoopCapacity(int engineEventLoopCapacity) {
+		this.engineEventLoopCapacity = engineEventLoopCapacity;
+	}
+
+	/**
+	 * @return if a busy engine is predicted to finish its scan within this many seconds, 
+	 * 			it is reserved for a queued scan instead of launching a new engine; 
+	 * 			{@code 0} disables engine reuse.  
+	 * 			Default value is {@code 120}.
+	 */
+	public int getEngineReuseWindowSecs() {
+		return engineReuseWindowSecs;
+	}
+
+	public void setEngineReuseWindowSecs(int engineReuseWindowSecs) {
+		this.engineReuseWindowSecs = engineReuseWindowSecs;
+	}
+
+	/**
+	 * @return when no idle engine of a scan's size is available, the number of larger 
+	 * 			engine sizes an idle engine may be borrowed from, smallest first;
+	 * 			{@code 0} disables borrowing.  
+	 * 			Default value is {@code 1}.
+	 */
+	public int getBestFitMaxSizeSteps() {
+		return bestFitMaxSizeSteps;
+	}
+
+	public void setBestFitMaxSizeSteps(int bestFitMaxSizeSteps) {
+		this.bestFitMaxSizeSteps = bestFitMaxSizeSteps;
+	}
+
+	/**
+	 * @return the number of idle engines of a larger size kept for scans of that size, 
+	 * 			i.e. not borrowed by smaller scans.  
+	 * 			Default value is {@code 0}.
+	 */
+	public int getBestFitMinIdle() {
+		return bestFitMinIdle;
+	}
+
+	public void setBestFitMinIdle(int bestFitMinIdle) {
+		this.bestFitMinIdle = bestFitMinIdle;
+	}
+
+	/**
+	 * @return true if engines are launched ahead of scans to keep each pool entry's 
+	 * 			minimum, including scheduled minimums, provisioned and idle.  
+	 * 			Default value is {@code true}.
+	 */
+	public boolean isWarmPool() {
+		return warmPool;
+	}
+
+	public void setWarmPool(boolean warmPool) {
+		this.warmPool = warmPool;
+	}
+
+	/**
+	 * @return true if the warm pool is raised to the number of scans forecast to arrive 
+	 * 			within forecastLeadMins, learned from previous weeks' scan arrivals.  
+	 * 			Requires warmPool.  Default value is {@code false}.
+	 */
+	public boolean isForecastScaling() {
+		return forecastScaling;
+	}
+
+	public void setForecastScaling(boolean forecastScaling) {
+		this.forecastScaling = forecastScaling;
+	}
+
+	/**
+	 * @return the weight of the latest week when learning scan arrivals, 
+	 * 			between {@code 0} (exclusive) and {@code 1}.  
+	 * 			Default value is {@code 0.3}.
+	 */
+	public double getForecastAlpha() {
+		return forecastAlpha;
+	}
+
+	public void setForecastAlpha(double forecastAlpha) {
+		this.forecastAlpha = forecastAlpha;
+	}
+
+	/**
+	 * @return how far ahead, in minutes, scan arrivals are forecast; 
+	 * 			should cover the time to launch an engine.  
+	 * 			Default value is {@code 10}.
+	 */
+	public int getForecastLeadMins() {
+		return forecastLeadMins;
+	}
+
+	public void setForecastLeadMins(int forecastLeadMins) {
+		this.forecastLeadMins = forecastLeadMins;
+	}
+
+	/**
+	 * @return the file the learned scan arrival model is saved to; 
+	 * 			if empty, the model is not saved.  
+	 * 			Default value is {@code arrival-forecast.json}.
+	 */
+	public String getForecastFile() {
+		return forecastFile;
+	}
+
+	public void setForecastFile(String forecastFile) {
+		this.forecastFile = forecastFile;
+	}
+
+	/**
+	 * @return the head start, in seconds, blocked scans of an engine's own size get over 
+	 * 			smaller blocked scans that may borrow the engine; a smaller scan that has 
+	 * 			waited this much longer is re-driven first.  
+	 * 			Default value is {@code 300}.
+	 */
+	public int getBlockedScanAgingSecs() {
+		return blockedScanAgingSecs;
+	}
+
+	public void setBlockedScanAgingSecs(int blockedScanAgingSecs) {
+		this.blockedScanAgingSecs = blockedScanAgingSecs;
+	}
+
+	/**
+	 * @return the estimated fixed overhead of a scan, in seconds, 
+	 * 			used to predict scan duration.  
+	 * 			Default value is {@code 60}.
+	 */
+	public int getScanOverheadSecs() {
+		return scanOverheadSecs;
+	}
+
+	public void setScanOverheadSecs(int scanOverheadSecs) {
+		this.scanOverheadSecs = scanOverheadSecs;
+	}
+
+	/**
+	 * @return the estimated scan rate, in lines of code per second, 
+	 * 			used to predict scan duration.  
+	 * 			Default value is {@code 100}.
+	 */
+	public int getScanLocPerSec() {
+		return scanLocPerSec;
+	}
+
+	public void setScanLocPerSec(int scanLocPerSec) {
+		this.scanLocPerSec = scanLocPerSec;
+	}
+
+	/**
+	 * @return the weight of the latest finished scan when learning scan duration, 
+	 * 			between {@code 0} (exclusive) and {@code 1}.  
+	 * 			Default value is {@code 0.3}.
+	 */
+	public double getScanEstimateAlpha() {
+		return scanEstimateAlpha;
+	}
+
+	public void setScanEstimateAlpha(double scanEstimateAlpha) {
+		this.scanEstimateAlpha = scanEstimateAlpha;
+	}
+
+	/**
+	 * @return the file the learned scan duration model is saved to; 
+	 * 			if empty, the model is not saved.  
+	 * 			Default value is {@code scan-estimates.json}.
+	 */
+	public String getScanEstimateFile() {
+		return scanEstimateFile;
+	}
+
+	public void setScanEstimateFile(String scanEstimateFile) {
+		this.scanEstimateFile = scanEstimateFile;
+	}
+
+	/**
+	 * @return how often, in seconds, a changed scan duration model is saved.  
+	 * 			Default value is {@code 60}.
+	 */
+	public int getScanEstimateSaveSecs() {
+		return scanEstimateSaveSecs;
+	}
+
+	public void setScanEstimateSaveSecs(int scanEstimateSaveSecs) {
+		this.scanEstimateSaveSecs = scanEstimateSaveSecs;
+	}
+
+	/**
+	 * @return true if engine state changes and scan assignments are journaled, 
+	 * 			so on restart registered engines and their running scans are re-adopted 
+	 * 			instead of unregistered.  Default value is {@code false}.
+	 */
+	public boolean isAllocationJournal() {
+		return allocationJournal;
+	}
+
+	public void setAllocationJournal(boolean allocationJournal) {
+		this.allocationJournal = allocationJournal;
+	}
+
+	/**
+	 * @return the memory-mapped allocation journal file; its snapshot is saved 
+	 * 			alongside it, with a {@code .snapshot} suffix.  
+	 * 			Default value is {@code allocation-journal.dat}.
+	 */
+	public String getJournalFile() {
+		return journalFile;
+	}
+
+	public void setJournalFile(String journalFile) {
+		this.journalFile = journalFile;
+	}
+
+	/**
+	 * @return how often, in seconds, the allocation journal is compacted into a snapshot.  
+	 * 			Default value is {@code 300}.
+	 */
+	public int getJournalSnapshotSecs() {
+		return journalSnapshotSecs;
+	}
+
+	public void setJournalSnapshotSecs(int journalSnapshotSecs) {
+		this.journalSnapshotSecs = journalSnapshotSecs;
+	}
+
+	/**
+	 * @return file of rules choosing engine sizes by language, project, team, 
+	 * 			incremental and origin ahead of LOC, see {@link com.checkmarx.engine.domain.EngineMatchRules}.  
+	 * 			Default value is {@code null}, sizes are chosen by LOC only.
+	 */
+	public String getEngineRulesFile() {
+		return engineRulesFile;
+	}
+
+	public void setEngineRulesFile(String engineRulesFile) {
+		this.engineRulesFile = engineRulesFile;
+	}
+
+	/**
+	 * @return how often, in seconds, the engine rules file is checked for changes and reloaded.  
+	 * 			Default value is {@code 30}.
+	 */
+	public int getEngineRulesReloadSecs() {
+		return engineRulesReloadSecs;
+	}
+
+	public void setEngineRulesReloadSecs(int engineRulesReloadSecs) {
+		this.engineRulesReloadSecs = engineRulesReloadSecs;
+	}
+
 	public int getQueueCapacity() {
 		return queueCapacity;
 	}
@@ -115,6 +523,68 @@ public class CxConfig {
 		this.queueIntervalSecs = queueIntervalSecs;
 	}
 
+	/**
+	 * @return if true, the scan queue polling interval adapts to the queue activity, 
+	 * 			bounded by queueIntervalMinSecs and queueIntervalMaxSecs.  
+	 * 			Default value is {@code true}.
+	 */
+	public boolean isQueueAdaptivePolling() {
+		return queueAdaptivePolling;
+	}
+
+	public void setQueueAdaptivePolling(boolean queueAdaptivePolling) {
+		this.queueAdaptivePolling = queueAdaptivePolling;
+	}
+
+	/**
+	 * @return the scan queue polling interval used while scans are pending.
+	 * 			Default value is {@code 5}.
+	 */
+	public int getQueueIntervalMinSecs() {
+		return queueIntervalMinSecs;
+	}
+
+	public void setQueueIntervalMinSecs(int queueIntervalMinSecs) {
+		this.queueIntervalMinSecs = queueIntervalMinSecs;
+	}
+
+	/**
+	 * @return the maximum scan queue polling interval, used while the queue is idle.
+	 * 			Default value is {@code 30}.
+	 */
+	public int getQueueIntervalMaxSecs() {
+		return queueIntervalMaxSecs;
+	}
+
+	public void setQueueIntervalMaxSecs(int queueIntervalMaxSecs) {
+		this.queueIntervalMaxSecs = queueIntervalMaxSecs;
+	}
+
+	/**
+	 * @return if true, only scans that are new or have changed since the previous
+	 * 			scan queue poll are processed.  Default value is {@code true}.
+	 */
+	public boolean isQueueDeltaPolling() {
+		return queueDeltaPolling;
+	}
+
+	public void setQueueDeltaPolling(boolean queueDeltaPolling) {
+		this.queueDeltaPolling = queueDeltaPolling;
+	}
+
+	/**
+	 * @return the number of consecutive scan queue polls an active scan can be missing
+	 * 			from the scan queue before it is treated as finished.  Zero disables
+	 * 			missing scan detection.  Default value is {@code 3}.
+	 */
+	public int getQueueMissingScanPolls() {
+		return queueMissingScanPolls;
+	}
+
+	public void setQueueMissingScanPolls(int queueMissingScanPolls) {
+		this.queueMissingScanPolls = queueMissingScanPolls;
+	}
+
 	public String getQueueingEngineName() {
 		return queueingEngineName;
 	}
@@ -165,13 +635,47 @@ public class CxConfig {
 		return MoreObjects.toStringHelper(this)
 				.add("userName", userName)
 				.add("concurrentScanLimit", concurrentScanLimit)
+				.add("scanLimitBorrowing", scanLimitBorrowing)
+				.add("teamScanLimits", teamScanLimits)
 				.add("cxEnginePrefix", cxEnginePrefix)
 				.add("cxEngineUseSSL", cxEngineUseSSL)
 				.add("cxEngineUrlPath", cxEngineUrlPath)
 				.add("expireEngineBufferMins", expireEngineBufferMins)
 				.add("idleMonitorSecs", idleMonitorSecs)
+				.add("engineBlockThreads", engineBlockThreads)
+				.add("engineBlockAttempts", engineBlockAttempts)
+				.add("scanQueuedThreads", scanQueuedThreads)
+				.add("scanFinishedThreads", scanFinishedThreads)
+				.add("engineExpiringThreads", engineExpiringThreads)
+				.add("engineLaunchThreads", engineLaunchThreads)
+				.add("engineEventLoop", engineEventLoop)
+				.add("engineEventLoopCapacity", engineEventLoopCapacity)
+				.add("engineReuseWindowSecs", engineReuseWindowSecs)
+				.add("bestFitMaxSizeSteps", bestFitMaxSizeSteps)
+				.add("bestFitMinIdle", bestFitMinIdle)
+				.add("warmPool", warmPool)
+				.add("forecastScaling", forecastScaling)
+				.add("forecastAlpha", forecastAlpha)
+				.add("forecastLeadMins", forecastLeadMins)
+				.add("forecastFile", forecastFile)
+				.add("blockedScanAgingSecs", blockedScanAgingSecs)
+				.add("scanOverheadSecs", scanOverheadSecs)
+				.add("scanLocPerSec", scanLocPerSec)
+				.add("scanEstimateAlpha", scanEstimateAlpha)
+				.add("scanEstimateFile", scanEstimateFile)
+				.add("scanEstimateSaveSecs", scanEstimateSaveSecs)
+				.add("allocationJournal", allocationJournal)
+				.add("journalFile", journalFile)
+				.add("journalSnapshotSecs", journalSnapshotSecs)
+				.add("engineRulesFile", engineRulesFile)
+				.add("engineRulesReloadSecs", engineRulesReloadSecs)
 				.add("queueCapacity", queueCapacity)
 				.add("queueIntervalSecs", queueIntervalSecs)
+				.add("queueDeltaPolling", queueDeltaPolling)
+				.add("queueAdaptivePolling", queueAdaptivePolling)
+				.add("queueIntervalMinSecs", queueIntervalMinSecs)
+				.add("queueIntervalMaxSecs", queueIntervalMaxSecs)
+				.add("queueMissingScanPolls", queueMissingScanPolls)
 				.add("queueingEngineName", queueingEngineName)
 				.add("restUrl", restUrl)
 				.add("timeoutSecs", timeoutSecs)
@@ -16,18 +16,25 @@
  */
 package com.checkmarx.engine.domain;
 
-import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.checkmarx.engine.utils.LongHashSet;
 import com.google.common.base.MoreObjects;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableSet;
 
 /**
+ * State transitions allocate nothing: times are primitive longs, elapsed times in each state 
+ * are nanos from the monotonic clock indexed by {@link State#ordinal()}, and dates are only 
+ * created when read or printed.
+ * 
  * @author rjgeyer
  *
  */
@@ -40,19 +47,44 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 		SCANNING,
 		EXPIRING,
 		IDLE,
-		UNPROVISIONED;
+		UNPROVISIONED,
+		LAUNCHING;
 	}
 	
+	private static final State[] STATES = State.values();
+	
+	/**
+	 * unset time, e.g. no time to expire
+	 */
+	private static final long NO_TIME = -1;
+	
 	private final String name;
 	private final String size;
-	private State state = State.UNPROVISIONED;
-	private DateTime currentStateTime = DateTime.now();
-	private DateTime timeToExpire;
+	/**
+	 * changed with a CAS, so an engine is allocated by exactly one caller
+	 */
+	private final AtomicReference<State> state = new AtomicReference<>(State.UNPROVISIONED);
+	/**
+	 * start of the current state; wall clock millis, and monotonic nanos for elapsed times
+	 */
+	private long currentStateMillis = System.currentTimeMillis();
+	private long currentStateNanos = System.nanoTime();
+	/**
+	 * wall clock millis, or NO_TIME
+	 */
+	private long timeToExpireMillis = NO_TIME;
 	private Host host;
-	private Map<State, Duration> elapsedTimes = Maps.newConcurrentMap();
+	/**
+	 * nanos spent in each completed state; index=State.ordinal()
+	 */
+	private final long[] elapsedNanos = new long[STATES.length];
 	private final long expireDurationSecs;
 	private DateTime launchTime;
-	private Long scanId;
+	/**
+	 * scans running on this engine; more than one if the engine size runs concurrent scans.  
+	 * Guarded by this engine's monitor, which {@link EnginePool} holds when adding and releasing scans.
+	 */
+	private final LongHashSet scanIds = new LongHashSet();
 	private EnginePool enginePool;
 
 	public EnginePool getEnginePool() {
@@ -72,7 +104,6 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 		this.size = size;
 		this.expireDurationSecs = expireDurationSecs;
 		this.enginePool = enginePool;
-		initElapsedTimes();
 	}
 	
 	public static DynamicEngine fromProvisionedInstance(
@@ -81,18 +112,11 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 		final DynamicEngine engine = new DynamicEngine(name, size, expireDurationSecs);
 		engine.launchTime = launchTime;
 		if (isRunning) {
-			engine.state = State.IDLE;
-			engine.timeToExpire = engine.calcExpirationTime();
+			engine.state.set(State.IDLE);
+			engine.timeToExpireMillis = engine.calcExpirationMillis(System.currentTimeMillis());
 		}
 		return engine;
 	}
-	
-	private void initElapsedTimes() {
-		final Duration zero = new Duration(0);
-		for (State state : State.values()) {
-			elapsedTimes.put(state, zero);
-		}
-	}
 
 	public String getName() {
 		return name;
@@ -103,7 +127,7 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 	}
 
 	public State getState() {
-		return state;
+		return state.get();
 	}
 
 	public Host getHost() {
@@ -115,7 +139,7 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 	}
 	
 	public DateTime getCurrentStateTime() {
-		return currentStateTime;
+		return new DateTime(currentStateMillis);
 	}
 	
 	public DateTime getLaunchTime() {
@@ -123,22 +147,46 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 	}
 	
 	public DateTime getTimeToExpire() {
-		return timeToExpire;
+		final long expireMillis = timeToExpireMillis;
+		return expireMillis == NO_TIME ? null : new DateTime(expireMillis);
 	}
 	
 	public void setState(State toState) {
-		final State curState = this.state; 
-		log.debug("setState(): currentState={}; newState={}; {}", curState, toState, this);
-		
-		//sanity check
-		if (curState.equals(toState)) {
-			log.warn("Setting DynamicEngine state to current state; state={}", toState);
-			return;
+		while (true) {
+			final State curState = state.get(); 
+			if (log.isDebugEnabled()) {
+				log.debug("setState(): name={}; currentState={}; newState={}", name, curState, toState);
+			}
+			
+			//sanity check
+			if (curState.equals(toState)) {
+				log.debug("Engine already in state; name={}; state={}", name, toState);
+				return;
+			}
+			if (compareAndSetState(curState, toState)) return;
 		}
+	}
+	
+	/**
+	 * Changes the state only if the engine is in the expected state, 
+	 * so concurrent callers allocating the same engine cannot both succeed.
+	 * 
+	 * @return false if the engine is not in the expected state
+	 */
+	public boolean compareAndSetState(State curState, State toState) {
+		if (curState.equals(toState) || !state.compareAndSet(curState, toState)) return false;
 		
+		// bookkeeping of overlapping transitions of this engine is serialized; uncontended otherwise
+		synchronized (this) {
+			onStateChanged(curState, toState);
+		}
+		return true;
+	}
+	
+	private void onStateChanged(State curState, State toState) {
 		// before changing state, update current state elapsed time
-		final Duration currentDuration = elapsedTimes.get(this.state); 
-		elapsedTimes.put(this.state, currentDuration.plus(getElapsedTime()));
+		final long nowNanos = System.nanoTime();
+		elapsedNanos[curState.ordinal()] += nowNanos - currentStateNanos;
 
 		// if current state is UNPROVISIONED, set launch time
 		if (curState.equals(State.UNPROVISIONED)) {
@@ -146,25 +194,27 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 			if (host != null && host.getLaunchTime() != null) {
 				launchTime = host.getLaunchTime();
 			}
-			//timeToExpire = launchTime.plusSeconds(Math.toIntExact(this.expireDurationSecs));
 		}
 
 		// update state
-		this.state = toState;
-		currentStateTime = DateTime.now();
+		currentStateNanos = nowNanos;
+		currentStateMillis = System.currentTimeMillis();
 		
 		// if new state is UNPROVISIONED, clear applicable items
 		switch (toState) {
 			case UNPROVISIONED :
 				host = null;
 				launchTime = null;
-				timeToExpire = null;
+				timeToExpireMillis = NO_TIME;
+				scanIds.clear();
 				break;
 			case IDLE : 
-				timeToExpire = calcExpirationTime();
+				timeToExpireMillis = calcExpirationMillis(currentStateMillis);
+				scanIds.clear();
 				break;
 			case SCANNING :
-				timeToExpire = null;
+			case LAUNCHING :
+				timeToExpireMillis = NO_TIME;
 				break;
 			default:
 				break;
@@ -172,11 +222,14 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 		if (enginePool != null) enginePool.changeState(this, curState, toState);
 	}
 	
-	DateTime calcExpirationTime() {
-		final Duration runTime = getRunTime();
-		Long factor = Math.floorDiv(runTime.getStandardSeconds(), expireDurationSecs) + 1;
-		// set the expiration time 2 minutes before the next interval increment
-		return launchTime.plusSeconds(factor.intValue() * Math.toIntExact(expireDurationSecs));
+	/**
+	 * @return the end of the current expire interval since launch, in wall clock millis
+	 */
+	long calcExpirationMillis(long nowMillis) {
+		final long launchMillis = launchTime.getMillis();
+		final long runSecs = TimeUnit.MILLISECONDS.toSeconds(nowMillis - launchMillis);
+		final long factor = Math.floorDiv(runSecs, expireDurationSecs) + 1;
+		return launchMillis + TimeUnit.SECONDS.toMillis(factor * expireDurationSecs);
 	}
 
 	/**
@@ -184,7 +237,7 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 	 * @return Duration since last state transition
 	 */
 	public Duration getElapsedTime() {
-		return new Duration(currentStateTime, DateTime.now());  
+		return new Duration(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - currentStateNanos));  
 	}
 	
 	/**
@@ -192,8 +245,9 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 	 * @return Duration since launched
 	 */
 	public Duration getRunTime() {
-		if (launchTime == null) return Duration.ZERO;
-		return new Duration(launchTime, DateTime.now());  
+		final DateTime launched = launchTime;
+		if (launched == null) return Duration.ZERO;
+		return new Duration(System.currentTimeMillis() - launched.getMillis());  
 	}
 
 	public void setHost(Host server) {
@@ -202,21 +256,51 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 	}
 	
 	public String printElapsedTimes() {
+		final State curState = state.get();
+		final long nowNanos = System.nanoTime();
 		final StringBuilder sb = new StringBuilder();
-		elapsedTimes.forEach((state,duration) -> {
-			if (state.equals(State.ALL)) return;
-			if (state.equals(this.state)) duration = duration.plus(getElapsedTime()); 
-			sb.append(String.format("%s:%ss, ", state, duration.getStandardSeconds()));
-		});
-		return sb.toString().replaceAll(", $", "");
+		for (State s : STATES) {
+			if (s == State.ALL) continue;
+			long nanos = elapsedNanos[s.ordinal()];
+			if (s == curState) nanos += nowNanos - currentStateNanos;
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(s).append(':').append(TimeUnit.NANOSECONDS.toSeconds(nanos)).append('s');
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @return the time spent in the supplied state, including the current state so far
+	 */
+	public long getElapsedNanos(State s) {
+		long nanos = elapsedNanos[s.ordinal()];
+		if (s == state.get()) nanos += System.nanoTime() - currentStateNanos;
+		return nanos;
+	}
+
+	/**
+	 * @return a copy of the scans running on this engine
+	 */
+	public synchronized Set<Long> getScanIds() {
+		final ImmutableSet.Builder<Long> result = ImmutableSet.builder();
+		scanIds.forEach((scanId) -> result.add(scanId));
+		return result.build();
+	}
+	
+	public synchronized int getScanCount() {
+		return scanIds.size();
 	}
 
-	public Long getScanId() {
-		return scanId;
+	/**
+	 * Adds a scan to this engine.  Use {@link EnginePool#addScan(DynamicEngine, long)} 
+	 * so slot accounting is consistent with the pool.
+	 */
+	void addScanId(long scanId) {
+		scanIds.add(scanId);
 	}
 
-	public void setScanId(Long scanId) {
-		this.scanId = scanId;
+	void removeScanId(long scanId) {
+		scanIds.remove(scanId);
 	}
 
 	// name and size are only immutable properties
@@ -245,14 +329,14 @@ public class DynamicEngine implements Comparable<DynamicEngine> {
 		return MoreObjects.toStringHelper(this)
 				.add("name", name)
 				.add("size", size)
-				.add("state", state)
+				.add("state", state.get())
 				.add("elapsedTime", getElapsedTime().getStandardSeconds())
 				.add("launchTime", launchTime)
 				.add("runTime", getRunTime().getStandardSeconds())
-				.add("currentStateTime", currentStateTime)
+				.add("currentStateTime", getCurrentStateTime())
 				.add("expireDurationSecs", expireDurationSecs)
-				.add("timeToExpire", timeToExpire)
-				.add("scanId", scanId)
+				.add("timeToExpire", getTimeToExpire())
+				.add("scanIds", getScanIds())
 				.add("host", host)
 				.add("elapsedTimes", "[" + printElapsedTimes() + "]")
 				//.omitNullValues()
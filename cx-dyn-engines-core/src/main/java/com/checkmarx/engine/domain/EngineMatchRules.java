@@ -0,0 +1,423 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.domain;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.checkmarx.engine.rest.model.ProgramLanguage;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Rules that choose the engine size of a scan from more than its LOC, 
+ * see {@link EnginePool#calcEngineSize(ScanRequest)}.
+ * <br/> <br/>
+ * Rules are compiled once into predicates; evaluating a scan runs no script.  
+ * One rule per line, {@code <size> : <condition>}, first match wins; 
+ * blank lines and lines starting with {@code #} are skipped, e.g.
+ * <pre>
+ * # big incremental Java scans fit a medium engine
+ * M : language in (Java, Kotlin) and incremental and loc &lt; 500000
+ * L : project ~ "^core-" or team = "1"
+ * S : origin = Jenkins and not public
+ * </pre>
+ * Conditions combine with {@code and}, {@code or}, {@code not} and parentheses.
+ * <ul>
+ * <li>{@code language}, {@code project}, {@code team}, {@code origin}: 
+ * 		{@code =}, {@code !=}, {@code in (a, b)}, and {@code ~} for a regex found in the value; 
+ * 		compared ignoring case, a language condition matches any of the scan's languages</li>
+ * <li>{@code loc}, {@code projectId}: {@code =}, {@code !=}, {@code <}, {@code <=}, {@code >}, {@code >=}</li>
+ * <li>{@code incremental}, {@code public}: on their own, or {@code = true|false}</li>
+ * </ul>
+ * Values with spaces or symbols are quoted with {@code "} or {@code '}.
+ */
+public class EngineMatchRules {
+	
+	private final List<Rule> rules;
+	
+	private EngineMatchRules(List<Rule> rules) {
+		this.rules = ImmutableList.copyOf(rules);
+	}
+	
+	/**
+	 * Compiles the rules text.
+	 * 
+	 * @param text the rules, one per line
+	 * @param sizes looks up engine sizes by name, returns null for unknown sizes
+	 * @throws IllegalArgumentException if a rule is invalid, with its line number
+	 */
+	public static EngineMatchRules compile(String text, Function<String, EngineSize> sizes) {
+		final List<Rule> rules = Lists.newArrayList();
+		final BufferedReader lines = new BufferedReader(new StringReader(Strings.nullToEmpty(text)));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = lines.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) continue;
+				
+				try {
+					rules.add(compileRule(line, sizes));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(String.format(
+							"Invalid engine rule, line %d: %s; %s", lineNumber, e.getMessage(), line), e);
+				}
+			}
+		} catch (IOException e) {
+			// reading a string
+			throw new IllegalStateException(e);
+		}
+		return new EngineMatchRules(rules);
+	}
+	
+	private static Rule compileRule(String line, Function<String, EngineSize> sizes) {
+		final int colon = line.indexOf(':');
+		if (colon < 0) throw new IllegalArgumentException("expected <size> : <condition>");
+		
+		final String sizeName = line.substring(0, colon).trim();
+		final EngineSize size = sizes.apply(sizeName);
+		if (size == null) throw new IllegalArgumentException("unknown engine size " + sizeName);
+		
+		final String condition = line.substring(colon + 1).trim();
+		return new Rule(size, new Parser(condition).parse(), condition);
+	}
+	
+	public static EngineMatchRules empty() {
+		return new EngineMatchRules(Collections.emptyList());
+	}
+	
+	/**
+	 * @return the engine size of the first matching rule, or null if none match
+	 */
+	public EngineSize match(ScanRequest scan) {
+		for (int i = 0; i < rules.size(); i++) {
+			final Rule rule = rules.get(i);
+			if (rule.condition.test(scan)) return rule.size;
+		}
+		return null;
+	}
+	
+	public int getRuleCount() {
+		return rules.size();
+	}
+	
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("rules", rules)
+				.toString();
+	}
+	
+	private static class Rule {
+		
+		private final EngineSize size;
+		private final Predicate<ScanRequest> condition;
+		private final String text;
+		
+		Rule(EngineSize size, Predicate<ScanRequest> condition, String text) {
+			this.size = size;
+			this.condition = condition;
+			this.text = text;
+		}
+		
+		@Override
+		public String toString() {
+			return size.getName() + " : " + text;
+		}
+	
+	}
+	
+	/**
+	 * Recursive descent parser from a condition to a predicate
+	 */
+	private static class Parser {
+		
+		private final List<Token> tokens;
+		private int pos;
+		
+		Parser(String condition) {
+			this.tokens = tokenize(condition);
+		}
+		
+		Predicate<ScanRequest> parse() {
+			if (tokens.isEmpty()) throw new IllegalArgumentException("missing condition");
+			
+			final Predicate<ScanRequest> condition = parseOr();
+			if (pos < tokens.size()) throw new IllegalArgumentException("unexpected " + tokens.get(pos));
+			return condition;
+		}
+		
+		private Predicate<ScanRequest> parseOr() {
+			Predicate<ScanRequest> condition = parseAnd();
+			while (accept("or")) {
+				condition = condition.or(parseAnd());
+			}
+			return condition;
+		}
+		
+		private Predicate<ScanRequest> parseAnd() {
+			Predicate<ScanRequest> condition = parseNot();
+			while (accept("and")) {
+				condition = condition.and(parseNot());
+			}
+			return condition;
+		}
+		
+		private Predicate<ScanRequest> parseNot() {
+			if (accept("not")) return parseNot().negate();
+			if (accept("(")) {
+				final Predicate<ScanRequest> condition = parseOr();
+				expect(")");
+				return condition;
+			}
+			return parseCondition();
+		}
+		
+		private Predicate<ScanRequest> parseCondition() {
+			final String field = nextSyntax("field").toLowerCase();
+			switch (field) {
+				case "incremental" :
+					return parseFlag(ScanRequest::isIncremental);
+				case "public" :
+					return parseFlag(ScanRequest::isPublic);
+				case "loc" :
+					return parseNumber(ScanRequest::getLoc);
+				case "projectid" :
+					return parseNumber((scan) -> scan.getProject() == null ? -1 : scan.getProject().getId());
+				case "project" :
+					return parseText((scan) -> scan.getProject() == null ? null : scan.getProject().getName());
+				case "team" :
+					return parseText(ScanRequest::getTeamId);
+				case "origin" :
+					return parseText(ScanRequest::getOrigin);
+				case "language" :
+					return parseLanguage();
+				default :
+					throw new IllegalArgumentException("unknown field " + field);
+			}
+		}
+		
+		private Predicate<ScanRequest> parseFlag(Predicate<ScanRequest> flag) {
+			if (!isOperator("=") && !isOperator("!=")) return flag;
+			
+			final boolean equal = nextSyntax("operator").equals("=");
+			final String value = next("true or false").toLowerCase();
+			if (!value.equals("true") && !value.equals("false")) {
+				throw new IllegalArgumentException("expected true or false, found " + value);
+			}
+			return equal == Boolean.parseBoolean(value) ? flag : flag.negate();
+		}
+		
+		private Predicate<ScanRequest> parseNumber(ToLongFunction<ScanRequest> field) {
+			final String op = nextSyntax("operator");
+			final long value = parseLong(next("number"));
+			switch (op) {
+				case "=" : return (scan) -> field.applyAsLong(scan) == value;
+				case "!=" : return (scan) -> field.applyAsLong(scan) != value;
+				case "<" : return (scan) -> field.applyAsLong(scan) < value;
+				case "<=" : return (scan) -> field.applyAsLong(scan) <= value;
+				case ">" : return (scan) -> field.applyAsLong(scan) > value;
+				case ">=" : return (scan) -> field.applyAsLong(scan) >= value;
+				default : throw new IllegalArgumentException("unsupported number operator " + op);
+			}
+		}
+		
+		private Predicate<ScanRequest> parseText(Function<ScanRequest, String> field) {
+			final Predicate<String> test = parseTextTest();
+			return (scan) -> {
+				final String value = field.apply(scan);
+				return value != null && test.test(value);
+			};
+		}
+		
+		private Predicate<ScanRequest> parseLanguage() {
+			final Predicate<String> test = parseTextTest();
+			return (scan) -> {
+				for (ProgramLanguage language : scan.getLanguages()) {
+					if (language.getName() != null && test.test(language.getName())) return true;
+				}
+				return false;
+			};
+		}
+		
+		/**
+		 * @return the test of a text value; a negated operator negates the whole condition
+		 */
+		private Predicate<String> parseTextTest() {
+			final String op = nextSyntax("operator");
+			switch (op) {
+				case "=" : 
+					return equalsAny(new String[] { next("value") });
+				case "!=" : 
+					return equalsAny(new String[] { next("value") }).negate();
+				case "~" : 
+					final Pattern pattern = compilePattern(next("regex"));
+					return (value) -> pattern.matcher(value).find();
+				case "in" : 
+					return equalsAny(parseList());
+				default : 
+					throw new IllegalArgumentException("unsupported text operator " + op);
+			}
+		}
+		
+		private String[] parseList() {
+			expect("(");
+			final List<String> values = Lists.newArrayList(next("value"));
+			while (accept(",")) {
+				values.add(next("value"));
+			}
+			expect(")");
+			return values.toArray(new String[values.size()]);
+		}
+		
+		private static Predicate<String> equalsAny(String[] values) {
+			return (value) -> {
+				for (String v : values) {
+					if (v.equalsIgnoreCase(value)) return true;
+				}
+				return false;
+			};
+		}
+		
+		private static Pattern compilePattern(String regex) {
+			try {
+				return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+			} catch (PatternSyntaxException e) {
+				throw new IllegalArgumentException("invalid regex " + regex);
+			}
+		}
+		
+		private static long parseLong(String value) {
+			try {
+				return Long.parseLong(value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("expected a number, found " + value);
+			}
+		}
+		
+		private boolean isOperator(String op) {
+			return pos < tokens.size() && tokens.get(pos).is(op);
+		}
+		
+		private boolean accept(String token) {
+			if (pos < tokens.size() && tokens.get(pos).is(token)) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+		
+		private void expect(String token) {
+			if (!accept(token)) throw new IllegalArgumentException("expected " + token);
+		}
+		
+		/**
+		 * @return the next value, quoted or not
+		 */
+		private String next(String expected) {
+			if (pos >= tokens.size()) throw new IllegalArgumentException("expected " + expected);
+			return tokens.get(pos++).text;
+		}
+		
+		/**
+		 * @return the next field name or operator, which cannot be quoted
+		 */
+		private String nextSyntax(String expected) {
+			if (pos >= tokens.size()) throw new IllegalArgumentException("expected " + expected);
+			final Token token = tokens.get(pos++);
+			if (token.quoted) throw new IllegalArgumentException("expected " + expected + ", found " + token);
+			return token.text;
+		}
+		
+		/**
+		 * Splits a condition into words, quoted values and operators
+		 */
+		private static List<Token> tokenize(String condition) {
+			final List<Token> tokens = Lists.newArrayList();
+			int i = 0;
+			while (i < condition.length()) {
+				final char c = condition.charAt(i);
+				if (Character.isWhitespace(c)) {
+					i++;
+				} else if (c == '"' || c == '\'') {
+					final int end = condition.indexOf(c, i + 1);
+					if (end < 0) throw new IllegalArgumentException("unterminated quote");
+					tokens.add(new Token(condition.substring(i + 1, end), true));
+					i = end + 1;
+				} else if (c == '(' || c == ')' || c == ',' || c == '~' || c == '=') {
+					tokens.add(new Token(String.valueOf(c), false));
+					i++;
+				} else if (c == '!' || c == '<' || c == '>') {
+					final boolean withEquals = i + 1 < condition.length() && condition.charAt(i + 1) == '=';
+					if (c == '!' && !withEquals) throw new IllegalArgumentException("expected !=");
+					tokens.add(new Token(condition.substring(i, withEquals ? i + 2 : i + 1), false));
+					i += withEquals ? 2 : 1;
+				} else if (isWordChar(c)) {
+					final int start = i;
+					while (i < condition.length() && isWordChar(condition.charAt(i))) i++;
+					tokens.add(new Token(condition.substring(start, i), false));
+				} else {
+					throw new IllegalArgumentException("unexpected " + c);
+				}
+			}
+			return tokens;
+		}
+		
+		private static boolean isWordChar(char c) {
+			return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+		}
+	
+	}
+	
+	/**
+	 * A condition token; a quoted token is always a value, never a keyword or operator
+	 */
+	private static class Token {
+		
+		private final String text;
+		private final boolean quoted;
+		
+		Token(String text, boolean quoted) {
+			this.text = text;
+			this.quoted = quoted;
+		}
+		
+		/**
+		 * @return true if this is the supplied keyword or operator
+		 */
+		boolean is(String syntax) {
+			return !quoted && text.equalsIgnoreCase(syntax);
+		}
+		
+		@Override
+		public String toString() {
+			return quoted ? '"' + text + '"' : text;
+		}
+	
+	}
+
+}
@@ -13,24 +13,44 @@
  ******************************************************************************/
 package com.checkmarx.engine.domain;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 import com.checkmarx.engine.domain.DynamicEngine.State;
+import com.checkmarx.engine.domain.EnginePoolSnapshot.SizeSnapshot;
+import com.checkmarx.engine.rest.model.ScanRequest;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
+/**
+ * Engines by size and state.  Engines are allocated without a pool lock: 
+ * an allocation is a CAS of the engine's state, see {@link DynamicEngine#compareAndSetState(State, State)}, 
+ * so allocations of different sizes never contend, and only one caller allocates an engine.  
+ * The per-size, per-state sets are concurrent, and follow the engine's state shortly after the CAS, 
+ * so engine counts are a moment behind concurrent allocations.  
+ * Observers read an immutable {@link EnginePoolSnapshot}, assembled from a snapshot per size 
+ * published after each change, so logging and monitoring never block allocations.
+ */
+@ManagedResource(description="Engine pool")
 public class EnginePool {
 
 	private static final Logger log = LoggerFactory.getLogger(EnginePool.class);
@@ -48,10 +68,11 @@ public class EnginePool {
 	private final Map<String, Set<DynamicEngine>> idleEngines = Maps.newConcurrentMap();
 	private final Map<String, Set<DynamicEngine>> expiringEngines = Maps.newConcurrentMap();
 	private final Map<String, Set<DynamicEngine>> unprovisionedEngines = Maps.newConcurrentMap();
+	private final Map<String, Set<DynamicEngine>> launchingEngines = Maps.newConcurrentMap();
 
 	/**
 	 * map of engine maps by State, then by size name
-	 * 1st key=engine state, 2nd key = engine size
+	 * 1st key=engine state, 2nd key = engine size; engines ordered by name
 	 */
 	private final Map<State, Map<String, Set<DynamicEngine>>> engineMaps = Maps.newEnumMap(State.class);
 
@@ -61,6 +82,27 @@ public class EnginePool {
 	 */
 	private final Map<EngineSize, AtomicLong> engineSizes = Maps.newLinkedHashMap();
 	
+	/**
+	 * engine sizes by LOC, built from engineSizes
+	 */
+	private final EngineSizeIndex sizeIndex;
+	
+	/**
+	 * rules choosing the size of a scan ahead of its LOC; replaced on reload
+	 */
+	private volatile EngineMatchRules matchRules = EngineMatchRules.empty();
+	
+	/**
+	 * engines by state as of the last change of each size; replaced, never modified; 
+	 * key=engine size name, in pool order
+	 */
+	private final ImmutableMap<String, AtomicReference<SizeSnapshot>> sizeSnapshots;
+	
+	/**
+	 * number of snapshot changes published
+	 */
+	private final AtomicLong snapshotEpoch = new AtomicLong();
+	
 	/**
 	 * map of scan sizes; key=size name (string)
 	 */
@@ -72,6 +114,26 @@ public class EnginePool {
 	 */
 	private final Map<String, Integer> poolMins = Maps.newConcurrentMap();
 	
+	/**
+	 * map of pool entries by engine size; key=EngineSize name
+	 */
+	private final Map<String, EnginePoolEntry> poolEntries = Maps.newConcurrentMap();
+	
+	/**
+	 * engines allocated from a larger size; key=scan size name->engine size name
+	 */
+	private final Map<String, AtomicLong> bestFitHits = new ConcurrentSkipListMap<>();
+	
+	/**
+	 * larger size allocations that found no engine; key=scan size name
+	 */
+	private final Map<String, AtomicLong> bestFitMisses = new ConcurrentSkipListMap<>();
+	
+	/**
+	 * notified of engine state changes, null if none
+	 */
+	private volatile StateListener stateListener;
+	
 	
 	public EnginePool(Set<EnginePoolEntry> entries, Set<DynamicEngine> engines) {
 		this(entries);
@@ -84,7 +146,12 @@ public class EnginePool {
 		engineMaps.put(DynamicEngine.State.EXPIRING, expiringEngines);
 		engineMaps.put(DynamicEngine.State.IDLE, idleEngines);
 		engineMaps.put(DynamicEngine.State.UNPROVISIONED, unprovisionedEngines);
+		engineMaps.put(DynamicEngine.State.LAUNCHING, launchingEngines);
 		initSizeMaps(entries);
+		sizeIndex = new EngineSizeIndex(engineSizes.keySet());
+		final ImmutableMap.Builder<String, AtomicReference<SizeSnapshot>> snapshots = ImmutableMap.builder();
+		engineSizes.keySet().forEach((size) -> snapshots.put(size.getName(), new AtomicReference<>(SizeSnapshot.empty())));
+		sizeSnapshots = snapshots.build();
 	}
 	
 	private void initSizeMaps(Set<EnginePoolEntry> entries) {
@@ -93,6 +160,7 @@ public class EnginePool {
 			final String size = scanSize.getName();
 			scanSizes.put(scanSize.getName(), scanSize);
 			poolMins.put(size, entry.getMinimum());
+			poolEntries.put(size, entry);
 			engineSizes.put(scanSize, new AtomicLong(0));
 			engineMaps.forEach((k, map)->initEngineMaps(size, map));
 			log.info("Adding engine size; {}", scanSize); 
@@ -101,7 +169,7 @@ public class EnginePool {
 
 	private void initEngineMaps(String size, Map<String, Set<DynamicEngine>> map) {
 		if (map.containsKey(size)) return;
-		map.put(size, Sets.newTreeSet());
+		map.put(size, new ConcurrentSkipListSet<>());
 	}
 	
 	private void addEngine(DynamicEngine engine) {
@@ -115,6 +183,40 @@ public class EnginePool {
 		engineMaps.get(state).get(size).add(engine);
 		allNamedEngines.put(engine.getName(), engine);
 		engine.setEnginePool(this);
+		publish(engine, state);
+	}
+	
+	/**
+	 * Publishes a snapshot of the engine's size with the engine in the supplied state.  
+	 * Changes of an engine are published in order, under the engine's lock; changes of other 
+	 * engines of the same size are retried until each is applied to the latest snapshot.
+	 */
+	private void publish(DynamicEngine engine, State state) {
+		final AtomicReference<SizeSnapshot> snapshot = sizeSnapshots.get(engine.getSize());
+		while (true) {
+			final SizeSnapshot current = snapshot.get();
+			final SizeSnapshot next = current.withEngine(engine, state);
+			if (next == current) return;
+			if (snapshot.compareAndSet(current, next)) {
+				snapshotEpoch.incrementAndGet();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @return the engines by state as of the last change of each size, read without locks
+	 */
+	public EnginePoolSnapshot getSnapshot() {
+		final long epoch = snapshotEpoch.get();
+		final ImmutableMap.Builder<String, SizeSnapshot> sizes = ImmutableMap.builder();
+		sizeSnapshots.forEach((size, snapshot) -> sizes.put(size, snapshot.get()));
+		return new EnginePoolSnapshot(epoch, sizes.build());
+	}
+	
+	@ManagedAttribute(description="Epoch of the engine pool snapshot, incremented on each engine change")
+	public long getSnapshotEpoch() {
+		return snapshotEpoch.get();
 	}
 	
 	public int getEngineCount() {
@@ -130,23 +232,34 @@ public class EnginePool {
 	}
 
 	ImmutableMap<String, Set<DynamicEngine>> getAllEnginesBySize() {
-		return ImmutableMap.copyOf(allSizedEngines);
+		return getSnapshot().getEngines(State.ALL);
 	}
 
 	ImmutableMap<String, Set<DynamicEngine>> getActiveEngines() {
-		return ImmutableMap.copyOf(activeEngines);
+		return getSnapshot().getEngines(State.SCANNING);
 	}
 
 	ImmutableMap<String, Set<DynamicEngine>> getIdleEngines() {
-		return ImmutableMap.copyOf(idleEngines);
+		return getSnapshot().getEngines(State.IDLE);
 	}
 
 	ImmutableMap<String, Set<DynamicEngine>> getExpiringEngines() {
-		return ImmutableMap.copyOf(expiringEngines);
+		return getSnapshot().getEngines(State.EXPIRING);
 	}
 
 	ImmutableMap<String, Set<DynamicEngine>> getUnprovisionedEngines() {
-		return ImmutableMap.copyOf(unprovisionedEngines);
+		return getSnapshot().getEngines(State.UNPROVISIONED);
+	}
+
+	ImmutableMap<String, Set<DynamicEngine>> getLaunchingEngines() {
+		return getSnapshot().getEngines(State.LAUNCHING);
+	}
+	
+	/**
+	 * Sets the listener notified of engine state changes, e.g. to journal them.
+	 */
+	public void setStateListener(StateListener stateListener) {
+		this.stateListener = stateListener;
 	}
 	
 	public IdleEngineMonitor createIdleEngineMonitor(BlockingQueue<DynamicEngine> expiringEngines, int expireBufferMins) {
@@ -179,16 +292,30 @@ public class EnginePool {
 		return curEngine;
 	}
 
+	/**
+	 * Moves the engine to the set of its current state, called after each state change.  
+	 * Overlapping changes of the same engine are serialized on the engine, and each 
+	 * moves it to its latest state, so the engine ends up in the set of its final state.
+	 */
 	public void changeState(DynamicEngine engine, State fromState, State toState) {
 		if (toState.equals(State.ALL)) 
 			throw new IllegalArgumentException("Cannot set Engine state to ALL");
 		
-		String size = engine.getSize();
-		
 		if (fromState.equals(toState)) return;
 		
-		engineMaps.get(fromState).get(size).remove(engine);
-		engineMaps.get(toState).get(size).add(engine);
+		final String size = engine.getSize();
+		synchronized (engine) {
+			final State state = engine.getState();
+			engineMaps.forEach((s, map) -> {
+				if (s == State.ALL) return;
+				if (s == state) map.get(size).add(engine);
+				else map.get(size).remove(engine);
+			});
+			publish(engine, state);
+			
+			final StateListener listener = stateListener;
+			if (listener != null) listener.onStateChange(engine, fromState, state);
+		}
 	}
 	
 	void changeState(DynamicEngine engine, State toState) {
@@ -198,60 +325,319 @@ public class EnginePool {
 	public EngineSize calcEngineSize(long loc) {
 		log.trace("calcEngineSize() : loc={}", loc);
 		
-		for (EngineSize size : engineSizes.keySet()) {
-			if (size.isMatch(loc)) return size;
+		return sizeIndex.find(loc);
+	}
+	
+	/**
+	 * @return the size of the first matching rule, otherwise the size for the scan's LOC
+	 */
+	public EngineSize calcEngineSize(ScanRequest scan) {
+		final EngineSize size = matchRules.match(scan);
+		return size != null ? size : calcEngineSize(scan.getLoc());
+	}
+	
+	public EngineMatchRules getMatchRules() {
+		return matchRules;
+	}
+	
+	@ManagedAttribute(description="Engine match rules in effect")
+	public int getMatchRuleCount() {
+		return matchRules.getRuleCount();
+	}
+	
+	public void setMatchRules(EngineMatchRules matchRules) {
+		this.matchRules = matchRules;
+	}
+	
+	public DynamicEngine allocateEngine(EngineSize scanSize, State fromState) {
+		return allocateEngine(scanSize, fromState, State.SCANNING);
+	}
+	
+	/**
+	 * Moves an engine of the supplied size from one state to another.  
+	 * The first engine whose state is changed with a CAS is allocated; 
+	 * engines taken by concurrent callers are skipped.
+	 * 
+	 * @return the engine, or null if none in the from state
+	 */
+	public DynamicEngine allocateEngine(EngineSize scanSize, State fromState, State toState) {
+		log.trace("allocateEngine() : size={}; state={}; toState={}", scanSize.getName(), fromState, toState);
+		
+		final Map<String, Set<DynamicEngine>> engineMap = engineMaps.get(fromState);
+		if (engineMap == null) return null;
+		
+		final DynamicEngine engine = casFirst(engineMap.get(scanSize.getName()), fromState, toState);
+		if (engine != null) log.debug("Engine allocated: pool={}", this);
+		return engine;
+	}
+	
+	/**
+	 * @return the first engine moved from one state to another, or null if none
+	 */
+	private DynamicEngine casFirst(Set<DynamicEngine> engineList, State fromState, State toState) {
+		if (engineList == null) return null;
+		
+		for (DynamicEngine engine : engineList) {
+			if (engine.compareAndSetState(fromState, toState)) return engine;
 		}
 		return null;
 	}
 	
-	public DynamicEngine allocateEngine(EngineSize scanSize, State fromState) {
-		log.trace("allocateEngine() : size={}; state={}", scanSize.getName(), fromState);
+	/**
+	 * Allocates an engine of the smallest larger size with an engine in the supplied state,
+	 * for use when no engine of the scan size is available.
+	 * 
+	 * @param scanSize size of the scan
+	 * @param fromState state of the engine to allocate
+	 * @param maxSizeSteps number of larger sizes to consider, starting with the next larger size
+	 * @param minRemaining number of engines of a larger size that are not allocated to smaller scans
+	 * @return the allocated engine, or null if none available
+	 */
+	public DynamicEngine allocateLargerEngine(EngineSize scanSize, State fromState, int maxSizeSteps, int minRemaining) {
+		log.trace("allocateLargerEngine() : size={}; state={}; maxSizeSteps={}; minRemaining={}", 
+				scanSize.getName(), fromState, maxSizeSteps, minRemaining);
 		
-		final String size = scanSize.getName();
+		if (maxSizeSteps <= 0) return null;
 		final Map<String, Set<DynamicEngine>> engineMap = engineMaps.get(fromState);
 		if (engineMap == null) return null;
-		final Set<DynamicEngine> engineList = engineMap.get(size);
 		
-		synchronized(this) {
-			if (engineList == null || engineList.size() == 0) return null;
+		final List<EngineSize> largerSizes = getLargerSizes(scanSize);
+		for (EngineSize size : Iterables.limit(largerSizes, maxSizeSteps)) {
+			final Set<DynamicEngine> engineList = engineMap.get(size.getName());
+			if (engineList == null || engineList.size() <= minRemaining) continue;
 			
-			final DynamicEngine engine = Iterables.getFirst(engineList, null);
-			changeState(engine, State.SCANNING);
-			log.debug("Engine allocated: pool={}", this);
+			final DynamicEngine engine = casFirst(engineList, fromState, State.SCANNING);
+			if (engine == null) continue;
+			
+			increment(bestFitHits, scanSize.getName() + "->" + size.getName());
+			log.debug("Larger engine allocated: scanSize={}; pool={}", scanSize.getName(), this);
 			return engine;
 		}
+		increment(bestFitMisses, scanSize.getName());
+		return null;
+	}
+	
+	/**
+	 * Allocates a free scan slot on a scanning engine of the supplied size, for sizes that run
+	 * concurrent scans.  The fullest engine with a free slot is packed first, so other engines 
+	 * can go idle and expire.  Engines with no scans are skipped, they are not yet registered.  
+	 * Slots are taken under the engine's lock, so only allocations on the same engine contend.
+	 * 
+	 * @return the engine the scan was added to, or null if no free slot
+	 */
+	public DynamicEngine allocateSlot(EngineSize scanSize, long scanId) {
+		log.trace("allocateSlot() : size={}; scanId={}", scanSize.getName(), scanId);
+		
+		final int slots = getScansPerEngine(scanSize.getName());
+		if (slots <= 1) return null;
+		
+		final Set<DynamicEngine> engineList = activeEngines.get(scanSize.getName());
+		if (engineList == null) return null;
+		
+		while (true) {
+			DynamicEngine result = null;
+			int resultScans = 0;
+			for (DynamicEngine engine : engineList) {
+				final int scans = engine.getScanCount();
+				if (scans == 0 || scans >= slots) continue;
+				if (result == null || scans > resultScans) {
+					result = engine;
+					resultScans = scans;
+				}
+			}
+			if (result == null) return null;
+			
+			synchronized (result) {
+				// retry if a concurrent allocation or release changed the engine's scans
+				final int scans = result.getScanCount();
+				if (scans == 0 || scans >= slots) continue;
+				
+				result.addScanId(scanId);
+			}
+			log.debug("Engine slot allocated: scanId={}; engine={}", scanId, result);
+			return result;
+		}
+	}
+	
+	/**
+	 * Moves an idle engine to scanning, e.g. to re-adopt an engine that was 
+	 * scanning before a restart.  The caller adds its scans.
+	 * 
+	 * @return false if the engine is not idle
+	 */
+	public boolean adoptEngine(DynamicEngine engine) {
+		log.trace("adoptEngine() : {}", engine);
+		
+		if (!engine.compareAndSetState(State.IDLE, State.SCANNING)) return false;
+		
+		log.debug("Engine adopted: pool={}", this);
+		return true;
+	}
+	
+	/**
+	 * Adds a scan to a scanning engine, taking one of its slots.
+	 */
+	public void addScan(DynamicEngine engine, long scanId) {
+		synchronized (engine) {
+			engine.addScanId(scanId);
+		}
+	}
+	
+	/**
+	 * Frees the scan's slot on the engine.  The engine stays scanning; 
+	 * the caller idles it once no scans remain.
+	 * 
+	 * @return the number of scans still running on the engine
+	 */
+	public int releaseScan(DynamicEngine engine, long scanId) {
+		synchronized (engine) {
+			engine.removeScanId(scanId);
+			return engine.getScanCount();
+		}
+	}
+	
+	/**
+	 * @return the number of free scan slots on scanning engines of the supplied size
+	 */
+	public int getFreeSlots(EngineSize size) {
+		final int slots = getScansPerEngine(size.getName());
+		final Set<DynamicEngine> engineList = activeEngines.get(size.getName());
+		if (slots <= 1 || engineList == null) return 0;
+		
+		int result = 0;
+		for (DynamicEngine engine : engineList) {
+			final int scans = engine.getScanCount();
+			if (scans > 0) result += Math.max(0, slots - scans);
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the number of concurrent scans run by each engine of the supplied size, at least 1
+	 */
+	public int getScansPerEngine(String size) {
+		final EnginePoolEntry entry = poolEntries.get(size);
+		return entry == null ? 1 : Math.max(1, entry.getScansPerEngine());
+	}
+	
+	private List<EngineSize> getLargerSizes(EngineSize scanSize) {
+		return Ordering.natural().sortedCopy(
+				Iterables.filter(engineSizes.keySet(), (size) -> size.compareTo(scanSize) > 0));
+	}
+	
+	/**
+	 * @param engineSize size of the engine
+	 * @param maxSizeSteps number of smaller sizes to return
+	 * @return the scan sizes that may borrow an engine of the supplied size, largest first
+	 */
+	public List<EngineSize> getSmallerSizes(EngineSize engineSize, int maxSizeSteps) {
+		if (maxSizeSteps <= 0) return Collections.emptyList();
+		final List<EngineSize> smallerSizes = Ordering.natural().reverse().sortedCopy(
+				Iterables.filter(engineSizes.keySet(), (size) -> size.compareTo(engineSize) < 0));
+		return smallerSizes.subList(0, Math.min(maxSizeSteps, smallerSizes.size()));
+	}
+	
+	/**
+	 * @return the number of engines of the supplied size in the supplied state
+	 */
+	public int getEngineCount(EngineSize size, State state) {
+		final AtomicReference<SizeSnapshot> snapshot = sizeSnapshots.get(size.getName());
+		return snapshot == null ? 0 : snapshot.get().getEngineCount(state);
+	}
+	
+	/**
+	 * @return the engine sizes in the pool, smallest first
+	 */
+	public List<EngineSize> getEngineSizes() {
+		return Ordering.natural().sortedCopy(engineSizes.keySet());
+	}
+	
+	private void increment(Map<String, AtomicLong> counts, String key) {
+		counts.computeIfAbsent(key, (k) -> new AtomicLong()).incrementAndGet();
+	}
+	
+	@ManagedAttribute(description="Engines allocated from a larger size, by scan size->engine size")
+	public String getBestFitHits() {
+		return printCounts(bestFitHits);
+	}
+	
+	@ManagedAttribute(description="Larger size allocations that found no idle engine, by scan size")
+	public String getBestFitMisses() {
+		return printCounts(bestFitMisses);
+	}
+	
+	private String printCounts(Map<String, AtomicLong> counts) {
+		final StringBuilder sb = new StringBuilder();
+		counts.forEach((key, count) -> sb.append(String.format("%s=%d; ", key, count.get())));
+		return sb.toString().replaceAll("; $", "");
+	}
+	
+	/**
+	 * @return the pool entry for the supplied size, or null if not found
+	 */
+	public EnginePoolEntry getEntry(EngineSize size) {
+		return poolEntries.get(size.getName());
+	}
+	
+	/**
+	 * @return the number of idle engines of the supplied size that are not expired
+	 */
+	public int getMinimum(EngineSize size) {
+		final Integer minimum = poolMins.get(size.getName());
+		return minimum == null ? 0 : minimum;
+	}
+	
+	/**
+	 * Sets the number of idle engines of the supplied size that are not expired, 
+	 * e.g. for a scheduled minimum.
+	 */
+	public void setMinimum(EngineSize size, int minimum) {
+		final Integer previous = poolMins.put(size.getName(), minimum);
+		if (previous != null && previous != minimum) {
+			log.info("Engine pool minimum changed: size={}; minimum={}; previous={}", 
+					size.getName(), minimum, previous);
+		}
+	}
+	
+	/**
+	 * @return the engine size with the supplied name, or null if not found
+	 */
+	public EngineSize getEngineSize(String name) {
+		return scanSizes.get(name);
 	}
 	
 	public void deallocateEngine(DynamicEngine engine) {
 		log.trace("unallocateEngine() : {}", engine);
-		synchronized(this) {
-			changeState(engine, State.UNPROVISIONED);
-			log.debug("Engine unallocated: pool={}", this);
-		}
+		changeState(engine, State.UNPROVISIONED);
+		log.debug("Engine unallocated: pool={}", this);
 	}
 	
 	public void idleEngine(DynamicEngine engine) {
 		log.trace("idleEngine() : {}", engine);
-		synchronized(this) {
-			changeState(engine, State.IDLE);
-			log.debug("Engine idled: pool={}", this);
-		}
+		changeState(engine, State.IDLE);
+		log.debug("Engine idled: pool={}", this);
 	}
 
-	public void expireEngine(DynamicEngine engine) {
+	/**
+	 * Expires an idle engine.
+	 * 
+	 * @return false if the engine is no longer idle, e.g. allocated concurrently
+	 */
+	public boolean expireEngine(DynamicEngine engine) {
 		log.trace("expireEngine() : {}", engine);
-		synchronized(this) {
-			changeState(engine, State.EXPIRING);
-			log.debug("Engine expired: pool={}", this);
-		}
+		if (!engine.compareAndSetState(State.IDLE, State.EXPIRING)) return false;
+		
+		log.debug("Engine expired: pool={}", this);
+		return true;
 	}
 
 	public void logEngines()	{
-		allSizedEngines.forEach((size,engines)->logEngines(engines));
+		logEngines(DynamicEngine.State.ALL);
 	}
 	
 	public void logEngines(DynamicEngine.State state) {
-		engineMaps.get(state).forEach((size,engines)->logEngines(engines));
+		if (!log.isDebugEnabled()) return;
+		getSnapshot().getEngines(state).forEach((size,engines)->logEngines(engines));
 	}
 	
 	private void logEngines(Set<DynamicEngine> engines) {
@@ -260,16 +646,16 @@ public class EnginePool {
 	
 	@Override
 	public String toString() {
-		final StringBuilder sb = new StringBuilder();
-		allSizedEngines.forEach((size,engines)->
-				engines.forEach(engine->sb.append(String.format("%s; ", engine))));
-		final StringBuilder sbSizes = new StringBuilder();
-		engineSizes.forEach((size,count)->
-				sbSizes.append(String.format("%s:%d, ", size.getName(), count.get())));
-		return MoreObjects.toStringHelper(this)
-				.add("engineSizes", "[" + sbSizes.toString().replaceAll(", $", "") + "]")
-				.add("engines", "[" + sb.toString().replaceAll("; $", "") + "]")
-				.toString();
+		return getSnapshot().toString();
+	}
+	
+	/**
+	 * Notified of each engine state change
+	 */
+	public interface StateListener {
+		
+		void onStateChange(DynamicEngine engine, State fromState, State toState);
+		
 	}
 	
 	public class IdleEngineMonitor implements Runnable {
@@ -294,7 +680,7 @@ public class EnginePool {
 				final AtomicInteger expiredCount = new AtomicInteger(0);
 				
 				// loop thru IDLE engines looking for expiration
-				idleEngines.forEach((engineSize, engines) -> {
+				enginePool.getSnapshot().getEngines(State.IDLE).forEach((engineSize, engines) -> {
 					int minEngines = poolMins.get(engineSize);
 					log.debug("Idle engines: size={}; count={0}; minimum={}", engineSize, engines.size(), minEngines);
 					if (engines.size() > minEngines) {
@@ -319,9 +705,9 @@ public class EnginePool {
 
 				if (expireTime == null) return;
 
-				if (expireTime.minusMinutes(expireBufferMins).isBeforeNow()) {
+				if (expireTime.minusMinutes(expireBufferMins).isBeforeNow() 
+						&& enginePool.expireEngine(engine)) {
 					expiredCount.incrementAndGet();
-					enginePool.expireEngine(engine);
 					//engine.setState(State.EXPIRING);
 					expiredEnginesQueue.put(engine);
 				}
@@ -337,6 +723,9 @@ public class EnginePool {
 		private EngineSize scanSize;
 		private int count;
 		private int minimum;
+		private int scanLimit;
+		private int scansPerEngine = 1;
+		private List<WarmSchedule> schedules = Lists.newArrayList();
 		
 		public EnginePoolEntry() {
 			// for Spring
@@ -365,6 +754,52 @@ public class EnginePool {
 		public void setMinimum(int minimum) {
 			this.minimum = minimum;
 		}
+		
+		/**
+		 * @return minimum # of running/provisioned engines at the supplied time; 
+		 * 			the highest of the minimum and the active schedules, up to the engine count
+		 */
+		public int getMinimum(DateTime time) {
+			int result = minimum;
+			for (WarmSchedule schedule : schedules) {
+				if (schedule.isActive(time)) result = Math.max(result, schedule.getMinimum());
+			}
+			return Math.min(result, count);
+		}
+		
+		/**
+		 * @return schedules that raise the minimum, e.g. during business hours
+		 */
+		public List<WarmSchedule> getSchedules() {
+			return schedules;
+		}
+
+		public void setSchedules(List<WarmSchedule> schedules) {
+			this.schedules = schedules;
+		}
+
+		/**
+		 * @return maximum # of concurrent scans of this size, 0 for no size limit
+		 */
+		public int getScanLimit() {
+			return scanLimit;
+		}
+
+		public void setScanLimit(int scanLimit) {
+			this.scanLimit = scanLimit;
+		}
+
+		/**
+		 * @return # of concurrent scans run by each engine of this size, default 1.
+		 * 			An engine is idled once all its scans finish.
+		 */
+		public int getScansPerEngine() {
+			return scansPerEngine;
+		}
+
+		public void setScansPerEngine(int scansPerEngine) {
+			this.scansPerEngine = scansPerEngine;
+		}
 
 		public void setScanSize(EngineSize scanSize) {
 			this.scanSize = scanSize;
@@ -376,7 +811,7 @@ public class EnginePool {
 
 		@Override
 		public int hashCode() {
-			return Objects.hashCode(minimum, count, scanSize);
+			return Objects.hashCode(minimum, count, scanLimit, scansPerEngine, scanSize);
 		}
 
 		@Override
@@ -387,6 +822,8 @@ public class EnginePool {
 			final EnginePoolEntry other = (EnginePoolEntry) obj;
 			return Objects.equal(count, other.count)
 				&& Objects.equal(minimum, other.minimum)
+				&& Objects.equal(scanLimit, other.scanLimit)
+				&& Objects.equal(scansPerEngine, other.scansPerEngine)
 				&& Objects.equal(scanSize, other.scanSize);
 		}
 
@@ -401,6 +838,9 @@ public class EnginePool {
 					.add("scanSize", scanSize)
 					.add("count", count)
 					.add("minimum", minimum)
+					.add("scanLimit", scanLimit)
+					.add("scansPerEngine", scansPerEngine)
+					.add("schedules", schedules)
 					.toString();
 		}
 
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.domain;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.checkmarx.engine.domain.DynamicEngine.State;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+
+/**
+ * Immutable view of the engines in each state, by size, read from the {@link EnginePool}.  
+ * Each size is published on its own, see {@link SizeSnapshot}, so changes of different sizes 
+ * never contend; the view is assembled from the latest snapshot of each size when read.  
+ * The engines of a size are consistent with each other, and the view includes at least 
+ * the changes up to its epoch.
+ * <br/> <br/>
+ * The engines themselves are live; their state in the snapshot is the set they are in.
+ */
+public class EnginePoolSnapshot {
+	
+	/**
+	 * number of changes published to the pool when the view was read
+	 */
+	private final long epoch;
+	
+	/**
+	 * key=engine size, in pool order
+	 */
+	private final ImmutableMap<String, SizeSnapshot> sizes;
+	
+	EnginePoolSnapshot(long epoch, ImmutableMap<String, SizeSnapshot> sizes) {
+		this.epoch = epoch;
+		this.sizes = sizes;
+	}
+	
+	public long getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * @return engines in the supplied state by size; {@link State#ALL} for all engines
+	 */
+	public ImmutableMap<String, Set<DynamicEngine>> getEngines(State state) {
+		final ImmutableMap.Builder<String, Set<DynamicEngine>> result = ImmutableMap.builder();
+		sizes.forEach((size, sized) -> result.put(size, sized.getEngines(state)));
+		return result.build();
+	}
+	
+	/**
+	 * @return the engines of the supplied size in the supplied state
+	 */
+	public Set<DynamicEngine> getEngines(String size, State state) {
+		final SizeSnapshot sized = sizes.get(size);
+		return sized == null ? ImmutableSortedSet.of() : sized.getEngines(state);
+	}
+	
+	public int getEngineCount(String size, State state) {
+		return getEngines(size, state).size();
+	}
+	
+	/**
+	 * @return the state of the engine in this view, or null if not in the pool
+	 */
+	public State getState(String engineName) {
+		for (SizeSnapshot sized : sizes.values()) {
+			final State state = sized.getState(engineName);
+			if (state != null) return state;
+		}
+		return null;
+	}
+	
+	@Override
+	public String toString() {
+		final MoreObjects.ToStringHelper helper = MoreObjects.toStringHelper(this)
+				.add("epoch", epoch);
+		for (State state : State.values()) {
+			final StringBuilder sb = new StringBuilder();
+			sizes.forEach((size, sized) -> {
+				final Set<DynamicEngine> engines = sized.getEngines(state);
+				if (state == State.ALL) {
+					sb.append(String.format("%s:%d, ", size, engines.size()));
+				} else {
+					engines.forEach((engine) -> sb.append(String.format("%s/%s, ", size, engine.getName())));
+				}
+			});
+			if (sb.length() > 0) helper.add(state == State.ALL ? "engineSizes" : state.name(), 
+					"[" + sb.toString().replaceAll(", $", "") + "]");
+		}
+		return helper.toString();
+	}
+	
+	/**
+	 * Immutable engines of one size by state, replaced on each change of one of its engines.  
+	 * A change copies only the sets the engine leaves and joins.
+	 */
+	static class SizeSnapshot {
+		
+		private static final SizeSnapshot EMPTY = new SizeSnapshot(Collections.emptyMap());
+		
+		/**
+		 * key=engine state, including ALL; never modified
+		 */
+		private final Map<State, ImmutableSortedSet<DynamicEngine>> engines;
+		
+		private SizeSnapshot(Map<State, ImmutableSortedSet<DynamicEngine>> engines) {
+			this.engines = engines;
+		}
+		
+		static SizeSnapshot empty() {
+			return EMPTY;
+		}
+		
+		ImmutableSortedSet<DynamicEngine> getEngines(State state) {
+			final ImmutableSortedSet<DynamicEngine> result = engines.get(state);
+			return result == null ? ImmutableSortedSet.of() : result;
+		}
+		
+		int getEngineCount(State state) {
+			return getEngines(state).size();
+		}
+		
+		State getState(String engineName) {
+			for (Map.Entry<State, ImmutableSortedSet<DynamicEngine>> entry : engines.entrySet()) {
+				if (entry.getKey() == State.ALL) continue;
+				for (DynamicEngine engine : entry.getValue()) {
+					if (engine.getName().equals(engineName)) return entry.getKey();
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * @return the next snapshot, with the engine moved to the supplied state, 
+		 * 			or this snapshot if unchanged
+		 */
+		SizeSnapshot withEngine(DynamicEngine engine, State state) {
+			State curState = null;
+			for (Map.Entry<State, ImmutableSortedSet<DynamicEngine>> entry : engines.entrySet()) {
+				if (entry.getKey() != State.ALL && entry.getValue().contains(engine)) curState = entry.getKey();
+			}
+			// a replaced engine is equal to the engine it replaces
+			if (state == curState && getEngines(State.ALL).ceiling(engine) == engine) return this;
+			
+			final Map<State, ImmutableSortedSet<DynamicEngine>> next = Maps.newEnumMap(State.class);
+			next.putAll(engines);
+			next.put(State.ALL, replace(getEngines(State.ALL), engine, true));
+			if (curState != null) next.put(curState, replace(next.get(curState), engine, false));
+			next.put(state, replace(getEngines(state), engine, true));
+			return new SizeSnapshot(next);
+		}
+		
+		/**
+		 * @return the set with the engine removed, and added if {@code add}
+		 */
+		private static ImmutableSortedSet<DynamicEngine> replace(
+				ImmutableSortedSet<DynamicEngine> engines, DynamicEngine engine, boolean add) {
+			final ImmutableSortedSet.Builder<DynamicEngine> result = ImmutableSortedSet.naturalOrder();
+			result.addAll(engines.headSet(engine, false));
+			if (add) result.add(engine);
+			result.addAll(engines.tailSet(engine, false));
+			return result.build();
+		}
+		
+	}
+
+}
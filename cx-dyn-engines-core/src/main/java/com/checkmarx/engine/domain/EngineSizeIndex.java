@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.domain;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Index of engine sizes by LOC, for {@link EnginePool#calcEngineSize(long)}.
+ * <br/> <br/>
+ * Size ranges are flattened at startup into disjoint intervals, held in sorted primitive arrays, 
+ * so a lookup is a binary search that allocates nothing.  Where ranges overlap, the first size 
+ * in pool order wins, as with a linear scan of the sizes; overlaps and gaps are logged.
+ */
+class EngineSizeIndex {
+	
+	private static final Logger log = LoggerFactory.getLogger(EngineSizeIndex.class);
+	
+	private final long[] starts;
+	private final long[] ends;
+	private final EngineSize[] sizes;
+	
+	/**
+	 * @param engineSizes sizes in pool order
+	 */
+	EngineSizeIndex(Collection<EngineSize> engineSizes) {
+		final List<Interval> intervals = Lists.newArrayList();
+		engineSizes.forEach((size) -> addSize(intervals, size));
+		
+		final int count = intervals.size();
+		starts = new long[count];
+		ends = new long[count];
+		sizes = new EngineSize[count];
+		for (int i = 0; i < count; i++) {
+			final Interval interval = intervals.get(i);
+			starts[i] = interval.start;
+			ends[i] = interval.end;
+			sizes[i] = interval.size;
+			if (i > 0 && ends[i - 1] + 1 < starts[i]) {
+				log.warn("Engine size gap, no size for LOC {}-{}", ends[i - 1] + 1, starts[i] - 1);
+			}
+		}
+		log.debug("Engine size index: sizes={}; intervals={}", engineSizes.size(), count);
+	}
+	
+	/**
+	 * Adds the parts of the size's range not covered by earlier sizes, keeping intervals sorted
+	 */
+	private void addSize(List<Interval> intervals, EngineSize size) {
+		final long min = size.getMinLOC();
+		final long max = size.getMaxLOC();
+		if (min > max) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid engine size, minLOC > maxLOC; size=%s", size));
+		}
+		
+		final List<Interval> added = Lists.newArrayList();
+		long next = min;
+		for (Interval interval : intervals) {
+			if (interval.end < next) continue;
+			if (interval.start > max) break;
+			if (interval.start > next) added.add(new Interval(next, interval.start - 1, size));
+			next = interval.end + 1;
+			if (interval.end >= max) break;
+		}
+		if (next <= max) added.add(new Interval(next, max, size));
+		
+		final long covered = added.stream().mapToLong((interval) -> interval.end - interval.start + 1).sum();
+		if (added.isEmpty()) {
+			log.warn("Engine size overlaps earlier sizes and is never matched; size={}", size);
+		} else if (covered < max - min + 1) {
+			log.warn("Engine size overlaps earlier sizes, which take precedence; size={}", size);
+		}
+		
+		intervals.addAll(added);
+		intervals.sort((a, b) -> Long.compare(a.start, b.start));
+	}
+	
+	/**
+	 * @return the size for the LOC, or null if none
+	 */
+	EngineSize find(long loc) {
+		final int i = Arrays.binarySearch(starts, loc);
+		final int index = i >= 0 ? i : -i - 2;
+		if (index < 0 || loc > ends[index]) return null;
+		return sizes[index];
+	}
+	
+	int getIntervalCount() {
+		return sizes.length;
+	}
+	
+	private static class Interval {
+		
+		private final long start;
+		private final long end;
+		private final EngineSize size;
+		
+		Interval(long start, long end, EngineSize size) {
+			this.start = start;
+			this.end = end;
+			this.size = size;
+		}
+	
+	}
+
+}
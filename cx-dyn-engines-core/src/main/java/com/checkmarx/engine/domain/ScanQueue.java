@@ -15,30 +15,104 @@ package com.checkmarx.engine.domain;
 
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 import com.checkmarx.engine.rest.model.ScanRequest;
 import com.google.common.base.MoreObjects;
 
+/**
+ * Bounded scan queue.  Producers should use {@link BlockingQueue#offer(Object)}, 
+ * and treat a rejected offer as backpressure.
+ */
+@ManagedResource(description="Scan queue")
 public class ScanQueue {
 	
 	private final int capacity;
-	private final BlockingQueue<ScanRequest> queue;
+	private final InstrumentedQueue queue;
 	
 	public ScanQueue(int capacity) {
 		this.capacity = capacity;
-		this.queue = new ArrayBlockingQueue<ScanRequest>(capacity);
+		this.queue = new InstrumentedQueue(capacity);
 	}
 
 	public BlockingQueue<ScanRequest> getQueue() {
 		return queue;
 	}
 
+	@ManagedAttribute(description="Queue capacity")
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@ManagedAttribute(description="Scans in the queue")
+	public int getDepth() {
+		return queue.size();
+	}
+
+	@ManagedAttribute(description="Maximum scans in the queue")
+	public int getHighWaterMark() {
+		return queue.highWaterMark.get();
+	}
+
+	@ManagedAttribute(description="Scans rejected because the queue was full")
+	public long getRejectedCount() {
+		return queue.rejectedCount.get();
+	}
+
 	@Override
 	public String toString() {
 		return MoreObjects.toStringHelper(this)
 				.add("capacity", capacity)
 				.add("queuedCount", queue.size())
+				.add("highWaterMark", getHighWaterMark())
+				.add("rejectedCount", getRejectedCount())
 				.toString();
 	}
+	
+	/**
+	 * Tracks the high water mark and rejected offers. 
+	 * {@code add} is implemented with {@code offer}.
+	 */
+	@SuppressWarnings("serial")
+	private static class InstrumentedQueue extends ArrayBlockingQueue<ScanRequest> {
+		
+		private final AtomicInteger highWaterMark = new AtomicInteger();
+		private final AtomicLong rejectedCount = new AtomicLong();
+		
+		InstrumentedQueue(int capacity) {
+			super(capacity);
+		}
+		
+		@Override
+		public boolean offer(ScanRequest scan) {
+			return onOffer(super.offer(scan));
+		}
+
+		@Override
+		public boolean offer(ScanRequest scan, long timeout, TimeUnit unit) throws InterruptedException {
+			return onOffer(super.offer(scan, timeout, unit));
+		}
+
+		@Override
+		public void put(ScanRequest scan) throws InterruptedException {
+			super.put(scan);
+			onOffer(true);
+		}
+		
+		private boolean onOffer(boolean accepted) {
+			if (accepted) {
+				highWaterMark.accumulateAndGet(size(), Math::max);
+			} else {
+				rejectedCount.incrementAndGet();
+			}
+			return accepted;
+		}
+		
+	}
 
 }
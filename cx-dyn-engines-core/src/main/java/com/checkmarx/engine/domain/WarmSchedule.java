@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.domain;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalTime;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
+
+/**
+ * Minimum engine count for a pool entry during a weekly time window, 
+ * e.g. {@code days=MON-FRI; start=08:00; end=18:00; minimum=2}.  
+ * Times are in the server's time zone; a window whose end is before its start 
+ * runs past midnight, and a window whose start and end are equal runs all day.
+ */
+public class WarmSchedule {
+	
+	private static final List<String> DAY_NAMES = 
+			Arrays.asList("MON", "TUE", "WED", "THU", "FRI", "SAT", "SUN");
+
+	private String days = "MON-SUN";
+	private String start = "00:00";
+	private String end = "00:00";
+	private int minimum;
+	
+	/**
+	 * active days, indexed by Joda day of week
+	 */
+	private boolean[] activeDays = parseDays(days);
+	private LocalTime startTime = LocalTime.parse(start);
+	private LocalTime endTime = LocalTime.parse(end);
+	
+	public WarmSchedule() {
+		// for Spring
+	}
+	
+	public WarmSchedule(String days, String start, String end, int minimum) {
+		setDays(days);
+		setStart(start);
+		setEnd(end);
+		setMinimum(minimum);
+	}
+	
+	public boolean isActive(DateTime time) {
+		final LocalTime localTime = time.toLocalTime();
+		final int day = time.getDayOfWeek();
+		
+		if (startTime.equals(endTime)) return activeDays[day];
+		
+		if (startTime.isBefore(endTime)) {
+			return activeDays[day] && !localTime.isBefore(startTime) && localTime.isBefore(endTime);
+		}
+		// past midnight, the window belongs to the previous day
+		if (!localTime.isBefore(startTime)) return activeDays[day];
+		final int previousDay = day == DateTimeConstants.MONDAY ? DateTimeConstants.SUNDAY : day - 1;
+		return localTime.isBefore(endTime) && activeDays[previousDay];
+	}
+	
+	/**
+	 * @return active days, e.g. {@code MON-FRI} or {@code SAT,SUN}.  
+	 * 			Default value is {@code MON-SUN}.
+	 */
+	public String getDays() {
+		return days;
+	}
+
+	public void setDays(String days) {
+		this.activeDays = parseDays(days);
+		this.days = days;
+	}
+
+	/**
+	 * @return window start time, {@code HH:mm}.  
+	 * 			Default value is {@code 00:00}.
+	 */
+	public String getStart() {
+		return start;
+	}
+
+	public void setStart(String start) {
+		this.startTime = LocalTime.parse(start);
+		this.start = start;
+	}
+
+	/**
+	 * @return window end time, {@code HH:mm}, exclusive.  
+	 * 			Default value is {@code 00:00}.
+	 */
+	public String getEnd() {
+		return end;
+	}
+
+	public void setEnd(String end) {
+		this.endTime = LocalTime.parse(end);
+		this.end = end;
+	}
+
+	/**
+	 * @return minimum # of running/provisioned engines while the window is active
+	 */
+	public int getMinimum() {
+		return minimum;
+	}
+
+	public void setMinimum(int minimum) {
+		this.minimum = minimum;
+	}
+
+	private static boolean[] parseDays(String days) {
+		final boolean[] result = new boolean[DateTimeConstants.SUNDAY + 1];
+		for (String range : Splitter.on(',').trimResults().omitEmptyStrings().split(days.toUpperCase())) {
+			final int dash = range.indexOf('-');
+			final int first = parseDay(dash < 0 ? range : range.substring(0, dash));
+			final int last = dash < 0 ? first : parseDay(range.substring(dash + 1));
+			// ranges may wrap the week, e.g. SAT-MON
+			for (int day = first; ; day = day == DateTimeConstants.SUNDAY ? DateTimeConstants.MONDAY : day + 1) {
+				result[day] = true;
+				if (day == last) break;
+			}
+		}
+		return result;
+	}
+	
+	private static int parseDay(String name) {
+		final int index = DAY_NAMES.indexOf(name.trim());
+		if (index < 0) {
+			final String msg = String.format("Invalid schedule day: %s; expected one of %s", name, DAY_NAMES);
+			throw new IllegalArgumentException(msg);
+		}
+		return DateTimeConstants.MONDAY + index;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("days", days)
+				.add("start", start)
+				.add("end", end)
+				.add("minimum", minimum)
+				.toString();
+	}
+
+}
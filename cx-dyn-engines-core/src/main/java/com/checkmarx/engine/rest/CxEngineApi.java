@@ -27,10 +27,12 @@
 package com.checkmarx.engine.rest;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 import com.checkmarx.engine.rest.model.EngineServer;
 import com.checkmarx.engine.rest.model.Login;
 import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequestSummary;
 
 /**
  * Checkmarx Engine API wrapper interface.  This interface requires 
@@ -66,5 +68,16 @@ public interface CxEngineApi {
 	EngineServer unblockEngine(long engineId);
 
 	List<ScanRequest> getScansQueue();
+	
+	/**
+	 * Returns a summary of each scan in the scans queue.  Implementations may defer
+	 * binding the full {@link ScanRequest} until {@link ScanRequestSummary#getScan()}
+	 * is called.
+	 */
+	default List<ScanRequestSummary> getScansQueueSummary() {
+		return getScansQueue().stream()
+				.map(ScanRequestSummary::from)
+				.collect(Collectors.toList());
+	}
 
 }
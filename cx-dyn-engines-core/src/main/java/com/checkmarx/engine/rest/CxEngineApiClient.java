@@ -13,6 +13,7 @@
  ******************************************************************************/
 package com.checkmarx.engine.rest;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -31,7 +32,9 @@ import com.checkmarx.engine.rest.model.EngineServerResponse;
 import com.checkmarx.engine.rest.model.EngineServerV86;
 import com.checkmarx.engine.rest.model.Login;
 import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequestSummary;
 import com.checkmarx.engine.rest.model.ErrorResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Lists;
 
@@ -46,13 +49,15 @@ public class CxEngineApiClient extends BaseHttpClient implements CxEngineApi {
 	private static final String SCAN_REQUESTS_URL = BASE_URL + "/sast/scansQueue";
 	
 	private final RestTemplate sastClient;
+	private final ScanQueueParser scanQueueParser;
 	private boolean isLoggedIn;
 	private String cxVersion = "Unknown";
 
-	public CxEngineApiClient(RestTemplateBuilder restTemplateBuilder, CxConfig config) {
+	public CxEngineApiClient(RestTemplateBuilder restTemplateBuilder, CxConfig config, ObjectMapper objectMapper) {
 		super(config);
 		
 		this.sastClient = getSastBuilder(restTemplateBuilder).build();
+		this.scanQueueParser = new ScanQueueParser(objectMapper);
 
 		log.info("ctor(): {}", this);
 	}
@@ -255,6 +260,22 @@ public class CxEngineApiClient extends BaseHttpClient implements CxEngineApi {
 		return Arrays.asList(scanRequests);
 	}
 	
+	@Override
+	public List<ScanRequestSummary> getScansQueueSummary() {
+		log.trace("getScansQueueSummary()");
+		
+		final String url = buildUrl(SCAN_REQUESTS_URL);
+		final byte[] content = execute("getScansQueue", () -> {
+			return sastClient.getForObject(url, byte[].class);
+		}, true);
+		if (content == null) return Lists.newArrayList();
+		try {
+			return scanQueueParser.parse(content);
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to parse scans queue response", e);
+		}
+	}
+	
 	private String buildEngineUrl(long id) {
 		return buildEngineUrl() + "/" + id;
 	}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.rest;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequestSummary;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.Lists;
+
+/**
+ * Streaming parser for the scans queue response.  Reads only the fields needed
+ * to track scans, and binds the full {@link ScanRequest} from the response 
+ * content on demand.
+ */
+public class ScanQueueParser {
+	
+	private final JsonFactory jsonFactory;
+	private final ObjectReader scanReader;
+	
+	public ScanQueueParser(ObjectMapper objectMapper) {
+		this.jsonFactory = objectMapper.getFactory();
+		this.scanReader = objectMapper.readerFor(ScanRequest.class);
+	}
+	
+	public List<ScanRequestSummary> parse(byte[] content) throws IOException {
+		try (final JsonParser parser = jsonFactory.createParser(content)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new JsonParseException(parser, "Scans queue response is not an array");
+			}
+			final List<ScanRequestSummary> scans = Lists.newArrayList();
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				scans.add(parseScan(parser, content));
+			}
+			return scans;
+		}
+	}
+
+	private ScanRequestSummary parseScan(JsonParser parser, byte[] content) throws IOException {
+		final int offset = (int)parser.getTokenLocation().getByteOffset();
+		
+		long id = 0;
+		long stageId = ScanRequestSummary.NONE;
+		long engineId = ScanRequestSummary.NONE;
+		int loc = 0;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			switch (field) {
+				case "id" :
+					id = parser.getLongValue();
+					break;
+				case "stage" :
+					stageId = parseId(parser, token);
+					break;
+				case "engine" :
+					engineId = parseId(parser, token);
+					break;
+				case "loc" :
+					loc = token == JsonToken.VALUE_NULL ? 0 : parser.getIntValue();
+					break;
+				default:
+					parser.skipChildren();
+					break;
+			}
+		}
+		final int length = (int)parser.getCurrentLocation().getByteOffset() - offset;
+		final long scanId = id;
+		return new ScanRequestSummary(id, stageId, engineId, loc, 
+				() -> bind(content, offset, length, scanId));
+	}
+	
+	/**
+	 * Reads the id field of a nested object, e.g. stage or engine
+	 */
+	private long parseId(JsonParser parser, JsonToken token) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return ScanRequestSummary.NONE;
+		}
+		long id = ScanRequestSummary.NONE;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String field = parser.getCurrentName();
+			final JsonToken value = parser.nextToken();
+			if ("id".equals(field) && value.isNumeric()) {
+				id = parser.getLongValue();
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return id;
+	}
+	
+	private ScanRequest bind(byte[] content, int offset, int length, long scanId) {
+		try {
+			return scanReader.readValue(content, offset, length);
+		} catch (IOException e) {
+			final String msg = String.format("Unable to bind scan request; scanId=%d", scanId);
+			throw new RuntimeException(msg, e);
+		}
+	}
+
+}
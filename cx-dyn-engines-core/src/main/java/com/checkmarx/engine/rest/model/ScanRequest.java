@@ -14,6 +14,7 @@
 package com.checkmarx.engine.rest.model;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -157,7 +158,7 @@ public class ScanRequest {
 	}
 
 	public List<ProgramLanguage> getLanguages() {
-		return Arrays.asList(languages);
+		return languages == null ? Collections.emptyList() : Arrays.asList(languages);
 	}
 
 	public DateTime getDateCreated() {
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.rest.model;
+
+import java.util.function.Supplier;
+
+import com.checkmarx.engine.rest.model.ScanRequest.ScanStatus;
+import com.google.common.base.MoreObjects;
+
+/**
+ * The scan request fields needed to track a scan in the scan queue.  The full 
+ * {@link ScanRequest} is only bound when requested, see {@link #getScan()}.
+ */
+public class ScanRequestSummary {
+	
+	/**
+	 * Value of stage and engine ids when not present
+	 */
+	public static final long NONE = -1;
+
+	private final long id;
+	private final long stageId;
+	private final long engineId;
+	private final int loc;
+	private Supplier<ScanRequest> binder;
+	private ScanRequest scan;
+
+	public ScanRequestSummary(long id, long stageId, long engineId, int loc, Supplier<ScanRequest> binder) {
+		this.id = id;
+		this.stageId = stageId;
+		this.engineId = engineId;
+		this.loc = loc;
+		this.binder = binder;
+	}
+	
+	private ScanRequestSummary(ScanRequest scan) {
+		this(scan.getId(), 
+			scan.getStage() == null ? NONE : scan.getStage().getId(), 
+			scan.getEngineId() == null ? NONE : scan.getEngineId(), 
+			scan.getLoc(), null);
+		this.scan = scan;
+	}
+	
+	/**
+	 * Creates a summary of an already bound scan request.
+	 */
+	public static ScanRequestSummary from(ScanRequest scan) {
+		return new ScanRequestSummary(scan);
+	}
+
+	/**
+	 * ScanRequest.Id field
+	 */
+	public long getId() {
+		return id;
+	}
+
+	public long getStageId() {
+		return stageId;
+	}
+
+	public ScanStatus getStatus() {
+		return stageId == NONE ? ScanStatus.Unknown : ScanStatus.from(stageId);
+	}
+
+	/**
+	 * @return the engine id, or {@link #NONE} if the scan is not assigned an engine
+	 */
+	public long getEngineId() {
+		return engineId;
+	}
+
+	public int getLoc() {
+		return loc;
+	}
+	
+	/**
+	 * Returns the full scan request, binding it on first call.
+	 */
+	public ScanRequest getScan() {
+		if (scan == null) {
+			scan = binder.get();
+			binder = null;
+		}
+		return scan;
+	}
+	
+	public boolean isBound() {
+		return scan != null;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("id", id)
+				.add("status", getStatus())
+				.add("engineId", engineId)
+				.add("loc", loc)
+				.add("bound", isBound())
+				.toString();
+	}
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *
+ * This software is licensed for customer's internal use only.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Calculates the scan queue polling interval.  The interval drops to the floor
+ * while there is pending work, and backs off exponentially towards the ceiling
+ * while the scan queue is idle.
+ */
+public class AdaptivePollingInterval {
+
+	private static final double BACKOFF_FACTOR = 2.0;
+
+	private final long minMillis;
+	private final long maxMillis;
+	private volatile long currentMillis;
+
+	/**
+	 * @param initialSecs starting interval, bounded by min and max
+	 * @param minSecs interval floor, used while there is pending work
+	 * @param maxSecs interval ceiling, approached while idle
+	 */
+	public AdaptivePollingInterval(int initialSecs, int minSecs, int maxSecs) {
+		if (minSecs <= 0 || maxSecs < minSecs) {
+			final String msg = String.format("Invalid polling interval range; min=%d; max=%d", minSecs, maxSecs);
+			throw new IllegalArgumentException(msg);
+		}
+		this.minMillis = TimeUnit.SECONDS.toMillis(minSecs);
+		this.maxMillis = TimeUnit.SECONDS.toMillis(maxSecs);
+		this.currentMillis = bound(TimeUnit.SECONDS.toMillis(initialSecs));
+	}
+
+	/**
+	 * Calculates the next polling interval.
+	 *
+	 * @param busy true if the last poll found pending work
+	 * @return the next interval, in milliseconds
+	 */
+	public long next(boolean busy) {
+		final long next = busy ? minMillis : bound((long)Math.ceil(currentMillis * BACKOFF_FACTOR));
+		currentMillis = next;
+		return next;
+	}
+
+	public long getCurrentMillis() {
+		return currentMillis;
+	}
+
+	public long getMinMillis() {
+		return minMillis;
+	}
+
+	public long getMaxMillis() {
+		return maxMillis;
+	}
+
+	private long bound(long millis) {
+		return Math.max(minMillis, Math.min(maxMillis, millis));
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("currentMillis", currentMillis)
+				.add("minMillis", minMillis)
+				.add("maxMillis", maxMillis)
+				.toString();
+	}
+
+}
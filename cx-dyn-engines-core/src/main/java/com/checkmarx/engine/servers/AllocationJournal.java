@@ -0,0 +1,511 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.DynamicEngine;
+import com.checkmarx.engine.domain.DynamicEngine.State;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.utils.LongHashMap;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Append-only journal of engine state changes and scan to engine assignments, so a restart
+ * can re-adopt registered engines and their running scans, instead of unregistering them.
+ * <br/> <br/>
+ * Records are appended to a memory-mapped file of {@value #JOURNAL_SIZE} bytes, so an append
+ * is a memory write that survives a crash of the process.  Each record is checksummed, and
+ * replay stops at the first empty or torn record.  The journal is compacted into a snapshot,
+ * saved alongside it with a {@code .snapshot} suffix, every {@link CxConfig#getJournalSnapshotSecs()}
+ * and whenever the journal is full.  The snapshot and the journal carry an epoch, so a journal
+ * already compacted into the snapshot is not replayed.
+ * <br/> <br/>
+ * Until {@link #open()}, changes are only tracked in memory.
+ */
+@ManagedResource(description="Engine allocation journal")
+public class AllocationJournal implements EnginePool.StateListener {
+	
+	private static final Logger log = LoggerFactory.getLogger(AllocationJournal.class);
+	
+	static final int JOURNAL_SIZE = 1024 * 1024;
+	
+	private static final int MAGIC = 0x43584a31;
+	
+	/**
+	 * magic, then epoch
+	 */
+	static final int HEADER_SIZE = 12;
+	
+	/**
+	 * record length, then checksum
+	 */
+	static final int RECORD_HEADER_SIZE = 8;
+	
+	private static final int MAX_RECORD_SIZE = 1024;
+	
+	private static final byte ASSIGN = 1;
+	private static final byte RELEASE = 2;
+	private static final byte UNREGISTER = 3;
+	private static final byte ENGINE_STATE = 4;
+	
+	private final ObjectMapper objectMapper;
+	private final File journalFile;
+	private final File snapshotFile;
+	
+	/**
+	 * scans assigned to engines; key=Scan.Id
+	 */
+	private final LongHashMap<Assignment> assignments = new LongHashMap<>();
+	
+	/**
+	 * last journaled state of each engine; key=DynamicEngine name
+	 */
+	private final Map<String, State> engineStates = Maps.newHashMap();
+	
+	private final ByteBuffer record = ByteBuffer.allocate(MAX_RECORD_SIZE);
+	private final CRC32 checksum = new CRC32();
+	
+	private FileChannel channel;
+	
+	/**
+	 * the mapped journal, null until opened
+	 */
+	private MappedByteBuffer journal;
+	private long epoch = 0;
+	private long recordCount = 0;
+	private long snapshotCount = 0;
+	private long replayMillis = 0;
+	
+	public AllocationJournal(CxConfig config, ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+		this.journalFile = new File(config.getJournalFile());
+		this.snapshotFile = new File(config.getJournalFile() + ".snapshot");
+		log.info("ctor(): {}", this);
+	}
+	
+	/**
+	 * Loads the snapshot, replays the journal on top of it, then maps the journal for appends.
+	 */
+	public synchronized void open() throws IOException {
+		if (journal != null) throw new IllegalStateException("Allocation journal already open");
+		
+		final Stopwatch timer = Stopwatch.createStarted();
+		loadSnapshot();
+		
+		channel = FileChannel.open(journalFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		journal = channel.map(MapMode.READ_WRITE, 0, JOURNAL_SIZE);
+		final int replayed = replay();
+		replayMillis = timer.elapsed(TimeUnit.MILLISECONDS);
+		
+		log.info("Allocation journal opened; file={}; epoch={}; replayed={}; assignments={}; engines={}; elapsedTime={}ms",
+				journalFile, epoch, replayed, assignments.size(), engineStates.size(), replayMillis);
+	}
+	
+	/**
+	 * Compacts the journal, then closes it.  Changes are again only tracked in memory.
+	 */
+	public synchronized void close() {
+		if (journal == null) return;
+		
+		compact();
+		journal = null;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.warn("Unable to close allocation journal; file={}; cause={}; message={}",
+					journalFile, e, e.getMessage());
+		}
+	}
+	
+	/**
+	 * Journals a scan assigned to a registered engine.
+	 */
+	public synchronized void assign(long scanId, long cxEngineId, String engineName) {
+		assignments.put(scanId, new Assignment(scanId, cxEngineId, engineName));
+		
+		final ByteBuffer r = begin(ASSIGN);
+		r.putLong(scanId);
+		r.putLong(cxEngineId);
+		putString(r, engineName);
+		append();
+	}
+	
+	/**
+	 * Journals a scan released from its engine.
+	 */
+	public synchronized void release(long scanId) {
+		if (assignments.remove(scanId) == null) return;
+		
+		begin(RELEASE).putLong(scanId);
+		append();
+	}
+	
+	/**
+	 * Journals an engine unregistered from the CxManager, releasing its scans.
+	 */
+	public synchronized void unregister(long cxEngineId) {
+		if (!assignments.removeIf((assignment) -> assignment.cxEngineId == cxEngineId)) return;
+		
+		begin(UNREGISTER).putLong(cxEngineId);
+		append();
+	}
+	
+	@Override
+	public synchronized void onStateChange(DynamicEngine engine, State fromState, State toState) {
+		engineStates.put(engine.getName(), toState);
+		
+		final ByteBuffer r = begin(ENGINE_STATE);
+		putString(r, engine.getName());
+		r.put((byte)toState.ordinal());
+		append();
+	}
+	
+	/**
+	 * @return the journaled scan assignments
+	 */
+	public synchronized List<Assignment> getAssignments() {
+		final List<Assignment> result = Lists.newArrayListWithCapacity(assignments.size());
+		assignments.forEach((scanId, assignment) -> result.add(assignment));
+		return result;
+	}
+	
+	/**
+	 * @return the last journaled state of the engine, or null if none
+	 */
+	public synchronized State getEngineState(String name) {
+		return engineStates.get(name);
+	}
+	
+	/**
+	 * Saves the journaled allocations to the snapshot, then starts a new, empty journal.
+	 * If the snapshot cannot be saved, the journal is kept.
+	 */
+	public synchronized void compact() {
+		if (journal == null) return;
+		
+		final long next = epoch + 1;
+		try {
+			saveSnapshot(next);
+		} catch (IOException e) {
+			log.warn("Unable to save allocation journal snapshot; file={}; cause={}; message={}",
+					snapshotFile, e, e.getMessage());
+			return;
+		}
+		
+		// a crash before the new header is written skips the old journal, it is in the snapshot
+		epoch = next;
+		reset(journal.position());
+		journal.force();
+		snapshotCount++;
+		log.debug("Allocation journal compacted; epoch={}; assignments={}", epoch, assignments.size());
+	}
+	
+	/**
+	 * Applies the journal records of the snapshot's epoch, stopping at the first empty or torn record.
+	 *
+	 * @return the number of records replayed
+	 */
+	private int replay() {
+		if (journal.getInt(0) != MAGIC || journal.getLong(4) != epoch) {
+			// new journal, or already compacted into the snapshot
+			reset(JOURNAL_SIZE);
+			return 0;
+		}
+		
+		int count = 0;
+		int position = HEADER_SIZE;
+		while (position + RECORD_HEADER_SIZE < JOURNAL_SIZE) {
+			final int length = journal.getInt(position);
+			if (length <= 0 || length > MAX_RECORD_SIZE
+					|| position + RECORD_HEADER_SIZE + length > JOURNAL_SIZE) break;
+			
+			final ByteBuffer r = journal.duplicate();
+			r.position(position + RECORD_HEADER_SIZE);
+			r.limit(position + RECORD_HEADER_SIZE + length);
+			checksum.reset();
+			checksum.update(r.duplicate());
+			if ((int)checksum.getValue() != journal.getInt(position + 4)) {
+				log.warn("Torn allocation journal record, replay stopped; position={}", position);
+				break;
+			}
+			apply(r);
+			position += RECORD_HEADER_SIZE + length;
+			count++;
+		}
+		journal.position(position);
+		return count;
+	}
+	
+	private void apply(ByteBuffer r) {
+		final byte type = r.get();
+		switch (type) {
+			case ASSIGN :
+				final long scanId = r.getLong();
+				final long cxEngineId = r.getLong();
+				assignments.put(scanId, new Assignment(scanId, cxEngineId, getString(r)));
+				break;
+			case RELEASE :
+				assignments.remove(r.getLong());
+				break;
+			case UNREGISTER :
+				final long engineId = r.getLong();
+				assignments.removeIf((assignment) -> assignment.cxEngineId == engineId);
+				break;
+			case ENGINE_STATE :
+				final String name = getString(r);
+				final int state = r.get();
+				if (state >= 0 && state < State.values().length) engineStates.put(name, State.values()[state]);
+				break;
+			default :
+				log.warn("Unknown allocation journal record; type={}", type);
+				break;
+		}
+	}
+	
+	private ByteBuffer begin(byte type) {
+		record.clear();
+		record.put(type);
+		return record;
+	}
+	
+	/**
+	 * Appends the current record, compacting first if the journal is full.
+	 * The length is written last, so a partly written record is not replayed.
+	 */
+	private void append() {
+		if (journal == null) return;
+		
+		record.flip();
+		final int length = record.remaining();
+		if (journal.remaining() < RECORD_HEADER_SIZE + length) {
+			compact();
+			if (journal.remaining() < RECORD_HEADER_SIZE + length) {
+				log.warn("Allocation journal full, record dropped; file={}", journalFile);
+				return;
+			}
+		}
+		
+		checksum.reset();
+		checksum.update(record.array(), 0, length);
+		final int position = journal.position();
+		journal.position(position + RECORD_HEADER_SIZE);
+		journal.put(record);
+		journal.putInt(position + 4, (int)checksum.getValue());
+		journal.putInt(position, length);
+		recordCount++;
+	}
+	
+	/**
+	 * Clears the journal up to the supplied position, then writes the header for the current epoch.
+	 */
+	private void reset(int end) {
+		final byte[] zeros = new byte[8192];
+		journal.position(HEADER_SIZE);
+		while (journal.position() < end) {
+			journal.put(zeros, 0, Math.min(zeros.length, end - journal.position()));
+		}
+		journal.putInt(0, MAGIC);
+		journal.putLong(4, epoch);
+		journal.position(HEADER_SIZE);
+	}
+	
+	private static void putString(ByteBuffer r, String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		r.putShort((short)bytes.length);
+		r.put(bytes);
+	}
+	
+	private static String getString(ByteBuffer r) {
+		final byte[] bytes = new byte[r.getShort()];
+		r.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private void loadSnapshot() {
+		if (!snapshotFile.exists()) return;
+		
+		try {
+			final Snapshot snapshot = objectMapper.readValue(snapshotFile, Snapshot.class);
+			epoch = snapshot.getEpoch();
+			snapshot.getAssignments().forEach((assignment) -> assignments.put(assignment.scanId, assignment));
+			engineStates.putAll(snapshot.getEngineStates());
+			log.info("Allocation journal snapshot loaded; file={}; epoch={}", snapshotFile, epoch);
+		} catch (IOException e) {
+			log.warn("Unable to load allocation journal snapshot, starting empty; file={}; cause={}; message={}",
+					snapshotFile, e, e.getMessage());
+		}
+	}
+	
+	private void saveSnapshot(long snapshotEpoch) throws IOException {
+		final Snapshot snapshot = new Snapshot();
+		snapshot.setEpoch(snapshotEpoch);
+		snapshot.setAssignments(getAssignments());
+		snapshot.setEngineStates(Maps.newHashMap(engineStates));
+		
+		final Path target = snapshotFile.toPath().toAbsolutePath();
+		final Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+		objectMapper.writeValue(temp.toFile(), snapshot);
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	@ManagedAttribute(description="Records appended to the journal")
+	public synchronized long getRecordCount() {
+		return recordCount;
+	}
+	
+	@ManagedAttribute(description="Snapshots saved by compacting the journal")
+	public synchronized long getSnapshotCount() {
+		return snapshotCount;
+	}
+	
+	@ManagedAttribute(description="Time to load the snapshot and replay the journal on startup (ms)")
+	public synchronized long getReplayMillis() {
+		return replayMillis;
+	}
+	
+	@ManagedAttribute(description="Journaled scan assignments")
+	public synchronized int getAssignmentCount() {
+		return assignments.size();
+	}
+	
+	@ManagedAttribute(description="Journal bytes used since the last snapshot")
+	public synchronized int getJournalUsedBytes() {
+		return journal == null ? 0 : journal.position();
+	}
+	
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("journalFile", journalFile)
+				.add("snapshotFile", snapshotFile)
+				.add("epoch", epoch)
+				.toString();
+	}
+	
+	/**
+	 * A scan assigned to a registered engine
+	 */
+	public static class Assignment {
+		
+		private long scanId;
+		private long cxEngineId;
+		private String engineName;
+		
+		public Assignment() {
+			// for Jackson
+		}
+		
+		public Assignment(long scanId, long cxEngineId, String engineName) {
+			this.scanId = scanId;
+			this.cxEngineId = cxEngineId;
+			this.engineName = engineName;
+		}
+		
+		public long getScanId() {
+			return scanId;
+		}
+		
+		public void setScanId(long scanId) {
+			this.scanId = scanId;
+		}
+		
+		public long getCxEngineId() {
+			return cxEngineId;
+		}
+		
+		public void setCxEngineId(long cxEngineId) {
+			this.cxEngineId = cxEngineId;
+		}
+		
+		public String getEngineName() {
+			return engineName;
+		}
+		
+		public void setEngineName(String engineName) {
+			this.engineName = engineName;
+		}
+		
+		@Override
+		public String toString() {
+			return MoreObjects.toStringHelper(this)
+					.add("scanId", scanId)
+					.add("cxEngineId", cxEngineId)
+					.add("engineName", engineName)
+					.toString();
+		}
+	
+	}
+	
+	/**
+	 * Compacted journal, saved as JSON
+	 */
+	public static class Snapshot {
+		
+		private long epoch;
+		private List<Assignment> assignments = Lists.newArrayList();
+		private Map<String, State> engineStates = Maps.newHashMap();
+		
+		public long getEpoch() {
+			return epoch;
+		}
+		
+		public void setEpoch(long epoch) {
+			this.epoch = epoch;
+		}
+		
+		public List<Assignment> getAssignments() {
+			return assignments;
+		}
+		
+		public void setAssignments(List<Assignment> assignments) {
+			this.assignments = assignments;
+		}
+		
+		public Map<String, State> getEngineStates() {
+			return engineStates;
+		}
+		
+		public void setEngineStates(Map<String, State> engineStates) {
+			this.engineStates = engineStates;
+		}
+	
+	}
+
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Forecasts scan arrivals per engine size, with time of day and day of week seasonality.
+ * <br/> <br/>
+ * The week is divided into {@value #SLOT_MINS} minute slots.  Each slot's arrival count 
+ * is learned as an exponentially weighted moving average of the counts recorded in that 
+ * slot in previous weeks, so a nightly CI wave is forecast from the previous nights.
+ * Slots with no arrivals are learned as zero, up to a week back.  Arrivals are learned 
+ * even when {@link CxConfig#isForecastScaling()} is off, so the model is ready when it is turned on.
+ * <br/> <br/>
+ * The model is saved to {@link CxConfig#getForecastFile()} at the end of each slot, 
+ * and loaded on startup.
+ */
+@ManagedResource(description="Scan arrival forecaster")
+public class ArrivalForecaster {
+	
+	private static final Logger log = LoggerFactory.getLogger(ArrivalForecaster.class);
+	
+	static final int SLOT_MINS = 15;
+	static final int SLOTS_PER_WEEK = (int)(TimeUnit.DAYS.toMinutes(7) / SLOT_MINS);
+	private static final long SLOT_MILLIS = TimeUnit.MINUTES.toMillis(SLOT_MINS);
+	
+	private static final TypeReference<Map<String, SlotRates>> MODEL_TYPE = new TypeReference<Map<String, SlotRates>>() {};
+	
+	private final ObjectMapper objectMapper;
+	private final double alpha;
+	private final long leadMillis;
+	private final File modelFile;
+	
+	/**
+	 * learned arrivals per slot of the week; key=EngineSize name
+	 */
+	private final Map<String, SlotRates> models = Maps.newHashMap();
+	
+	/**
+	 * arrivals in the current slot; key=EngineSize name
+	 */
+	private final Map<String, Integer> counts = Maps.newHashMap();
+	
+	/**
+	 * slot being counted, as slots since the epoch; -1 until the first arrival or forecast
+	 */
+	private long currentSlot = -1;
+	
+	public ArrivalForecaster(CxConfig config, ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+		this.alpha = config.getForecastAlpha();
+		this.leadMillis = TimeUnit.MINUTES.toMillis(config.getForecastLeadMins());
+		final String fileName = config.getForecastFile();
+		this.modelFile = Strings.isNullOrEmpty(fileName) ? null : new File(fileName);
+		
+		if (alpha <= 0 || alpha > 1) {
+			throw new IllegalArgumentException("Invalid forecast alpha: " + alpha);
+		}
+		load();
+		log.info("ctor(): {}", this);
+	}
+	
+	/**
+	 * Records the arrival of a scan, when it was queued, or created if not yet queued.
+	 */
+	public void record(EngineSize size, ScanRequest scan) {
+		if (size == null) return;
+		
+		final DateTime arrived = scan.getQueuedOn() != null ? scan.getQueuedOn() : scan.getDateCreated();
+		record(size, arrived == null ? DateTime.now() : arrived);
+	}
+	
+	/**
+	 * Records a scan arrival.  Arrivals before the current slot are counted in the current slot.
+	 */
+	public synchronized void record(EngineSize size, DateTime time) {
+		roll(toSlot(time));
+		counts.merge(size.getName(), 1, Integer::sum);
+	}
+	
+	/**
+	 * @return the forecast number of arrivals from the supplied time, for the supplied duration
+	 */
+	public synchronized double forecast(EngineSize size, DateTime from, long durationMillis) {
+		roll(toSlot(from));
+		
+		final SlotRates rates = models.get(size.getName());
+		if (rates == null) return 0;
+		
+		double result = 0;
+		long start = from.getMillis();
+		final long end = start + durationMillis;
+		while (start < end) {
+			final long slot = start / SLOT_MILLIS;
+			final long slotEnd = Math.min(end, (slot + 1) * SLOT_MILLIS);
+			result += rates.getRate(slotOfWeek(slot)) * (slotEnd - start) / SLOT_MILLIS;
+			start = slotEnd;
+		}
+		return result;
+	}
+	
+	/**
+	 * @return the number of engines to keep warm for scans forecast to arrive within 
+	 * 			the lead time, i.e. before an engine launched now would be ready
+	 */
+	public int forecastEngines(EngineSize size, DateTime now) {
+		return (int)Math.round(forecast(size, now, leadMillis));
+	}
+	
+	@ManagedAttribute(description="Forecast arrivals within the lead time, by engine size")
+	public synchronized String getForecast() {
+		final DateTime now = DateTime.now();
+		final StringBuilder sb = new StringBuilder();
+		models.keySet().forEach((size) -> sb.append(String.format("%s=%.2f; ", size, 
+				forecast(new EngineSize(size, 0, 0), now, leadMillis))));
+		return sb.toString().replaceAll("; $", "");
+	}
+	
+	/**
+	 * Closes out the current slot, and any empty slots up to the supplied slot.
+	 */
+	private void roll(long slot) {
+		if (currentSlot < 0) {
+			currentSlot = slot;
+			return;
+		}
+		if (slot <= currentSlot) return;
+		
+		final Set<String> sizes = Sets.newHashSet(models.keySet());
+		sizes.addAll(counts.keySet());
+		final long last = Math.min(slot, currentSlot + SLOTS_PER_WEEK);
+		for (long s = currentSlot; s < last; s++) {
+			final int slotOfWeek = slotOfWeek(s);
+			for (String size : sizes) {
+				final int observed = s == currentSlot ? counts.getOrDefault(size, 0) : 0;
+				models.computeIfAbsent(size, (key) -> new SlotRates()).update(slotOfWeek, observed, alpha);
+			}
+		}
+		counts.clear();
+		currentSlot = slot;
+		save();
+	}
+	
+	private static long toSlot(DateTime time) {
+		return time.getMillis() / SLOT_MILLIS;
+	}
+	
+	/**
+	 * @return slot of the week in the server's time zone, starting Monday 00:00
+	 */
+	static int slotOfWeek(long slot) {
+		final DateTime time = new DateTime(slot * SLOT_MILLIS);
+		final int minuteOfWeek = (time.getDayOfWeek() - 1) * (int)TimeUnit.DAYS.toMinutes(1) + time.getMinuteOfDay();
+		return minuteOfWeek / SLOT_MINS;
+	}
+	
+	private void load() {
+		if (modelFile == null || !modelFile.exists()) return;
+		
+		try {
+			final Map<String, SlotRates> saved = objectMapper.readValue(modelFile, MODEL_TYPE);
+			models.putAll(saved);
+			log.info("Arrival forecast model loaded; file={}; sizes={}", modelFile, models.size());
+		} catch (IOException e) {
+			log.warn("Unable to load arrival forecast model, starting empty; file={}; cause={}; message={}", 
+					modelFile, e, e.getMessage());
+		}
+	}
+	
+	private void save() {
+		if (modelFile == null) return;
+		
+		try {
+			final Path target = modelFile.toPath().toAbsolutePath();
+			final Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+			objectMapper.writeValue(temp.toFile(), models);
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Unable to save arrival forecast model; file={}; cause={}; message={}", 
+					modelFile, e, e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("alpha", alpha)
+				.add("leadMillis", leadMillis)
+				.add("modelFile", modelFile)
+				.add("sizes", models.size())
+				.toString();
+	}
+	
+	/**
+	 * EWMA of arrivals per slot of the week.  Mutable, guarded by the forecaster.
+	 */
+	public static class SlotRates {
+		
+		private double[] rates = new double[SLOTS_PER_WEEK];
+		private int[] samples = new int[SLOTS_PER_WEEK];
+		
+		void update(int slotOfWeek, int observed, double alpha) {
+			rates[slotOfWeek] = samples[slotOfWeek] == 0 
+					? observed : alpha * observed + (1 - alpha) * rates[slotOfWeek];
+			samples[slotOfWeek]++;
+		}
+		
+		double getRate(int slotOfWeek) {
+			return rates[slotOfWeek];
+		}
+
+		public double[] getRates() {
+			return rates;
+		}
+
+		public void setRates(double[] rates) {
+			this.rates = rates;
+		}
+
+		public int[] getSamples() {
+			return samples;
+		}
+
+		public void setSamples(int[] samples) {
+			this.samples = samples;
+		}
+		
+	}
+
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.utils.LongHashMap;
+import com.checkmarx.engine.utils.LongLongHashMap;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+
+/**
+ * Scans waiting for an engine, indexed by scan id for constant time removal, 
+ * and ordered by engine size and blocked time.
+ * <p>
+ * When capacity for an engine size appears, the scan that has waited longest among the 
+ * compatible sizes is re-driven.  Scans of the engine's own size get a head start of 
+ * {@code agingMillis}, so a smaller scan is re-driven first only once it has waited that 
+ * much longer.  A re-driven scan that is blocked again keeps its original blocked time.
+ * <p>
+ * Thread safe.
+ */
+public class BlockedScanQueue {
+
+	private static final long MISSING = -1;
+	
+	private final long agingMillis;
+	private final LongSupplier clock;
+	
+	/**
+	 * index of blocked scans, key=Scan.Id
+	 */
+	private final LongHashMap<Entry> index = new LongHashMap<>();
+	
+	/**
+	 * blocked scans by engine size, oldest first; key=EngineSize name
+	 */
+	private final Map<String, EntryList> sizeLists = Maps.newHashMap();
+	
+	/**
+	 * blocked time of scans re-driven but not yet allocated an engine, key=Scan.Id
+	 */
+	private final LongLongHashMap redriven = new LongLongHashMap(MISSING);
+	
+	/**
+	 * @param agingMillis head start given to scans of an engine's own size
+	 */
+	public BlockedScanQueue(long agingMillis) {
+		this(agingMillis, System::currentTimeMillis);
+	}
+	
+	BlockedScanQueue(long agingMillis, LongSupplier clock) {
+		this.agingMillis = agingMillis;
+		this.clock = clock;
+	}
+	
+	/**
+	 * @return false if the scan is already blocked
+	 */
+	public synchronized boolean add(EngineSize size, ScanRequest scan) {
+		final long scanId = scan.getId();
+		if (index.get(scanId) != null) return false;
+		
+		final long blockedOn = redriven.remove(scanId);
+		final Entry entry = new Entry(size.getName(), scan, blockedOn == MISSING ? clock.getAsLong() : blockedOn);
+		sizeLists.computeIfAbsent(entry.size, (key) -> new EntryList()).insert(entry);
+		index.put(scanId, entry);
+		return true;
+	}
+	
+	/**
+	 * Removes a blocked scan, and forgets the blocked time of a re-driven scan.
+	 *  
+	 * @return true if the scan was blocked
+	 */
+	public synchronized boolean remove(long scanId) {
+		redriven.remove(scanId);
+		
+		final Entry entry = index.remove(scanId);
+		if (entry == null) return false;
+		
+		sizeLists.get(entry.size).unlink(entry);
+		return true;
+	}
+	
+	/**
+	 * Removes the next scan to re-drive for capacity of an engine size.
+	 * 
+	 * @param engineSize size of the available engine
+	 * @param scanSizes scan sizes that can use the engine, including its own size
+	 * @return the scan, or null if none of the sizes have a blocked scan
+	 */
+	public synchronized ScanRequest poll(EngineSize engineSize, List<EngineSize> scanSizes) {
+		final long now = clock.getAsLong();
+		Entry next = null;
+		long nextPriority = Long.MIN_VALUE;
+		for (EngineSize size : scanSizes) {
+			final EntryList list = sizeLists.get(size.getName());
+			if (list == null || list.head == null) continue;
+			
+			final long waited = now - list.head.blockedOn;
+			final long priority = size.equals(engineSize) ? waited + agingMillis : waited;
+			if (priority > nextPriority) {
+				next = list.head;
+				nextPriority = priority;
+			}
+		}
+		if (next == null) return null;
+		
+		final long scanId = next.scan.getId();
+		index.remove(scanId);
+		sizeLists.get(next.size).unlink(next);
+		redriven.put(scanId, next.blockedOn);
+		return next.scan;
+	}
+	
+	public synchronized int size() {
+		return index.size();
+	}
+	
+	public synchronized int size(EngineSize size) {
+		final EntryList list = sizeLists.get(size.getName());
+		return list == null ? 0 : list.count;
+	}
+	
+	/**
+	 * @return time the longest blocked scan has waited, or 0 if none blocked
+	 */
+	public synchronized long getMaxWaitMillis() {
+		final long now = clock.getAsLong();
+		long max = 0;
+		for (EntryList list : sizeLists.values()) {
+			if (list.head != null) max = Math.max(max, now - list.head.blockedOn);
+		}
+		return max;
+	}
+
+	@Override
+	public synchronized String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sizeLists.forEach((size, list) -> sb.append(String.format("%s=%d; ", size, list.count)));
+		return MoreObjects.toStringHelper(this)
+				.add("blocked", "[" + sb.toString().replaceAll("; $", "") + "]")
+				.add("redriven", redriven.size())
+				.add("agingMillis", agingMillis)
+				.toString();
+	}
+
+	private static class Entry {
+		
+		private final String size;
+		private final ScanRequest scan;
+		private final long blockedOn;
+		private Entry prev;
+		private Entry next;
+		
+		Entry(String size, ScanRequest scan, long blockedOn) {
+			this.size = size;
+			this.scan = scan;
+			this.blockedOn = blockedOn;
+		}
+		
+	}
+	
+	/**
+	 * Doubly linked list of entries, ordered by blocked time.
+	 */
+	private static class EntryList {
+		
+		private Entry head;
+		private Entry tail;
+		private int count;
+		
+		/**
+		 * Inserts from the tail, constant time for newly blocked scans.
+		 */
+		void insert(Entry entry) {
+			Entry after = tail;
+			while (after != null && after.blockedOn > entry.blockedOn) {
+				after = after.prev;
+			}
+			entry.prev = after;
+			entry.next = after == null ? head : after.next;
+			if (entry.prev == null) head = entry; else entry.prev.next = entry;
+			if (entry.next == null) tail = entry; else entry.next.prev = entry;
+			count++;
+		}
+		
+		void unlink(Entry entry) {
+			if (entry.prev == null) head = entry.next; else entry.prev.next = entry.next;
+			if (entry.next == null) tail = entry.prev; else entry.next.prev = entry.prev;
+			entry.prev = null;
+			entry.next = null;
+			count--;
+		}
+		
+	}
+
+}
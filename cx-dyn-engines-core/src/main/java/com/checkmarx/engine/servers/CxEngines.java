@@ -64,6 +64,51 @@ public interface CxEngines {
 	 */
 	void launch(DynamicEngine engine, EngineSize size, boolean waitForSpinup);
 	
+	/**
+	 * First stage of a staged launch.  Provisions an engine if not already 
+	 * provisioned, or starts an already provisioned engine.
+	 * <br/> <br/>
+	 * The stages are called in order, each on a launch thread:
+	 * {@code provision}, {@code awaitRunning}, {@code awaitReady}, {@code runLaunchScripts}.
+	 * Any stage may throw to fail the launch.
+	 * <br/> <br/>
+	 * Default implementation performs the full launch, with the remaining stages a no-op.
+	 * 
+	 * @param engine to launch
+	 * @param size of the engine to launch
+	 */
+	default void provision(DynamicEngine engine, EngineSize size) {
+		launch(engine, size, true);
+	}
+	
+	/**
+	 * Second stage of a staged launch.  Waits until the engine enters a running state
+	 * as reported by the underlying IaaS provider, and sets the engine host.
+	 * 
+	 * @param engine being launched
+	 */
+	default void awaitRunning(DynamicEngine engine) {
+		// no-op
+	}
+	
+	/**
+	 * Third stage of a staged launch.  Waits until the engine process responds to requests.
+	 * 
+	 * @param engine being launched
+	 */
+	default void awaitReady(DynamicEngine engine) {
+		// no-op
+	}
+	
+	/**
+	 * Final stage of a staged launch.  Runs any configured launch scripts.
+	 * 
+	 * @param engine being launched
+	 */
+	default void runLaunchScripts(DynamicEngine engine) {
+		// no-op
+	}
+
 
 	/**
 	 * Stops the supplied dynamic engine.  Underlying implementation may terminate the engine.
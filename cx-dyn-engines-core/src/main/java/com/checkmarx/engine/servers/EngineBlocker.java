@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.rest.CxEngineApi;
+import com.checkmarx.engine.rest.model.EngineServer;
+import com.checkmarx.engine.utils.ExecutorServiceUtils;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Blocks cx engines asynchronously, so engine blocking does not delay the scan queue monitor.
+ * An engine is left unblocked while a scan assigned to it is waiting to start, see {@link #awaitScan}, 
+ * so engines running concurrent scans only take the scans assigned by the engine manager.
+ * Updates of an engine are serialized by engine, see {@link #withEngineLock}, 
+ * and each block re-reads the engine, so a block never overwrites a concurrent update of the engine.
+ * Block requests are de-duplicated, and drained from the request queue in batches.  
+ * Each batch reads the engine list once, then blocks engines concurrently, 
+ * bounded by {@link CxConfig#getEngineBlockThreads()}.  Failed requests are retried 
+ * up to {@link CxConfig#getEngineBlockAttempts()} times.
+ */
+@ManagedResource(description="Engine blocking stage")
+public class EngineBlocker implements Runnable {
+	
+	private static final Logger log = LoggerFactory.getLogger(EngineBlocker.class);
+	
+	private static final int MAX_BATCH_SIZE = 50;
+	private static final int RETRY_DELAY_SECS = 5;
+	private static final int ENGINE_LOCK_STRIPES = 64;
+
+	private final CxEngineApi cxClient;
+	private final int maxAttempts;
+	private final BlockingQueue<Long> blockRequests = new LinkedBlockingQueue<>();
+	
+	/**
+	 * engines queued or being blocked, used to de-duplicate requests; value=engineId
+	 */
+	private final Set<Long> pendingEngines = Sets.newConcurrentHashSet();
+	
+	/**
+	 * failed attempts by engine; key=engineId
+	 */
+	private final Map<Long, Integer> failedAttempts = Maps.newConcurrentMap();
+	
+	/**
+	 * scans assigned to a registered engine, not yet started; key=scanId, value=engineId
+	 */
+	private final Map<Long, Long> awaitedScans = Maps.newConcurrentMap();
+	
+	/**
+	 * serializes engine updates by engineId
+	 */
+	private final Striped<Lock> engineLocks = Striped.lock(ENGINE_LOCK_STRIPES);
+
+	private final ExecutorService dispatchExecutor;
+	private final ScheduledExecutorService blockExecutor;
+	
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong blockedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+	
+	public EngineBlocker(CxEngineApi cxClient, CxConfig config) {
+		this.cxClient = cxClient;
+		this.maxAttempts = config.getEngineBlockAttempts();
+		this.dispatchExecutor = ExecutorServiceUtils.buildSingleThreadExecutorService("eng-block-dispatch-%d", true);
+		this.blockExecutor = ExecutorServiceUtils.buildScheduledExecutorService(
+				config.getEngineBlockThreads(), "eng-block-%d", true);
+	}
+	
+	/**
+	 * Requests the engine be blocked.  Returns immediately.
+	 * 
+	 * @return false if a block request for the engine is already pending
+	 */
+	public boolean block(long engineId) {
+		log.trace("block(): engineId={}", engineId);
+		
+		if (!pendingEngines.add(engineId)) {
+			log.debug("Engine block already pending; engineId={}", engineId);
+			return false;
+		}
+		requestCount.incrementAndGet();
+		blockRequests.add(engineId);
+		return true;
+	}
+	
+	/**
+	 * Keeps the engine unblocked until the assigned scan starts.  
+	 * Call before unblocking the engine for the scan.
+	 */
+	public void awaitScan(long engineId, long scanId) {
+		log.trace("awaitScan(): engineId={}; scanId={}", engineId, scanId);
+		awaitedScans.put(scanId, engineId);
+	}
+	
+	/**
+	 * Requests the engine running the scan be blocked, unless it is awaiting other assigned scans.
+	 * 
+	 * @return false if a block request for the engine is already pending
+	 */
+	public boolean onScanStarted(long engineId, long scanId) {
+		log.trace("onScanStarted(): engineId={}; scanId={}", engineId, scanId);
+		
+		final Long awaitedEngineId = awaitedScans.remove(scanId);
+		// the scan started on another engine, so the engine it was assigned to no longer waits for it
+		if (awaitedEngineId != null && awaitedEngineId != engineId) block(awaitedEngineId);
+		return block(engineId);
+	}
+	
+	/**
+	 * Re-blocks the engine of an assigned scan that completed before it started.
+	 */
+	public void onScanCompleted(long scanId) {
+		log.trace("onScanCompleted(): scanId={}", scanId);
+		
+		final Long engineId = awaitedScans.remove(scanId);
+		if (engineId != null) block(engineId);
+	}
+	
+	private boolean isAwaitingScan(long engineId) {
+		return awaitedScans.containsValue(engineId);
+	}
+	
+	/**
+	 * Runs an update of the engine while holding the engine's lock, so it does not interleave 
+	 * with a block of the engine.  The update should re-read the engine before writing it.
+	 */
+	public <T> T withEngineLock(long engineId, Supplier<T> update) {
+		final Lock lock = engineLocks.get(engineId);
+		lock.lock();
+		try {
+			return update.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	@Override
+	public void run() {
+		log.info("run()");
+		dispatchExecutor.execute(this::dispatch);
+	}
+	
+	private void dispatch() {
+		log.info("dispatch()");
+		
+		final List<Long> batch = Lists.newArrayListWithCapacity(MAX_BATCH_SIZE);
+		try {
+			while (true) {
+				// blocks until a request arrives, then takes any other waiting requests
+				batch.add(blockRequests.take());
+				blockRequests.drainTo(batch, MAX_BATCH_SIZE - 1);
+				processBatch(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			log.info("EngineBlocker interrupted");
+		} catch (Throwable t) {
+			log.error("Error occurred in EngineBlocker; cause={}; message={}", 
+					t, t.getMessage(), t);
+			throw t;
+		}
+	}
+	
+	void processBatch(List<Long> batch) {
+		log.debug("processBatch(): size={}", batch.size());
+		batchCount.incrementAndGet();
+		
+		final Map<Long, EngineServer> engines = Maps.newHashMap();
+		try {
+			cxClient.getEngines().forEach((engine) -> engines.put(engine.getId(), engine));
+		} catch (Throwable t) {
+			log.warn("Unable to retrieve engines for block requests; batchSize={}; cause={}; message={}",
+					batch.size(), t, t.getMessage());
+			batch.forEach((engineId) -> onFailed(engineId));
+			return;
+		}
+		
+		batch.forEach((engineId) -> {
+			final EngineServer engine = engines.get(engineId);
+			if (engine == null) {
+				log.warn("Engine to block not found; engineId={}", engineId);
+				onCompleted(engineId);
+			} else if (engine.isBlocked()) {
+				log.debug("Engine already blocked; engineId={}", engineId);
+				onCompleted(engineId);
+			} else if (isAwaitingScan(engineId)) {
+				// blocked again once the assigned scan starts
+				log.debug("Engine awaiting assigned scan, not blocked; engineId={}", engineId);
+				onCompleted(engineId);
+			} else {
+				submit(engineId, () -> blockEngine(engineId));
+			}
+		});
+	}
+	
+	private void blockEngine(long engineId) {
+		try {
+			final boolean blocked = withEngineLock(engineId, () -> {
+				if (isAwaitingScan(engineId)) {
+					log.debug("Engine awaiting assigned scan, not blocked; engineId={}", engineId);
+					return false;
+				}
+				// the batch's engine list may be stale, the engine manager may have updated the engine since
+				final EngineServer engine = cxClient.getEngine(engineId);
+				if (engine == null || engine.isBlocked()) {
+					log.debug("Engine not found or already blocked; engineId={}", engineId);
+					return false;
+				}
+				engine.setBlocked(true);
+				cxClient.updateEngine(engine);
+				return true;
+			});
+			if (blocked) {
+				blockedCount.incrementAndGet();
+				log.info("Engine blocked; engineId={}", engineId);
+			}
+			onCompleted(engineId);
+		} catch (Throwable t) {
+			log.warn("Unable to block engine; engineId={}; cause={}; message={}", 
+					engineId, t, t.getMessage());
+			onFailed(engineId);
+		}
+	}
+
+	private void submit(long engineId, Runnable task) {
+		try {
+			blockExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			log.debug("Engine block not submitted, executor is shutting down; engineId={}", engineId);
+			onCompleted(engineId);
+		}
+	}
+	
+	private void onCompleted(long engineId) {
+		failedAttempts.remove(engineId);
+		pendingEngines.remove(engineId);
+	}
+	
+	private void onFailed(long engineId) {
+		final int attempts = failedAttempts.merge(engineId, 1, Integer::sum);
+		if (attempts >= maxAttempts) {
+			log.error("Engine block failed, giving up; engineId={}; attempts={}", engineId, attempts);
+			failedCount.incrementAndGet();
+			onCompleted(engineId);
+			return;
+		}
+		try {
+			blockExecutor.schedule(() -> blockRequests.add(engineId), RETRY_DELAY_SECS, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			onCompleted(engineId);
+		}
+	}
+
+	public void stop() {
+		log.info("stop()");
+		
+		dispatchExecutor.shutdownNow();
+		blockExecutor.shutdown();
+		try {
+			if (!blockExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+				blockExecutor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			blockExecutor.shutdownNow();
+		}
+	}
+	
+	@ManagedAttribute(description="Engine block requests queued or in progress")
+	public int getPendingCount() {
+		return pendingEngines.size();
+	}
+	
+	@ManagedAttribute(description="Assigned scans waiting to start on an unblocked engine")
+	public int getAwaitedScanCount() {
+		return awaitedScans.size();
+	}
+	
+	@ManagedAttribute(description="Engine block requests accepted")
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+	
+	@ManagedAttribute(description="Engines blocked")
+	public long getBlockedCount() {
+		return blockedCount.get();
+	}
+	
+	@ManagedAttribute(description="Engine block requests that failed after all attempts")
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	@ManagedAttribute(description="Engine block batches processed")
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+}
@@ -15,14 +15,21 @@ package com.checkmarx.engine.servers;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.retry.annotation.Retryable;
@@ -34,16 +41,22 @@ import com.checkmarx.engine.CxConfig;
 import com.checkmarx.engine.domain.DynamicEngine;
 import com.checkmarx.engine.domain.DynamicEngine.State;
 import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
 import com.checkmarx.engine.domain.EnginePool.IdleEngineMonitor;
 import com.checkmarx.engine.domain.EngineSize;
 import com.checkmarx.engine.rest.CxEngineApi;
 import com.checkmarx.engine.rest.model.EngineServer;
 import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.utils.ConcurrentLongHashMap;
+import com.checkmarx.engine.utils.ConcurrentLongLongHashMap;
+import com.checkmarx.engine.utils.EventLoop;
+import com.checkmarx.engine.utils.ExecutorRegistry;
 import com.checkmarx.engine.utils.ExecutorServiceUtils;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class EngineManager implements Runnable {
 	
@@ -56,39 +69,101 @@ public class EngineManager implements Runnable {
 	private final BlockingQueue<ScanRequest> queuedScansQueue;
 	private final BlockingQueue<ScanRequest> finshedScansQueue;
 	private final BlockingQueue<DynamicEngine> expiredEnginesQueue;
+	private final ScanDurationEstimator durationEstimator;
+	private final ScanLauncher scanLauncher;
+	private final WarmPoolController warmPoolController;
+	
+	/**
+	 * raises the warm pool ahead of forecast scan arrivals, null if forecast scaling is disabled
+	 */
+	private final ArrivalForecaster arrivalForecaster;
+	
+	/**
+	 * journals engine state changes and scan assignments, null if the journal is disabled
+	 */
+	private final AllocationJournal journal;
+	
+	/**
+	 * loads the engine match rules into the pool, null if no rules file is configured
+	 */
+	private final EngineRulesLoader rulesLoader;
+	
+	/**
+	 * keeps registered engines unblocked while an assigned scan waits to start, null if not blocking engines
+	 */
+	private final EngineBlocker engineBlocker;
 
+	private final ExecutorRegistry executorRegistry;
 	private final ExecutorService managerExecutor;
 	private final ExecutorService scanQueuedExecutor;
 	private final ExecutorService scanFinishedExecutor;
 	private final ExecutorService engineExpiringExecutor;
+	private final ExecutorService engineLaunchExecutor;
 	private final ScheduledExecutorService idleEngineExecutor;
 	private final List<Future<?>> tasks = Lists.newArrayList();
 	
+	/**
+	 * processes scan and engine events in single-writer mode, null otherwise
+	 */
+	private final EventLoop eventLoop;
+	
+	/**
+	 * runs allocation state changes; the event loop in single-writer mode, otherwise the calling thread
+	 */
+	private final Executor stateExecutor;
+	
+	/**
+	 * one thread each for the ScanLauncher, ScanFinisher and EngineTerminator
+	 */
 	private final static int MANAGER_THREAD_POOL_SIZE = 3;
-	//FIXME: move these to config
-	private final static int SCANS_QUEUED_THREAD_POOL_SIZE = 10;
-	private final static int SCANS_FINISHED_THREAD_POOL_SIZE = 5;
-	private final static int ENGINE_EXPIRING_THREAD_POOL_SIZE = 5;
+	
+	/**
+	 * attempts to update a registered engine for another scan, and the delay between attempts
+	 */
+	private final static int ENGINE_UPDATE_ATTEMPTS = 3;
+	private final static long ENGINE_UPDATE_RETRY_MILLIS = 1000;
 
 	/**
-	 * map of blocked scans by engine size; key=EngineSize of scan
+	 * scans blocked waiting for an engine, indexed by Scan.Id
 	 */
-	private final Map<EngineSize, Queue<ScanRequest>> blockedScansQueueMap;
+	private final BlockedScanQueue blockedScans;
 	
 	/**
 	 * map of scans assigned to engines; key=Scan.Id, value=cxEngineId
 	 */
-	private final Map<Long, Long> engineScans = Maps.newConcurrentMap();
+	private final ConcurrentLongLongHashMap engineScans;
 	
 	/**
 	 * map of registered cx engine servers, key=cxEngineId
 	 */
-	private Map<Long, DynamicEngine> cxEngines = Maps.newConcurrentMap();
+	private final ConcurrentLongHashMap<DynamicEngine> cxEngines;
 	
 	/**
 	 * map of active (scanning) cx engine servers, key=cxEngineId
 	 */
-	private Map<Long, EngineServer> activeEngines = Maps.newConcurrentMap();
+	private final ConcurrentLongHashMap<EngineServer> activeEngines;
+	
+	/**
+	 * map of scans running on cx engines, key=Scan.Id
+	 */
+	private final ConcurrentLongHashMap<ActiveScan> activeScans;
+	
+	/**
+	 * map of registered cx engine ids, key=DynamicEngine name; 
+	 * an engine stays registered until its last concurrent scan finishes
+	 */
+	private final Map<String, Long> cxEngineIds = Maps.newConcurrentMap();
+	
+	/**
+	 * map of queued scans waiting for a busy engine predicted to finish soon, key=cxEngineId;
+	 * guards reservation changes together with activeScans
+	 */
+	private final ConcurrentLongHashMap<EngineReservation> reservations;
+	
+	/**
+	 * count of engines currently in the launch pipeline
+	 */
+	private final AtomicInteger pendingLaunches = new AtomicInteger();
 
 	public EngineManager(
 			CxConfig config,
@@ -96,20 +171,47 @@ public class EngineManager implements Runnable {
 			CxEngineApi cxClient,
 			CxEngines engineProvisioner,
 			BlockingQueue<ScanRequest> scansQueued,
-			BlockingQueue<ScanRequest> scansFinished) {
+			BlockingQueue<ScanRequest> scansFinished,
+			ExecutorRegistry executorRegistry,
+			ScanDurationEstimator durationEstimator,
+			ArrivalForecaster arrivalForecaster,
+			AllocationJournal allocationJournal,
+			EngineBlocker engineBlocker) {
 		this.pool = pool;
 		this.config = config;
 		this.cxClient = cxClient;
 		this.queuedScansQueue = scansQueued;
 		this.finshedScansQueue = scansFinished;
 		this.expiredEnginesQueue = new ArrayBlockingQueue<DynamicEngine>(pool.getEngineCount());
-		this.blockedScansQueueMap = Maps.newConcurrentMap();
+		this.blockedScans = new BlockedScanQueue(TimeUnit.SECONDS.toMillis(config.getBlockedScanAgingSecs()));
+		this.engineScans = new ConcurrentLongLongHashMap(pool.getEngineCount(), -1);
+		this.cxEngines = new ConcurrentLongHashMap<>(pool.getEngineCount());
+		this.activeEngines = new ConcurrentLongHashMap<>(pool.getEngineCount());
+		this.activeScans = new ConcurrentLongHashMap<>(pool.getEngineCount());
+		this.reservations = new ConcurrentLongHashMap<>(pool.getEngineCount());
 		this.engineProvisioner = engineProvisioner;
-		this.managerExecutor = ExecutorServiceUtils.buildPooledExecutorService(MANAGER_THREAD_POOL_SIZE, "engine-mgr-%d", true);
-		this.scanQueuedExecutor = ExecutorServiceUtils.buildPooledExecutorService(SCANS_QUEUED_THREAD_POOL_SIZE, "scan-queue-%d", true);
-		this.scanFinishedExecutor = ExecutorServiceUtils.buildPooledExecutorService(SCANS_FINISHED_THREAD_POOL_SIZE, "scan-finish-%d", true);
-		this.engineExpiringExecutor = ExecutorServiceUtils.buildPooledExecutorService(ENGINE_EXPIRING_THREAD_POOL_SIZE, "engine-kill-%d", true);
+		this.durationEstimator = durationEstimator;
+		this.arrivalForecaster = config.isForecastScaling() ? arrivalForecaster : null;
+		this.journal = config.isAllocationJournal() ? allocationJournal : null;
+		if (journal != null) pool.setStateListener(journal);
+		this.rulesLoader = Strings.isNullOrEmpty(config.getEngineRulesFile()) ? null : new EngineRulesLoader(config, pool);
+		// load before scans are sized
+		if (rulesLoader != null) rulesLoader.run();
+		this.engineBlocker = engineBlocker;
+		this.executorRegistry = executorRegistry;
+		this.managerExecutor = executorRegistry.register("engine-mgr", MANAGER_THREAD_POOL_SIZE, true);
+		this.scanQueuedExecutor = executorRegistry.register("scan-queue", config.getScanQueuedThreads(), true);
+		this.scanFinishedExecutor = executorRegistry.register("scan-finish", config.getScanFinishedThreads(), true);
+		this.engineExpiringExecutor = executorRegistry.register("engine-kill", config.getEngineExpiringThreads(), true);
+		// by default one thread per engine, since each launch is for a distinct engine
+		final int launchThreads = config.getEngineLaunchThreads() > 0 ? config.getEngineLaunchThreads() : pool.getEngineCount();
+		this.engineLaunchExecutor = executorRegistry.register("engine-launch", launchThreads, true);
 		this.idleEngineExecutor = ExecutorServiceUtils.buildScheduledExecutorService("idle-mon-%d", true);
+		this.eventLoop = config.isEngineEventLoop() 
+				? new EventLoop("engine-events", config.getEngineEventLoopCapacity()) : null;
+		this.stateExecutor = eventLoop == null ? MoreExecutors.directExecutor() : eventLoop;
+		this.scanLauncher = new ScanLauncher();
+		this.warmPoolController = new WarmPoolController();
 	}
 
 	@Override
@@ -120,12 +222,37 @@ public class EngineManager implements Runnable {
 			final IdleEngineMonitor engineMonitor = 
 					pool.createIdleEngineMonitor(this.expiredEnginesQueue, config.getExpireEngineBufferMins());
 			
-			tasks.add(managerExecutor.submit(new ScanLauncher()));
+			if (eventLoop != null) eventLoop.start();
+			
+			tasks.add(managerExecutor.submit(scanLauncher));
 			tasks.add(managerExecutor.submit(new ScanFinisher()));
 			tasks.add(managerExecutor.submit(new EngineTerminator()));
 			
 			final int monitorInterval = config.getIdleMonitorSecs();
-			tasks.add(idleEngineExecutor.scheduleAtFixedRate(engineMonitor, 1, monitorInterval, TimeUnit.SECONDS));
+			tasks.add(idleEngineExecutor.scheduleAtFixedRate(onStateExecutor(engineMonitor), 
+					1, monitorInterval, TimeUnit.SECONDS));
+			if (config.isWarmPool()) {
+				tasks.add(idleEngineExecutor.scheduleAtFixedRate(onStateExecutor(warmPoolController), 
+						1, monitorInterval, TimeUnit.SECONDS));
+			}
+			tasks.add(idleEngineExecutor.scheduleAtFixedRate(onStateExecutor(this::expireReservations), 
+					monitorInterval, monitorInterval, TimeUnit.SECONDS));
+			tasks.add(idleEngineExecutor.scheduleAtFixedRate(onStateExecutor(this::redriveBlockedScans), 
+					monitorInterval, monitorInterval, TimeUnit.SECONDS));
+			// saves the learned scan durations off the scan finishing path
+			final int saveInterval = config.getScanEstimateSaveSecs();
+			tasks.add(idleEngineExecutor.scheduleAtFixedRate(durationEstimator::flush, 
+					saveInterval, saveInterval, TimeUnit.SECONDS));
+			if (journal != null) {
+				final int snapshotInterval = config.getJournalSnapshotSecs();
+				tasks.add(idleEngineExecutor.scheduleAtFixedRate(journal::compact, 
+						snapshotInterval, snapshotInterval, TimeUnit.SECONDS));
+			}
+			if (rulesLoader != null) {
+				final int reloadInterval = config.getEngineRulesReloadSecs();
+				tasks.add(idleEngineExecutor.scheduleAtFixedRate(rulesLoader, 
+						reloadInterval, reloadInterval, TimeUnit.SECONDS));
+			}
 		} catch (Throwable t) {
 			log.error("Error occurred while launching Engine processes, shutting down; cause={}; message={}", 
 					t, t.getMessage(), t); 
@@ -145,34 +272,65 @@ public class EngineManager implements Runnable {
 			task.cancel(true);
 		});
 		
-		managerExecutor.shutdown();
-		scanQueuedExecutor.shutdown();
-		scanFinishedExecutor.shutdown();
 		idleEngineExecutor.shutdown();
+		if (eventLoop != null) eventLoop.stop(10, TimeUnit.SECONDS);
+		executorRegistry.shutdown(10, TimeUnit.SECONDS);
 		
 		try {
-			if (!managerExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
-				managerExecutor.shutdownNow();
-			}
-			if (!scanQueuedExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
-				scanQueuedExecutor.shutdownNow();
-			}
-			if (!scanFinishedExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
-				scanFinishedExecutor.shutdownNow();
-			}
 			if (!idleEngineExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
 				idleEngineExecutor.shutdownNow();
 			}
 		} catch (InterruptedException e) {
-			managerExecutor.shutdownNow();
-			scanQueuedExecutor.shutdownNow();
-			scanFinishedExecutor.shutdownNow();
 			idleEngineExecutor.shutdownNow();
 		}
+		durationEstimator.flush();
+		if (journal != null) journal.close();
+	}
+	
+	private Runnable onStateExecutor(Runnable task) {
+		return () -> stateExecutor.execute(task);
+	}
+	
+	/**
+	 * Makes a blocking call to the CxManager or engine provider; 
+	 * on the supplied worker in single-writer mode, otherwise on the calling thread.
+	 */
+	private <T> CompletableFuture<T> io(Supplier<T> call, Executor worker) {
+		if (eventLoop != null) return CompletableFuture.supplyAsync(call, worker);
+		
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		try {
+			result.complete(call.get());
+		} catch (Throwable t) {
+			result.completeExceptionally(t);
+		}
+		return result;
+	}
+	
+	private CompletableFuture<Void> io(Runnable call, Executor worker) {
+		return io(() -> {
+			call.run();
+			return null;
+		}, worker);
+	}
+	
+	private static Throwable unwrap(Throwable t) {
+		return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+	}
+	
+	/**
+	 * Runs the engine launch stages on the launch executor.
+	 */
+	private CompletableFuture<Void> provisionEngine(DynamicEngine engine, EngineSize size) {
+		return CompletableFuture
+				.runAsync(() -> engineProvisioner.provision(engine, size), engineLaunchExecutor)
+				.thenRun(() -> engineProvisioner.awaitRunning(engine))
+				.thenRun(() -> engineProvisioner.awaitReady(engine))
+				.thenRun(() -> engineProvisioner.runLaunchScripts(engine));
 	}
 	
 	private EngineSize calcEngineSize(ScanRequest scan) {
-		final EngineSize size = pool.calcEngineSize(scan.getLoc());
+		final EngineSize size = pool.calcEngineSize(scan);
 		if (size == null) {
 			final String msg = String.format("Invalid scan size; %s", scan);
 			throw new RuntimeException(msg);
@@ -180,25 +338,187 @@ public class EngineManager implements Runnable {
 		return size;
 	}
 
+	/**
+	 * Re-queues reserved scans whose engine did not finish within its predicted window.
+	 */
+	void expireReservations() {
+		log.trace("expireReservations()");
+		
+		final long now = System.currentTimeMillis();
+		final List<EngineReservation> expired = Lists.newArrayList();
+		synchronized (reservations) {
+			reservations.forEach((engineId, reservation) -> {
+				if (now > reservation.deadlineMillis) expired.add(reservation);
+			});
+			expired.forEach((reservation) -> reservations.remove(reservation.engineId));
+		}
+		
+		expired.forEach((reservation) -> {
+			log.warn("Engine reservation expired, re-queueing scan: engineId={}; {}", 
+					reservation.engineId, reservation.scan);
+			requeueScan(reservation.scan);
+		});
+	}
+	
+	private void requeueScan(ScanRequest scan) {
+		if (!queuedScansQueue.offer(scan)) {
+			scanLauncher.blockScan(calcEngineSize(scan), scan);
+		}
+	}
+	
+	/**
+	 * Frees the slot of a scan that could not be registered with the engine.  
+	 * An engine left with no scans is unregistered, if registered, then idled.
+	 */
+	private void releaseSlot(DynamicEngine engine, ScanRequest scan) {
+		log.trace("releaseSlot(): {}; {}", engine, scan);
+		
+		if (pool.releaseScan(engine, scan.getId()) > 0) return;
+		
+		final Long cxEngineId = cxEngineIds.get(engine.getName());
+		if (cxEngineId == null) {
+			idleEngine(engine);
+			return;
+		}
+		unTrackEngine(cxEngineId, engine);
+		io(() -> cxClient.unregisterEngine(cxEngineId), scanFinishedExecutor).whenCompleteAsync((result, t) -> {
+			if (t != null) {
+				final Throwable cause = unwrap(t);
+				log.warn("Failed to unregister engine; cause={}; message={}; engine={}", 
+						cause, cause.getMessage(), engine);
+			}
+			idleEngine(engine);
+		}, stateExecutor);
+	}
+	
+	private void unTrackEngine(long cxEngineId, DynamicEngine engine) {
+		cxEngines.remove(cxEngineId);
+		activeEngines.remove(cxEngineId);
+		if (engine != null) cxEngineIds.remove(engine.getName());
+		if (journal != null) journal.unregister(cxEngineId);
+	}
+	
+	/**
+	 * Re-adopts an engine registered before a restart, with its scans still in the scan queue, 
+	 * so the scans finish on the engine instead of being re-queued.  
+	 * Called on startup, before the manager is run.
+	 * 
+	 * @return false if the engine is not provisioned and idle, and cannot be adopted
+	 */
+	public boolean adoptEngine(EngineServer cxEngine, DynamicEngine dynEngine, List<ScanRequest> scans) {
+		log.trace("adoptEngine(): {}; {}; scans={}", cxEngine, dynEngine, scans.size());
+		
+		if (Strings.isNullOrEmpty(dynEngine.getUrl()) || !pool.adoptEngine(dynEngine)) return false;
+		
+		final long now = System.currentTimeMillis();
+		scans.forEach((scan) -> {
+			final DateTime startedOn = scan.getEngineStartedOn();
+			scanLauncher.trackEngineScan(scan, cxEngine, dynEngine, startedOn == null ? now : startedOn.getMillis());
+		});
+		log.info("Engine adopted: scans={}; engine={}; cxEngine={}", scans.size(), dynEngine, cxEngine);
+		return true;
+	}
+	
+	private void idleEngine(DynamicEngine engine) {
+		pool.idleEngine(engine);
+		
+		// see if we have any scans blocked that can now run
+		redriveBlockedScan(pool.getEngineSize(engine.getSize()), State.IDLE);
+	}
+	
+	/**
+	 * Re-drives blocked scans for the idle and unprovisioned engines of each size.  
+	 * Runs on the idle monitor interval, and should be called when engines are added to the pool.
+	 */
+	public void redriveBlockedScans() {
+		log.trace("redriveBlockedScans()");
+		
+		if (blockedScans.size() == 0) return;
+		
+		for (EngineSize size : pool.getEngineSizes()) {
+			for (State state : new State[] { State.SCANNING, State.IDLE, State.UNPROVISIONED }) {
+				int available = state == State.SCANNING ? pool.getFreeSlots(size) : pool.getEngineCount(size, state);
+				while (available-- > 0 && redriveBlockedScan(size, state)) {
+					// re-drive one scan per available engine
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Re-queues the blocked scan with the highest priority that can use an engine 
+	 * of the supplied size and state.
+	 * 
+	 * @return true if a blocked scan was re-queued
+	 */
+	private boolean redriveBlockedScan(EngineSize engineSize, State state) {
+		log.trace("redriveBlockedScan(): engineSize={}; state={}", engineSize, state);
+		
+		if (engineSize == null) return false;
+		
+		final ScanRequest scan = blockedScans.poll(engineSize, calcScanSizes(engineSize, state));
+		if (scan == null) return false;
+		
+		log.info("Re-driving blocked scan: engineSize={}; state={}; blocked={}; {}", 
+				engineSize.getName(), state, blockedScans.size(), scan);
+		requeueScan(scan);
+		return true;
+	}
+	
+	/**
+	 * @return the scan sizes that can use an engine of the supplied size and state; 
+	 * 			smaller scans only borrow idle engines
+	 */
+	private List<EngineSize> calcScanSizes(EngineSize engineSize, State state) {
+		final List<EngineSize> sizes = Lists.newArrayList(engineSize);
+		if (state == State.IDLE && pool.getEngineCount(engineSize, state) > config.getBestFitMinIdle()) {
+			sizes.addAll(pool.getSmallerSizes(engineSize, config.getBestFitMaxSizeSteps()));
+		}
+		return sizes;
+	}
+	
 	public class ScanLauncher implements Runnable {
 		
 		private final Logger log = LoggerFactory.getLogger(EngineManager.ScanLauncher.class);
+		
+		/**
+		 * limits scans taken from the queue to available launch threads, 
+		 * so a backlog stays in the bounded queue instead of the executor
+		 */
+		private final Semaphore launchPermits = new Semaphore(config.getScanQueuedThreads());
 
 		@Override
 		public void run() {
 			log.info("run()");
 			
+			// the event loop owns allocation state in single-writer mode
+			final Executor executor = eventLoop == null ? scanQueuedExecutor : eventLoop;
 			int scansQueuedCount = 0;
 			try {
 				while (true) {
 					log.debug("ScanLauncher: waiting for scan");
 					
+					// blocks until a launch thread is free
+					launchPermits.acquire();
+					
 					// blocks until scan available
-					ScanRequest scan = queuedScansQueue.take();
+					final ScanRequest scan;
+					try {
+						scan = queuedScansQueue.take();
+					} catch (InterruptedException e) {
+						launchPermits.release();
+						throw e;
+					}
 					scansQueuedCount++;
 					
 					// process scan task using background thread pool
-					scanQueuedExecutor.execute(()-> onScanQueued(scan));
+					executor.execute(()-> {
+						try {
+							onScanQueued(scan);
+						} finally {
+							launchPermits.release();
+						}
+					});
 				}
 			} catch (InterruptedException e) {
 				log.info("ScanLauncher interrupted");
@@ -217,8 +537,12 @@ public class EngineManager implements Runnable {
 			
 			try {
 			
+				if (allocateEngineSlot(size, scan)) return;
+				
 				if (allocateIdleEngine(size, scan)) return;
 				
+				if (allocateLargerIdleEngine(size, scan)) return;
+				
 				if (checkActiveEngines(size, scan)) return;
 				
 				if (allocateNewEngine(size, scan)) return;
@@ -233,6 +557,21 @@ public class EngineManager implements Runnable {
 			}
 		}
 
+		/**
+		 * Adds the scan to a scanning engine with a free slot, for sizes that run concurrent scans.
+		 */
+		private boolean allocateEngineSlot(EngineSize size, ScanRequest scan) {
+			log.trace("allocateEngineSlot(): size={}; {}", size, scan);
+			
+			final DynamicEngine engine = pool.allocateSlot(size, scan.getId());
+			if (engine == null) return false;
+			
+			log.info("Engine slot allocated: scans={}; engine={}; scanId={}", 
+					engine.getScanCount(), engine.getName(), scan.getId());
+			assignEngine(State.SCANNING, size, scan, engine);
+			return true;
+		}
+		
 		private boolean allocateIdleEngine(EngineSize size, ScanRequest scan) {
 			log.trace("allocateIdleEngine(): size={}; {}", size, scan);
 
@@ -241,10 +580,42 @@ public class EngineManager implements Runnable {
 			
 			if (engine == null) return false;
 			
-			registerEngine(state, scan, engine);
+			assignEngine(state, size, scan, engine);
+			warmPoolController.requestRefill();
+			return true;
+		}
+		
+		/**
+		 * Allocates an idle engine of a larger size, rather than waiting for a new engine to launch.
+		 */
+		private boolean allocateLargerIdleEngine(EngineSize size, ScanRequest scan) {
+			log.trace("allocateLargerIdleEngine(): size={}; {}", size, scan);
+
+			final State state = State.IDLE;
+			final DynamicEngine engine = pool.allocateLargerEngine(size, state, 
+					config.getBestFitMaxSizeSteps(), config.getBestFitMinIdle());
+			
+			if (engine == null) return false;
+			
+			log.info("Larger idle engine allocated: scanSize={}; engineSize={}; scanId={}", 
+					size.getName(), engine.getSize(), scan.getId());
+			assignEngine(state, size, scan, engine);
+			warmPoolController.requestRefill();
 			return true;
 		}
 		
+		private void assignEngine(State fromState, EngineSize size, ScanRequest scan, DynamicEngine engine) {
+			registerEngine(fromState, scan, engine).whenCompleteAsync((result, t) -> {
+				if (t == null) return;
+				
+				final Throwable cause = unwrap(t);
+				log.error("Error occurred registering engine; cause={}; message={}; engine={}", 
+						cause, cause.getMessage(), engine, cause);
+				releaseSlot(engine, scan);
+				blockScan(size, scan);
+			}, stateExecutor);
+		}
+		
 		private boolean allocateNewEngine(EngineSize size, ScanRequest scan) {
 			log.trace("allocateNewEngine(): size={}; {}", scan, size);
 
@@ -253,41 +624,99 @@ public class EngineManager implements Runnable {
 			
 			if (engine == null) return false;
 
-			// blocks while engine is spinning up
-			engineProvisioner.launch(engine, size, true);
-			registerEngine(state, scan, engine);
+			launchEngine(state, size, scan, engine);
 			return true;
 		}
 		
+		/**
+		 * Launches the engine on the launch executor, freeing the calling thread.  
+		 * The scan is registered with the engine once the launch completes. 
+		 */
+		private CompletableFuture<Void> launchEngine(State fromState, EngineSize size, ScanRequest scan, DynamicEngine engine) {
+			log.trace("launchEngine(): size={}; {}; {}", size, scan, engine);
+			
+			final int pending = pendingLaunches.incrementAndGet();
+			log.info("Launching engine: pendingLaunches={}; engine={}; scan={}", pending, engine, scan);
+
+			final Stopwatch timer = Stopwatch.createStarted();
+			return provisionEngine(engine, size)
+					.thenCompose((v) -> registerEngine(fromState, scan, engine))
+					.whenCompleteAsync((result, t) -> {
+						pendingLaunches.decrementAndGet();
+						log.info("Engine launch complete: success={}; elapsedTime={}s; engine={}", 
+								t == null, timer.elapsed(TimeUnit.SECONDS), engine);
+						if (t != null) onLaunchFailed(size, scan, engine, t);
+					}, engineLaunchExecutor);
+		}
+		
+		private void onLaunchFailed(EngineSize size, ScanRequest scan, DynamicEngine engine, Throwable t) {
+			final Throwable cause = unwrap(t);
+			log.error("Error occurred launching engine; cause={}; message={}; engine={}", 
+					cause, cause.getMessage(), engine, cause);
+			
+			try {
+				engineProvisioner.stop(engine, true);
+			} catch (Throwable e) {
+				log.warn("Failed to stop engine after launch error; cause={}; message={}; engine={}", 
+						e, e.getMessage(), engine);
+			}
+			
+			stateExecutor.execute(() -> {
+				pool.deallocateEngine(engine);
+				blockScan(size, scan);
+			});
+			
+			// the engine is available to launch again, after a delay so a failing launch does not spin
+			final EngineSize engineSize = pool.getEngineSize(engine.getSize());
+			idleEngineExecutor.schedule(onStateExecutor(() -> redriveBlockedScan(engineSize, State.UNPROVISIONED)), 
+					config.getIdleMonitorSecs(), TimeUnit.SECONDS);
+		}
+		
 		private void blockScan(EngineSize size, ScanRequest scan) {
 			log.trace("blockScan(): size={}; {}", size, scan);
 			
-			Queue<ScanRequest> blockedQueue = blockedScansQueueMap.get(size);
-			if (blockedQueue == null) {
-				log.debug("Creating blocked queue: size={}; {}", size, scan);
-				blockedQueue = Queues.newConcurrentLinkedQueue();
-				blockedScansQueueMap.put(size, blockedQueue);
+			if (blockedScans.add(size, scan)) {
+				log.warn("No engine available, added scan to blocked queue: size={}; blocked={}; {}", 
+						size, blockedScans.size(), scan);
 			}
-			
-			blockedQueue.add(scan);
-			log.warn("No engine available, added scan to blocked queue: size={}; {}", size, scan);
 		}
 
-		private void registerEngine(State fromState, ScanRequest scan, DynamicEngine dynEngine) {
+		/**
+		 * Registers the engine with the CxManager, then tracks it as scanning.  
+		 * An engine already registered for another scan is updated to also take this scan.
+		 */
+		private CompletableFuture<Void> registerEngine(State fromState, ScanRequest scan, DynamicEngine dynEngine) {
 			log.trace("registerEngine(): fromState={}; {}; {}", fromState, scan, dynEngine);
 			
 			final Long scanId = scan.getId();
 			final String url = dynEngine.getUrl();
 			if (Strings.isNullOrEmpty(url)) {
 				final String msg = String.format("Cannot register Engine, url is null: %s", dynEngine);
-				throw new RuntimeException(msg);
+				final CompletableFuture<Void> result = new CompletableFuture<>();
+				result.completeExceptionally(new RuntimeException(msg));
+				return result;
+			}
+			final Long cxEngineId = cxEngineIds.get(dynEngine.getName());
+			final EngineServer registered = cxEngineId == null ? null : activeEngines.get(cxEngineId);
+			if (registered != null) {
+				if (engineBlocker != null) engineBlocker.awaitScan(cxEngineId, scanId);
+				return io(() -> addCxEngineScan(scan, registered), scanQueuedExecutor)
+						.whenComplete((result, t) -> {
+							if (t != null && engineBlocker != null) engineBlocker.onScanCompleted(scanId);
+						})
+						.thenAcceptAsync((cxEngine) -> {
+							trackEngineScan(scan, cxEngine, dynEngine);
+							log.info("Engine slot allocated for scan: scans={}; engine={}; scan={}", 
+									dynEngine.getScanCount(), dynEngine, scan);
+						}, stateExecutor);
 			}
-			EngineServer cxEngine = createEngine(dynEngine.getName(), scan, dynEngine.getUrl());
-			cxEngine = registerCxEngine(scanId, cxEngine);
 			
-			trackEngineScan(scan, cxEngine, dynEngine);
-
-			log.info("Engine allocated for scan: fromState={}; engine={}; scan={}", fromState, dynEngine, scan);
+			final EngineServer cxServer = createEngine(dynEngine, scan);
+			return io(() -> registerCxEngine(scanId, cxServer), scanQueuedExecutor)
+					.thenAcceptAsync((cxEngine) -> {
+						trackEngineScan(scan, cxEngine, dynEngine);
+						log.info("Engine allocated for scan: fromState={}; engine={}; scan={}", fromState, dynEngine, scan);
+					}, stateExecutor);
 		}
 		
 		@Retryable(value = { RestClientException.class }, maxAttempts = 3, backoff = @Backoff(delay = 1000))
@@ -300,34 +729,118 @@ public class EngineManager implements Runnable {
 			return cxEngine;
 		}
 
+		/**
+		 * Widens the registered engine's LOC range to the scan and unblocks the engine, 
+		 * so the CxManager assigns the scan to it.  The engine is blocked again once the scan starts.  
+		 * Retries failed updates, since this runs outside the Spring retry proxy.
+		 */
+		private EngineServer addCxEngineScan(ScanRequest scan, EngineServer cxEngine) {
+			log.trace("addCxEngineScan(): scanId={}; engineId={}", scan.getId(), cxEngine.getId());
+			
+			for (int attempt = 1; ; attempt++) {
+				try {
+					return updateCxEngine(scan, cxEngine);
+				} catch (RestClientException e) {
+					if (attempt >= ENGINE_UPDATE_ATTEMPTS) throw e;
+					log.warn("Unable to update engine, retrying; scanId={}; engineId={}; attempt={}; message={}", 
+							scan.getId(), cxEngine.getId(), attempt, e.getMessage());
+					try {
+						Thread.sleep(ENGINE_UPDATE_RETRY_MILLIS);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw e;
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Updates the engine as currently registered, under the engine blocker's engine lock, 
+		 * so a concurrent block does not overwrite the update with a stale engine.
+		 */
+		private EngineServer updateCxEngine(ScanRequest scan, EngineServer registered) {
+			final Supplier<EngineServer> update = () -> widenCxEngine(scan, registered);
+			return engineBlocker == null ? update.get() : engineBlocker.withEngineLock(registered.getId(), update);
+		}
+		
+		private EngineServer widenCxEngine(ScanRequest scan, EngineServer registered) {
+			// re-read, the engine may have been updated since it was registered
+			final EngineServer current = cxClient.getEngine(registered.getId());
+			final EngineServer cxEngine = current == null ? registered : current;
+			final int loc = scan.getLoc();
+			cxEngine.setMinLoc(Math.min(cxEngine.getMinLoc(), loc));
+			cxEngine.setMaxLoc(Math.max(cxEngine.getMaxLoc(), loc));
+			cxEngine.setBlocked(false);
+			final EngineServer updated = cxClient.updateEngine(cxEngine);
+			log.info("Engine updated: scanId={}; engine={}", scan.getId(), updated);
+			
+			return updated == null ? cxEngine : updated;
+		}
+
 		private void trackEngineScan(ScanRequest scan, EngineServer cxEngine, DynamicEngine dynEngine) {
+			trackEngineScan(scan, cxEngine, dynEngine, System.currentTimeMillis());
+		}
+		
+		private void trackEngineScan(ScanRequest scan, EngineServer cxEngine, DynamicEngine dynEngine, long startMillis) {
 			log.debug("trackEngineScan(): {}; {}; {}", scan, cxEngine, dynEngine);
 			
 			final long engineId = cxEngine.getId();
 			final long scanId = scan.getId();
-			dynEngine.setScanId(scanId);
+			pool.addScan(dynEngine, scanId);
+			blockedScans.remove(scanId);
 			
 			cxEngines.put(engineId, dynEngine);
+			cxEngineIds.put(dynEngine.getName(), engineId);
 			engineScans.put(scanId, engineId);
 			activeEngines.put(engineId, cxEngine);
+			activeScans.put(scanId, new ActiveScan(scan, dynEngine, engineId, startMillis));
+			if (journal != null) journal.assign(scanId, engineId, dynEngine.getName());
 		}
 		
-		private EngineServer createEngine(String name, ScanRequest scan, String url) {
+		private EngineServer createEngine(DynamicEngine dynEngine, ScanRequest scan) {
 			final String prefix = config.getCxEnginePrefix(); //"**";
-			final String engineName = String.format("%s%s", prefix, name);
+			final String engineName = String.format("%s%s", prefix, dynEngine.getName());
 			final int size = scan.getLoc(); 
+			final int maxScans = pool.getScansPerEngine(dynEngine.getSize());
 			
-			return new EngineServer(engineName, url, size, size, 1, false);
+			return new EngineServer(engineName, dynEngine.getUrl(), size, size, maxScans, false);
 		}
 
+		/**
+		 * Reserves the busy engine of the requested size predicted to finish first, 
+		 * if it is predicted to finish within the reuse window.  
+		 * The scan is assigned to the engine when its current scan finishes.
+		 */
 		private boolean checkActiveEngines(EngineSize size, ScanRequest scan) {
 			log.trace("checkActiveEngines() : size={}; {}", size, scan);
 
-			//final State state = State.SCANNING;
-			//final DynamicEngine engine = pool.allocateEngine(size, state);
+			final long windowMillis = TimeUnit.SECONDS.toMillis(config.getEngineReuseWindowSecs());
+			if (windowMillis <= 0) return false;
 			
-			//TODO: check active engines for scan finish time; if within finish window, allocate scan
-			return false;
+			final long now = System.currentTimeMillis();
+			synchronized (reservations) {
+				// best[0]=engineId, best[1]=remaining millis
+				final long[] best = { -1, Long.MAX_VALUE };
+				activeScans.forEach((scanId, active) -> {
+					final long engineId = active.engineId;
+					if (!size.getName().equals(active.engine.getSize())) return;
+					if (reservations.containsKey(engineId)) return;
+					
+					final long remaining = durationEstimator.predict(active.scan) - (now - active.startMillis);
+					// skip scans that overran their estimate, their finish time is unknown 
+					if (remaining < 0 || remaining > windowMillis) return;
+					if (remaining < best[1]) {
+						best[0] = engineId;
+						best[1] = remaining;
+					}
+				});
+				if (best[0] < 0) return false;
+				
+				reservations.put(best[0], new EngineReservation(best[0], scan, now + best[1] + windowMillis));
+				log.info("Busy engine reserved for scan: engineId={}; predictedFinishSecs={}; scan={}", 
+						best[0], TimeUnit.MILLISECONDS.toSeconds(best[1]), scan);
+			}
+			return true;
 		}
 
 	}
@@ -340,6 +853,7 @@ public class EngineManager implements Runnable {
 		public void run() {
 			log.info("run()");
 			
+			final Executor executor = eventLoop == null ? scanFinishedExecutor : eventLoop;
 			int scanCount = 0;
 			try {
 				while (true) {
@@ -350,7 +864,7 @@ public class EngineManager implements Runnable {
 					scanCount++;
 					
 					// add task to thread pool
-					scanFinishedExecutor.execute(()-> onScanFinished(scan));
+					executor.execute(()-> onScanFinished(scan));
 				}
 			} catch (InterruptedException e) {
 				log.info("ScanFinisher interrupted");
@@ -368,58 +882,177 @@ public class EngineManager implements Runnable {
 			log.debug("onScanFinished() : {}", scan);
 			
 			try {
-				final EngineSize size = calcEngineSize(scan);
 				final long scanId = scan.getId(); 
 				final Long engineId = determineEngineId(scan);
 				if (engineId == null) {
-					if (removeBlockedScan(size, scan)) {
+					if (blockedScans.remove(scanId)) {
 						log.info("Blocked scan was cancelled and removed: {}", scan);
 						return;
 					}
+					if (removeReservation(scan)) {
+						log.info("Reserved scan was cancelled and removed: {}", scan);
+						return;
+					}
 					log.warn("Untracked scan completed; scanId={}; {}", scanId, scan);
 					return;
 				}
 				
+				// an engine running other scans stays registered
 				final DynamicEngine engine = cxEngines.get(engineId);
-				unRegisterEngine(engineId);
-				pool.idleEngine(engine);
-				//engine.setState(State.IDLE);
-				
-				engineScans.remove(scanId);
-				cxEngines.remove(engineId);
-				log.info("Scan finished, engine removed: engine={}; scan={}", engine, scan);
-				
-				// see if we have any scans blocked that can now run
-				checkBlockedScans(size);
+				final int released = engine == null ? 0 : pool.releaseScan(engine, scanId);
+				final CompletableFuture<Integer> running = released > 0 || !isConcurrent(engine)
+						? CompletableFuture.completedFuture(released)
+						: io(() -> findCxEngineScans(engineId, scanId), scanFinishedExecutor)
+							.thenApplyAsync((scanIds) -> addCxEngineScans(engine, engineId, scanIds), stateExecutor);
+				running
+					.thenCompose((remaining) -> remaining > 0 
+							? CompletableFuture.completedFuture(remaining)
+							: io(() -> unRegisterEngine(engineId), scanFinishedExecutor).thenApply((v) -> remaining))
+					.thenAcceptAsync((remaining) -> releaseEngine(scan, engineId, remaining), stateExecutor)
+					.whenComplete((result, t) -> {
+						if (t == null) return;
+						final Throwable cause = unwrap(t);
+						log.error("Error occurred finishing scan; cause={}; message={}", 
+								cause, cause.getMessage(), cause); 
+					});
 			} catch (Throwable t) {
 				log.error("Error occurred finishing scan; cause={}; message={}", 
 						t, t.getMessage(), t); 
 			}
 
 		}
-
+		
+		private boolean isConcurrent(DynamicEngine engine) {
+			return engine != null && pool.getScansPerEngine(engine.getSize()) > 1;
+		}
+		
+		/**
+		 * @return ids of the other scans the CxManager reports on the engine, 
+		 * 		including scans it assigned without the engine manager
+		 */
+		private List<Long> findCxEngineScans(long engineId, long scanId) {
+			log.trace("findCxEngineScans(): engineId={}; scanId={}", engineId, scanId);
+			
+			final List<Long> scanIds = Lists.newArrayList();
+			try {
+				cxClient.getScansQueue().forEach((cxScan) -> {
+					final Long scanEngineId = cxScan.getEngineId();
+					if (cxScan.getId() == scanId || scanEngineId == null || scanEngineId != engineId) return;
+					switch (cxScan.getStatus()) {
+						case Canceled :
+						case Deleted :
+						case Failed :
+						case Finished :
+							return;
+						default :
+							scanIds.add(cxScan.getId());
+					}
+				});
+			} catch (Throwable t) {
+				log.warn("Unable to retrieve scans queue, assuming no other scans on engine; engineId={}; cause={}; message={}", 
+						engineId, t, t.getMessage());
+			}
+			return scanIds;
+		}
+		
 		/**
-		 * Queues the head scan in the blocked queue, if any 
-		 * @param size Engine size to check
+		 * Counts the untracked scans as engine slots, so the engine stays registered until they finish.
+		 * 
+		 * @return the number of scans running on the engine
 		 */
-		private void checkBlockedScans(EngineSize size) throws InterruptedException {
-			log.trace("checkBlockedScans(): size={}", size);
+		private int addCxEngineScans(DynamicEngine engine, long engineId, List<Long> scanIds) {
+			if (scanIds.isEmpty()) return 0;
 			
-			if (!blockedScansQueueMap.containsKey(size)) return;
+			log.warn("Untracked scans running on engine, engine stays registered: engineId={}; scanIds={}; engine={}", 
+					engineId, scanIds, engine);
+			scanIds.forEach((id) -> {
+				pool.addScan(engine, id);
+				engineScans.put(id, engineId);
+			});
+			return engine.getScanCount();
+		}
+		
+		/**
+		 * @param remaining number of scans still running on the engine
+		 */
+		private void releaseEngine(ScanRequest scan, long engineId, int remaining) {
+			log.trace("releaseEngine(): engineId={}; remaining={}; {}", engineId, remaining, scan);
+			
+			final long scanId = scan.getId();
+			final DynamicEngine engine = cxEngines.get(engineId);
+			engineScans.remove(scanId);
+			if (journal != null) journal.release(scanId);
+			if (remaining == 0) unTrackEngine(engineId, engine);
 			
-			final ScanRequest scan = blockedScansQueueMap.get(size).poll();
-			if (scan == null) return;
+			final ActiveScan activeScan;
+			final EngineReservation reservation;
+			synchronized (reservations) {
+				activeScan = activeScans.remove(scanId);
+				reservation = reservations.remove(engineId);
+			}
+			if (activeScan != null) {
+				durationEstimator.onScanFinished(scan, scanDurationMillis(scan, activeScan));
+			}
+			if (reservation != null) {
+				// hold the freed slot for the reserved scan
+				if (remaining > 0) pool.addScan(engine, reservation.scan.getId());
+				handOverEngine(engine, scan, reservation.scan);
+				return;
+			}
+			if (remaining > 0) {
+				log.info("Scan finished, engine slot freed: scans={}; engine={}; scan={}", remaining, engine, scan);
+				redriveBlockedScan(pool.getEngineSize(engine.getSize()), State.SCANNING);
+				return;
+			}
+			idleEngine(engine, scan);
+		}
+		
+		private void idleEngine(DynamicEngine engine, ScanRequest scan) {
+			pool.idleEngine(engine);
+			//engine.setState(State.IDLE);
+			log.info("Scan finished, engine removed: engine={}; scan={}", engine, scan);
 			
-			// add scan to the queue
-			queuedScansQueue.put(scan);
+			// see if we have any scans blocked that can now run
+			redriveBlockedScan(pool.getEngineSize(engine.getSize()), State.IDLE);
 		}
 
-		private boolean removeBlockedScan(EngineSize size, ScanRequest scan) {
-			log.trace("removeBlockedScan(): size={}; {}", size, scan);
-
-			if (!blockedScansQueueMap.containsKey(size)) return false;
+		/**
+		 * @return time from engine start to now, as reported by the CxManager if available 
+		 */
+		private long scanDurationMillis(ScanRequest scan, ActiveScan activeScan) {
+			final long now = System.currentTimeMillis();
+			final DateTime startedOn = scan.getEngineStartedOn();
+			return startedOn == null ? now - activeScan.startMillis : now - startedOn.getMillis();
+		}
+		
+		private void handOverEngine(DynamicEngine engine, ScanRequest scan, ScanRequest reservedScan) {
+			log.trace("handOverEngine(): {}; {}", engine, reservedScan);
 			
-			return blockedScansQueueMap.get(size).remove(scan);
+			scanLauncher.registerEngine(State.SCANNING, reservedScan, engine).whenCompleteAsync((result, t) -> {
+				if (t == null) {
+					log.info("Scan finished, engine handed over to reserved scan: engine={}; scan={}; reservedScan={}", 
+							engine, scan, reservedScan);
+					return;
+				}
+				final Throwable cause = unwrap(t);
+				log.error("Error occurred handing over engine to reserved scan; cause={}; message={}; {}", 
+						cause, cause.getMessage(), reservedScan, cause);
+				requeueScan(reservedScan);
+				releaseSlot(engine, reservedScan);
+			}, stateExecutor);
+		}
+		
+		private boolean removeReservation(ScanRequest scan) {
+			log.trace("removeReservation(): {}", scan);
+			
+			final long scanId = scan.getId();
+			synchronized (reservations) {
+				final long[] engineId = { -1 };
+				reservations.forEach((id, reservation) -> {
+					if (reservation.scan.getId() == scanId) engineId[0] = id;
+				});
+				return engineId[0] >= 0 && reservations.remove(engineId[0]) != null;
+			}
 		}
 
 		@Retryable(value = { HttpClientErrorException.class }, maxAttempts = 3, backoff = @Backoff(delay = 1000))
@@ -432,7 +1065,10 @@ public class EngineManager implements Runnable {
 			final Long scanEngineId = scan.getEngineId();
 			log.trace("determineEngineId(): scanId={}; engineId={}", scan.getId(), scanEngineId);
 
-			return scanEngineId == null ? engineScans.get(scan.getId()) : scanEngineId;
+			if (scanEngineId != null) return scanEngineId;
+			
+			final long engineId = engineScans.get(scan.getId());
+			return engineId == engineScans.getMissingValue() ? null : engineId;
 		}
 		
 	}
@@ -445,13 +1081,14 @@ public class EngineManager implements Runnable {
 		public void run() {
 			log.info("run()");
 			
+			final Executor executor = eventLoop == null ? engineExpiringExecutor : eventLoop;
 			try {
 				while (true) {
 					log.trace("EngineTerminator: waiting for event...");
 
 					//blocks until an engine expires
 					final DynamicEngine engine = expiredEnginesQueue.take();
-					engineExpiringExecutor.execute(()-> stopEngine(engine));
+					executor.execute(()-> stopEngine(engine));
 				}
 			} catch (InterruptedException e) {
 				log.info("EngineTerminator interrupted");
@@ -466,9 +1103,166 @@ public class EngineManager implements Runnable {
 			log.debug("stopEngine(): {}", engine);
 			
 			pool.deallocateEngine(engine);
-			engineProvisioner.stop(engine);
+			io(() -> engineProvisioner.stop(engine), engineExpiringExecutor)
+				.whenCompleteAsync((result, t) -> {
+					if (t != null) {
+						final Throwable cause = unwrap(t);
+						log.error("Error occurred stopping expired engine; cause={}; message={}; engine={}", 
+								cause, cause.getMessage(), engine, cause);
+						return;
+					}
+					log.info("Idle engine expired, engine deallocated: engine={}", engine);
+					
+					redriveBlockedScan(pool.getEngineSize(engine.getSize()), State.UNPROVISIONED);
+				}, stateExecutor);
+		}
+		
+	}
+
+	/**
+	 * Launches engines ahead of scans, to keep each pool entry's minimum provisioned and idle.  
+	 * Also sets the pool minimum from the entry's active schedules and the forecast scan arrivals, 
+	 * so idle engines are not expired below it.
+	 */
+	public class WarmPoolController implements Runnable {
+		
+		private final Logger log = LoggerFactory.getLogger(EngineManager.WarmPoolController.class);
+		
+		private final AtomicBoolean refillPending = new AtomicBoolean();
 
-			log.info("Idle engine expired, engine deallocated: engine={}", engine);
+		@Override
+		public void run() {
+			log.trace("run()");
+			
+			try {
+				final DateTime now = DateTime.now();
+				pool.getEngineSizes().forEach((size) -> refill(size, now));
+			} catch (Throwable t) {
+				log.warn("Error occurred while refilling warm pool; cause={}; message={}", 
+						t, t.getMessage(), t); 
+			}
+		}
+		
+		/**
+		 * Refills the warm pool in the background, e.g. after an idle engine is allocated.
+		 */
+		public void requestRefill() {
+			if (!config.isWarmPool() || !refillPending.compareAndSet(false, true)) return;
+			
+			idleEngineExecutor.execute(onStateExecutor(() -> {
+				refillPending.set(false);
+				run();
+			}));
+		}
+		
+		/**
+		 * @return the number of engines launched
+		 */
+		int refill(EngineSize size, DateTime time) {
+			log.trace("refill(): size={}", size);
+			
+			final EnginePoolEntry entry = pool.getEntry(size);
+			if (entry == null) return 0;
+			
+			final int minimum = calcMinimum(entry, size, time);
+			pool.setMinimum(size, minimum);
+			
+			final int warm = pool.getEngineCount(size, State.IDLE) + pool.getEngineCount(size, State.LAUNCHING);
+			int launched = 0;
+			while (warm + launched < minimum) {
+				final DynamicEngine engine = pool.allocateEngine(size, State.UNPROVISIONED, State.LAUNCHING);
+				if (engine == null) break;
+				
+				launched++;
+				launchWarmEngine(size, engine);
+			}
+			if (launched > 0) {
+				log.info("Refilling warm pool: size={}; minimum={}; warm={}; launched={}", 
+						size.getName(), minimum, warm, launched);
+			}
+			return launched;
+		}
+		
+		/**
+		 * @return the highest of the entry's minimum at the supplied time and the 
+		 * 			forecast scan arrivals, up to the engine count
+		 */
+		private int calcMinimum(EnginePoolEntry entry, EngineSize size, DateTime time) {
+			final int minimum = entry.getMinimum(time);
+			if (arrivalForecaster == null) return minimum;
+			
+			final int forecast = Math.min(arrivalForecaster.forecastEngines(size, time), entry.getCount());
+			if (forecast <= minimum) return minimum;
+			
+			log.debug("Forecast raised warm pool minimum: size={}; minimum={}; forecast={}", 
+					size.getName(), minimum, forecast);
+			return forecast;
+		}
+		
+		private void launchWarmEngine(EngineSize size, DynamicEngine engine) {
+			final int pending = pendingLaunches.incrementAndGet();
+			log.info("Launching warm engine: pendingLaunches={}; engine={}", pending, engine);
+			
+			final Stopwatch timer = Stopwatch.createStarted();
+			provisionEngine(engine, size).whenCompleteAsync((result, t) -> {
+				pendingLaunches.decrementAndGet();
+				log.info("Warm engine launch complete: success={}; elapsedTime={}s; engine={}", 
+						t == null, timer.elapsed(TimeUnit.SECONDS), engine);
+				if (t == null) {
+					stateExecutor.execute(() -> onWarmEngineReady(size, engine));
+					return;
+				}
+				
+				final Throwable cause = unwrap(t);
+				log.error("Error occurred launching warm engine; cause={}; message={}; engine={}", 
+						cause, cause.getMessage(), engine, cause);
+				try {
+					engineProvisioner.stop(engine, true);
+				} catch (Throwable e) {
+					log.warn("Failed to stop engine after launch error; cause={}; message={}; engine={}", 
+							e, e.getMessage(), engine);
+				}
+				// retried on the next run
+				stateExecutor.execute(() -> pool.deallocateEngine(engine));
+			}, engineLaunchExecutor);
+		}
+		
+		private void onWarmEngineReady(EngineSize size, DynamicEngine engine) {
+			pool.idleEngine(engine);
+			log.info("Warm engine idle: engine={}", engine);
+			
+			// see if we have any scans blocked that can now run
+			redriveBlockedScan(size, State.IDLE);
+		}
+		
+	}
+
+	private static class ActiveScan {
+		
+		private final ScanRequest scan;
+		private final DynamicEngine engine;
+		private final long engineId;
+		private final long startMillis;
+		
+		ActiveScan(ScanRequest scan, DynamicEngine engine, long engineId, long startMillis) {
+			this.scan = scan;
+			this.engine = engine;
+			this.engineId = engineId;
+			this.startMillis = startMillis;
+		}
+		
+	}
+	
+	private static class EngineReservation {
+		
+		private final long engineId;
+		private final ScanRequest scan;
+		private final long deadlineMillis;
+		
+		EngineReservation(long engineId, ScanRequest scan, long deadlineMillis) {
+			this.engineId = engineId;
+			this.scan = scan;
+			this.deadlineMillis = deadlineMillis;
 		}
 		
 	}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EngineMatchRules;
+import com.checkmarx.engine.domain.EnginePool;
+import com.google.common.base.MoreObjects;
+
+/**
+ * Loads the engine rules file into the {@link EnginePool}, and reloads it when the file changes.  
+ * Rules are compiled once per load; invalid rules are logged, and the last valid rules are kept.
+ * Run every {@link CxConfig#getEngineRulesReloadSecs()}.
+ */
+public class EngineRulesLoader implements Runnable {
+	
+	private static final Logger log = LoggerFactory.getLogger(EngineRulesLoader.class);
+	
+	private final EnginePool pool;
+	private final File rulesFile;
+	
+	private long lastModified = -1;
+	private long lastLength = -1;
+	private int loadCount = 0;
+	private volatile String lastError;
+	
+	public EngineRulesLoader(CxConfig config, EnginePool pool) {
+		this.pool = pool;
+		this.rulesFile = new File(config.getEngineRulesFile());
+		log.info("ctor(): {}", this);
+	}
+	
+	@Override
+	public synchronized void run() {
+		log.trace("run()");
+		
+		try {
+			if (!rulesFile.isFile()) {
+				if (lastModified != 0) log.warn("Engine rules file not found, keeping current rules; file={}", rulesFile);
+				lastModified = 0;
+				return;
+			}
+			
+			final long modified = rulesFile.lastModified();
+			final long length = rulesFile.length();
+			if (modified == lastModified && length == lastLength) return;
+			lastModified = modified;
+			lastLength = length;
+			
+			load();
+		} catch (Throwable t) {
+			log.warn("Error checking engine rules; file={}; cause={}", rulesFile, t.getMessage(), t);
+		}
+	}
+	
+	private void load() throws IOException {
+		final String text = new String(Files.readAllBytes(rulesFile.toPath()), StandardCharsets.UTF_8);
+		try {
+			final EngineMatchRules rules = EngineMatchRules.compile(text, pool::getEngineSize);
+			pool.setMatchRules(rules);
+			loadCount++;
+			lastError = null;
+			log.info("Engine rules loaded; file={}; rules={}", rulesFile, rules.getRuleCount());
+			log.debug("...rules: {}", rules);
+		} catch (IllegalArgumentException e) {
+			lastError = e.getMessage();
+			log.warn("Invalid engine rules, keeping current rules; file={}; cause={}", rulesFile, e.getMessage());
+		}
+	}
+	
+	public synchronized int getLoadCount() {
+		return loadCount;
+	}
+	
+	/**
+	 * @return error of the last rules file change, null if it loaded
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+	
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("rulesFile", rulesFile)
+				.add("loadCount", loadCount)
+				.toString();
+	}
+
+}
@@ -13,10 +13,14 @@
  ******************************************************************************/
 package com.checkmarx.engine.servers;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PreDestroy;
@@ -25,6 +29,8 @@ import javax.annotation.PreDestroy;
 //import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Component;
 
 import com.checkmarx.engine.CxConfig;
@@ -32,11 +38,15 @@ import com.checkmarx.engine.domain.DynamicEngine;
 import com.checkmarx.engine.domain.EnginePool;
 import com.checkmarx.engine.rest.CxEngineApi;
 import com.checkmarx.engine.rest.model.EngineServer;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.servers.AllocationJournal.Assignment;
 import com.checkmarx.engine.utils.ExecutorServiceUtils;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.springframework.web.client.HttpClientErrorException;
 
 @Component
+@ManagedResource(description="Dynamic Engine service")
 public class EngineService implements Runnable {
 
 	private static final Logger log = LoggerFactory.getLogger(EngineService.class);
@@ -47,21 +57,36 @@ public class EngineService implements Runnable {
 	private final CxEngines engineProvisioner;
 	private final ScanQueueMonitor scanQueueMonitor;
 	private final EngineManager engineManager;
+	private final EngineBlocker engineBlocker;
+	
+	/**
+	 * re-adopts engines registered before a restart, null if the journal is disabled
+	 */
+	private final AllocationJournal journal;
 
 	private final ExecutorService engineManagerExecutor;
 	private final ScheduledExecutorService scanQueueExecutor;
 	private final List<Future<?>> tasks = Lists.newArrayList();
+	private final AdaptivePollingInterval adaptiveInterval;
+	private volatile ScheduledFuture<?> scanQueuePoll;
 
 	public EngineService(CxEngineApi cxClient, CxEngines engineProvisioner, CxConfig config,
-			ScanQueueMonitor scanQueueMonitor, EngineManager engineManager, EnginePool enginePool) {
+			ScanQueueMonitor scanQueueMonitor, EngineManager engineManager, EngineBlocker engineBlocker, 
+			EnginePool enginePool, AllocationJournal allocationJournal) {
 		this.cxClient = cxClient;
 		this.config = config;
 		this.engineProvisioner = engineProvisioner;
 		this.scanQueueMonitor = scanQueueMonitor;
 		this.engineManager = engineManager;
+		this.engineBlocker = engineBlocker;
 		this.enginePool = enginePool;
+		this.journal = config.isAllocationJournal() ? allocationJournal : null;
 		this.engineManagerExecutor = ExecutorServiceUtils.buildSingleThreadExecutorService("eng-service-%d", true);
 		this.scanQueueExecutor = ExecutorServiceUtils.buildScheduledExecutorService("queue-mon-%d", true);
+		this.adaptiveInterval = config.isQueueAdaptivePolling() 
+				? new AdaptivePollingInterval(config.getQueueIntervalSecs(), 
+						config.getQueueIntervalMinSecs(), config.getQueueIntervalMaxSecs()) 
+				: null;
 		
 		log.info("ctor(): {}; {}; {}", this.enginePool, this.cxClient, this.config);
 	}
@@ -78,8 +103,16 @@ public class EngineService implements Runnable {
 			log.info("Launching EngineManager...");
 			tasks.add(engineManagerExecutor.submit(engineManager));
 			
-			log.info("Launching ScanQueueMonitor; pollingInterval={}s", pollingInterval);
-			tasks.add(scanQueueExecutor.scheduleAtFixedRate(scanQueueMonitor, 0L, pollingInterval, TimeUnit.SECONDS));
+			log.info("Launching EngineBlocker...");
+			engineBlocker.run();
+			
+			if (adaptiveInterval == null) {
+				log.info("Launching ScanQueueMonitor; pollingInterval={}s", pollingInterval);
+				tasks.add(scanQueueExecutor.scheduleAtFixedRate(scanQueueMonitor, 0L, pollingInterval, TimeUnit.SECONDS));
+			} else {
+				log.info("Launching ScanQueueMonitor; pollingInterval={}", adaptiveInterval);
+				scheduleScanQueuePoll(0L);
+			}
 
 		} catch (Throwable t) {
 			log.error("Error occurred while launching Engine services, shutting down; cause={}; message={}", 
@@ -88,6 +121,38 @@ public class EngineService implements Runnable {
 		}
 	}
 
+	/**
+	 * Polls the scan queue, then schedules the next poll using the adaptive polling interval
+	 */
+	private void pollScanQueue() {
+		try {
+			scanQueueMonitor.run();
+		} finally {
+			final long delay = adaptiveInterval.next(scanQueueMonitor.isBusy());
+			log.trace("Next scan queue poll; delay={}ms", delay);
+			scheduleScanQueuePoll(delay);
+		}
+	}
+	
+	private void scheduleScanQueuePoll(long delayMillis) {
+		if (scanQueueExecutor.isShutdown()) return;
+		try {
+			scanQueuePoll = scanQueueExecutor.schedule(this::pollScanQueue, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			log.debug("Scan queue poll not scheduled, executor is shutting down");
+		}
+	}
+	
+	/**
+	 * @return the current scan queue polling interval in milliseconds
+	 */
+	@ManagedAttribute(description="Current scan queue polling interval (ms)")
+	public long getScanQueuePollingIntervalMillis() {
+		return adaptiveInterval == null 
+				? TimeUnit.SECONDS.toMillis(config.getQueueIntervalSecs()) 
+				: adaptiveInterval.getCurrentMillis();
+	}
+
 	private void initialize() {
 		log.trace("initialize()");
 		
@@ -97,6 +162,7 @@ public class EngineService implements Runnable {
 		}
 
 		updateHostedEngines();
+		openJournal();
 		checkCxEngines();
 		registerQueuingEngine();
 	}
@@ -110,24 +176,41 @@ public class EngineService implements Runnable {
 		log.info("Queueing engine registered: {}", engine);
 	}
 	
+	private void openJournal() {
+		if (journal == null) return;
+		
+		try {
+			journal.open();
+		} catch (IOException e) {
+			log.error("Unable to open allocation journal, engines will not be re-adopted; cause={}; message={}", 
+					e, e.getMessage(), e);
+		}
+	}
+	
 	/**
-	 * Checks registered engines, removes idle dynamic engines
+	 * Checks registered engines, re-adopts dynamic engines still running journaled scans, 
+	 * and removes other dynamic engines
 	 */
 	private void checkCxEngines() {
 		log.debug("checkCxEngines()");
 		try {
+			final Map<Long, List<Assignment>> assignments = findAssignments();
+			final Map<Long, ScanRequest> queue = findQueuedScans(assignments);
 			final List<EngineServer> engines = cxClient.getEngines();
 			engines.forEach((engine) -> {
 				boolean isDynamic = isDynamicEngine(engine);
 				log.info("CxEngine found; engine={}; isAlive={}; isBlocked={}; isDynamic={}",
 						engine.getName(), engine.isAlive(), engine.isBlocked(), isDynamic);
 				if (isDynamic) {
-					//FIXME: once the engine API supports engine state, add active engines to registered engine list
-					// for now, unregister any dynamic engines found
+					if (adoptEngine(engine, assignments.remove(engine.getId()), queue)) return;
+					
 					log.warn("Dynamic engine found, unregistering; engine={}; {}", engine.getName(), engine);
 					cxClient.unregisterEngine(engine.getId());
 				}
 			});
+			// engines no longer registered
+			assignments.keySet().forEach((engineId) -> journal.unregister(engineId));
+			if (journal != null) journal.compact();
 		} catch (HttpClientErrorException e){
 			log.error("Error while checking CxEngines; cause={}; message={}", e, e.getMessage(), e);
 			//(HttpStatusCodeException) e).getResponseBodyAsString()) -> messageDetails contains "busy (scanning)"  TODO rogue engine monitor??
@@ -137,6 +220,74 @@ public class EngineService implements Runnable {
 		}
 	}
 
+	/**
+	 * @return journaled scan assignments by engine; key=cxEngineId
+	 */
+	private Map<Long, List<Assignment>> findAssignments() {
+		final Map<Long, List<Assignment>> assignments = Maps.newHashMap();
+		if (journal == null) return assignments;
+		
+		journal.getAssignments().forEach((assignment) -> 
+				assignments.computeIfAbsent(assignment.getCxEngineId(), (id) -> Lists.newArrayList()).add(assignment));
+		return assignments;
+	}
+	
+	/**
+	 * @return the scan queue, if there are journaled scan assignments to re-adopt; key=Scan.Id
+	 */
+	private Map<Long, ScanRequest> findQueuedScans(Map<Long, List<Assignment>> assignments) {
+		final Map<Long, ScanRequest> queue = Maps.newHashMap();
+		if (assignments.isEmpty()) return queue;
+		
+		cxClient.getScansQueue().forEach((scan) -> queue.put(scan.getId(), scan));
+		return queue;
+	}
+	
+	/**
+	 * Re-adopts a dynamic engine registered before a restart, if it is still provisioned 
+	 * and its journaled scans are still queued or scanning.
+	 * 
+	 * @return true if the engine was adopted, false if it should be unregistered
+	 */
+	private boolean adoptEngine(EngineServer cxEngine, List<Assignment> assignments, Map<Long, ScanRequest> queue) {
+		if (assignments == null) return false;
+		
+		final List<ScanRequest> scans = Lists.newArrayList();
+		assignments.forEach((assignment) -> {
+			final ScanRequest scan = queue.get(assignment.getScanId());
+			if (scan != null && isRunning(scan)) {
+				scans.add(scan);
+			} else {
+				journal.release(assignment.getScanId());
+			}
+		});
+		
+		// the engine id may have been reused for another engine
+		final String name = assignments.get(0).getEngineName();
+		final boolean sameEngine = cxEngine.getName().equals(config.getCxEnginePrefix() + name);
+		final DynamicEngine engine = enginePool.getEngineByName(name);
+		if (scans.isEmpty() || !sameEngine || engine == null 
+				|| !engineManager.adoptEngine(cxEngine, engine, scans)) {
+			journal.unregister(cxEngine.getId());
+			return false;
+		}
+		
+		scans.forEach((scan) -> scanQueueMonitor.adoptScan(scan));
+		log.info("Dynamic engine re-adopted; engine={}; journaledState={}; scans={}", 
+				cxEngine.getName(), journal.getEngineState(name), scans.size());
+		return true;
+	}
+	
+	private boolean isRunning(ScanRequest scan) {
+		switch (scan.getStatus()) {
+			case Queued :
+			case Scanning :
+				return true;
+			default :
+				return false;
+		}
+	}
+	
 	private boolean isDynamicEngine(EngineServer engine) {
 		return engine.getName().startsWith(config.getCxEnginePrefix());
 	}
@@ -151,12 +302,15 @@ public class EngineService implements Runnable {
 		log.info("shutdown()");
 
 		engineManager.stop();
+		engineBlocker.stop();
 		
 		tasks.forEach((task) -> {
 			task.cancel(true);
 		});
-		engineManagerExecutor.shutdown();
 		scanQueueExecutor.shutdown();
+		final ScheduledFuture<?> poll = scanQueuePoll;
+		if (poll != null) poll.cancel(true);
+		engineManagerExecutor.shutdown();
 		try {
 			if (!engineManagerExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
 				engineManagerExecutor.shutdownNow();
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequest.ScanStatus;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+/**
+ * Learns scan duration from finished scans, as an exponentially weighted moving average
+ * of the scan rate (milliseconds per line of code).
+ * <br/> <br/>
+ * Rates are tracked at three levels, and a prediction uses the most specific level with samples:
+ * <ol>
+ * <li>project, engine size and incremental/full mode</li>
+ * <li>engine size, incremental/full mode and number of languages</li>
+ * <li>engine size and incremental/full mode</li>
+ * </ol>
+ * Scans with no learned rate are predicted by the fallback estimator.  
+ * The model is saved to {@link CxConfig#getScanEstimateFile()} on {@link #flush()} if updated, 
+ * and loaded on startup.
+ */
+@ManagedResource(description="Scan duration estimator")
+public class EwmaScanDurationEstimator implements ScanDurationEstimator {
+	
+	private static final Logger log = LoggerFactory.getLogger(EwmaScanDurationEstimator.class);
+	
+	private static final TypeReference<Map<String, ScanRate>> MODEL_TYPE = new TypeReference<Map<String, ScanRate>>() {};
+	
+	private final EnginePool pool;
+	private final ScanDurationEstimator fallback;
+	private final ObjectMapper objectMapper;
+	private final double alpha;
+	private final File modelFile;
+	
+	/**
+	 * learned scan rates; key=model key, see {@link #buildKeys(ScanRequest)}
+	 */
+	private final Map<String, ScanRate> rates = Maps.newConcurrentMap();
+	
+	/**
+	 * true if rates changed since the model was saved
+	 */
+	private final AtomicBoolean dirty = new AtomicBoolean();
+	
+	public EwmaScanDurationEstimator(CxConfig config, EnginePool pool, 
+			ScanDurationEstimator fallback, ObjectMapper objectMapper) {
+		this.pool = pool;
+		this.fallback = fallback;
+		this.objectMapper = objectMapper;
+		this.alpha = config.getScanEstimateAlpha();
+		final String fileName = config.getScanEstimateFile();
+		this.modelFile = Strings.isNullOrEmpty(fileName) ? null : new File(fileName);
+		
+		if (alpha <= 0 || alpha > 1) {
+			throw new IllegalArgumentException("Invalid scan estimate alpha: " + alpha);
+		}
+		load();
+		log.info("ctor(): {}", this);
+	}
+
+	@Override
+	public long predict(ScanRequest scan) {
+		final long loc = Math.max(1, scan.getLoc());
+		for (String key : buildKeys(scan)) {
+			final ScanRate rate = rates.get(key);
+			if (rate != null && rate.getSamples() > 0) {
+				return (long)(rate.getMillisPerLoc() * loc);
+			}
+		}
+		return fallback.predict(scan);
+	}
+
+	@Override
+	public void onScanFinished(ScanRequest scan, long durationMillis) {
+		log.trace("onScanFinished(): durationMillis={}; {}", durationMillis, scan);
+		
+		// only successful scans are representative
+		if (scan.getStatus() != ScanStatus.Finished || durationMillis <= 0) return;
+		
+		final double millisPerLoc = (double)durationMillis / Math.max(1, scan.getLoc());
+		for (String key : buildKeys(scan)) {
+			rates.compute(key, (k, rate) -> rate == null 
+					? new ScanRate(millisPerLoc, 1) 
+					: rate.update(millisPerLoc, alpha));
+		}
+		log.debug("Scan duration learned; durationMillis={}; predictedMillis={}; scanId={}", 
+				durationMillis, predict(scan), scan.getId());
+		dirty.set(true);
+	}
+	
+	@Override
+	public void flush() {
+		if (dirty.compareAndSet(true, false)) save();
+	}
+	
+	String[] buildKeys(ScanRequest scan) {
+		final EngineSize engineSize = pool.calcEngineSize(scan);
+		final String size = engineSize == null ? "?" : engineSize.getName();
+		final String mode = scan.isIncremental() ? "inc" : "full";
+		final long projectId = scan.getProject() == null ? -1 : scan.getProject().getId();
+		return new String[] {
+				String.format("project:%d:%s:%s", projectId, size, mode),
+				String.format("size:%s:%s:lang%d", size, mode, scan.getLanguages().size()),
+				String.format("size:%s:%s", size, mode)
+		};
+	}
+	
+	@ManagedAttribute(description="Number of learned scan rates")
+	public int getRateCount() {
+		return rates.size();
+	}
+	
+	ScanRate getRate(String key) {
+		return rates.get(key);
+	}
+	
+	private void load() {
+		if (modelFile == null || !modelFile.exists()) return;
+		
+		try {
+			final Map<String, ScanRate> saved = objectMapper.readValue(modelFile, MODEL_TYPE);
+			rates.putAll(saved);
+			log.info("Scan duration model loaded; file={}; rates={}", modelFile, rates.size());
+		} catch (IOException e) {
+			log.warn("Unable to load scan duration model, starting empty; file={}; cause={}; message={}", 
+					modelFile, e, e.getMessage());
+		}
+	}
+	
+	private synchronized void save() {
+		if (modelFile == null) return;
+		
+		try {
+			final Path target = modelFile.toPath().toAbsolutePath();
+			final Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+			objectMapper.writeValue(temp.toFile(), rates);
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Unable to save scan duration model; file={}; cause={}; message={}", 
+					modelFile, e, e.getMessage());
+			// retried on the next flush
+			dirty.set(true);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("alpha", alpha)
+				.add("modelFile", modelFile)
+				.add("rates", rates.size())
+				.add("fallback", fallback)
+				.toString();
+	}
+	
+	/**
+	 * EWMA of scan rate.  Immutable, except for JSON binding.
+	 */
+	public static class ScanRate {
+		
+		private double millisPerLoc;
+		private long samples;
+		
+		public ScanRate() {
+			// for JSON binding
+		}
+		
+		public ScanRate(double millisPerLoc, long samples) {
+			this.millisPerLoc = millisPerLoc;
+			this.samples = samples;
+		}
+		
+		ScanRate update(double sample, double alpha) {
+			return new ScanRate(alpha * sample + (1 - alpha) * millisPerLoc, samples + 1);
+		}
+
+		public double getMillisPerLoc() {
+			return millisPerLoc;
+		}
+
+		public void setMillisPerLoc(double millisPerLoc) {
+			this.millisPerLoc = millisPerLoc;
+		}
+
+		public long getSamples() {
+			return samples;
+		}
+
+		public void setSamples(long samples) {
+			this.samples = samples;
+		}
+		
+		@Override
+		public String toString() {
+			return MoreObjects.toStringHelper(this)
+					.add("millisPerLoc", millisPerLoc)
+					.add("samples", samples)
+					.toString();
+		}
+		
+	}
+
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.util.concurrent.TimeUnit;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.google.common.base.MoreObjects;
+
+/**
+ * Estimates scan duration as a fixed overhead plus the scan lines of code 
+ * divided by a fixed scan rate.
+ * 
+ * @see CxConfig#getScanOverheadSecs()
+ * @see CxConfig#getScanLocPerSec()
+ */
+public class LocRateScanDurationEstimator implements ScanDurationEstimator {
+	
+	private final long overheadMillis;
+	private final int locPerSec;
+	
+	public LocRateScanDurationEstimator(CxConfig config) {
+		this(config.getScanOverheadSecs(), config.getScanLocPerSec());
+	}
+
+	public LocRateScanDurationEstimator(int overheadSecs, int locPerSec) {
+		if (locPerSec <= 0) {
+			throw new IllegalArgumentException("Invalid scan rate; locPerSec=" + locPerSec);
+		}
+		this.overheadMillis = TimeUnit.SECONDS.toMillis(overheadSecs);
+		this.locPerSec = locPerSec;
+	}
+
+	@Override
+	public long predict(ScanRequest scan) {
+		final Integer loc = scan.getLoc();
+		final long locMillis = loc == null ? 0 : loc * 1000L / locPerSec;
+		return overheadMillis + locMillis;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("overheadMillis", overheadMillis)
+				.add("locPerSec", locPerSec)
+				.toString();
+	}
+
+}
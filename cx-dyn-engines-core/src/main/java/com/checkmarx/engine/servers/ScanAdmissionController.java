@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.utils.LongHashMap;
+import com.google.common.base.Joiner;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Maps;
+
+/**
+ * Decides which queued scans may start, by counting scan slots against 
+ * the global concurrent scan limit, the scan limit of the scan's engine size, 
+ * and the scan limit of the scan's team.
+ * <p>
+ * If borrowing is enabled, a scan whose engine size is at its limit may take a free
+ * slot from another engine size.  The slot is returned to the lending size 
+ * when the scan finishes.  Team limits are never borrowed.
+ */
+@ManagedResource(description="Scan admission controller")
+public class ScanAdmissionController {
+	
+	private static final Logger log = LoggerFactory.getLogger(ScanAdmissionController.class);
+
+	private final int globalLimit;
+	private final boolean borrowing;
+	private int activeCount = 0;
+	private long deferredCount = 0;
+	
+	/**
+	 * scan slots by engine size; key=size name
+	 */
+	private final Map<String, Bucket> sizeBuckets = Maps.newLinkedHashMap();
+	
+	/**
+	 * scan slots by team, only for teams with a limit; key=teamId
+	 */
+	private final Map<String, Bucket> teamBuckets = Maps.newLinkedHashMap();
+	
+	/**
+	 * slots held by admitted scans; key=Scan.Id
+	 */
+	private final LongHashMap<Admission> admissions;
+
+	public ScanAdmissionController(CxConfig config, Collection<EnginePoolEntry> poolEntries) {
+		this.globalLimit = config.getConcurrentScanLimit();
+		this.borrowing = config.isScanLimitBorrowing();
+		this.admissions = new LongHashMap<>(globalLimit);
+		
+		poolEntries.forEach((entry) -> {
+			final String size = entry.getScanSize().getName();
+			sizeBuckets.put(size, new Bucket(size, entry.getScanLimit()));
+		});
+		config.getTeamScanLimits().forEach((teamId, limit) -> {
+			teamBuckets.put(teamId, new Bucket(teamId, limit));
+		});
+		
+		log.info("ctor(): {}", this);
+	}
+	
+	/**
+	 * Admits the scan if a slot is free in each of its buckets.
+	 * 
+	 * @param size the scan's engine size, may be null 
+	 * @return true if admitted, or already admitted; false if the scan must wait
+	 */
+	public synchronized boolean tryAdmit(ScanRequest scan, EngineSize size) {
+		final long scanId = scan.getId();
+		if (admissions.containsKey(scanId)) return true;
+		
+		if (activeCount >= globalLimit) {
+			return defer(scan, "concurrentScanLimit", activeCount, globalLimit);
+		}
+		
+		final Bucket team = scan.getTeamId() == null ? null : teamBuckets.get(scan.getTeamId());
+		if (team != null && !team.hasCapacity()) {
+			return defer(scan, "team=" + team.name, team.used, team.limit);
+		}
+		
+		Bucket sizeBucket = size == null ? null : sizeBuckets.get(size.getName());
+		if (sizeBucket != null && !sizeBucket.hasCapacity()) {
+			final Bucket lender = borrowing ? findLender() : null;
+			if (lender == null) {
+				return defer(scan, "size=" + sizeBucket.name, sizeBucket.used, sizeBucket.limit);
+			}
+			log.debug("Borrowing scan slot; scanId={}; size={}; lender={}", scanId, sizeBucket.name, lender.name);
+			sizeBucket = lender;
+		}
+		
+		admit(scanId, sizeBucket, team);
+		return true;
+	}
+	
+	/**
+	 * Admits the scan even if one of its buckets is full, for scans already running in CxManager.  
+	 * Slots over a limit stay counted, so new scans wait until occupancy is back under the limit.
+	 * 
+	 * @param size the scan's engine size, may be null 
+	 * @return false if admitting the scan exceeded a limit
+	 */
+	public synchronized boolean forceAdmit(ScanRequest scan, EngineSize size) {
+		final long scanId = scan.getId();
+		if (admissions.containsKey(scanId)) return true;
+		
+		final Bucket team = scan.getTeamId() == null ? null : teamBuckets.get(scan.getTeamId());
+		final Bucket sizeBucket = size == null ? null : sizeBuckets.get(size.getName());
+		final boolean withinLimits = activeCount < globalLimit
+				&& (team == null || team.hasCapacity())
+				&& (sizeBucket == null || sizeBucket.hasCapacity());
+		admit(scanId, sizeBucket, team);
+		return withinLimits;
+	}
+	
+	private void admit(long scanId, Bucket sizeBucket, Bucket team) {
+		if (sizeBucket != null) sizeBucket.used++;
+		if (team != null) team.used++;
+		activeCount++;
+		admissions.put(scanId, new Admission(sizeBucket, team));
+	}
+	
+	/**
+	 * Releases the slots held by the scan.
+	 * 
+	 * @return false if the scan was not admitted
+	 */
+	public synchronized boolean release(long scanId) {
+		final Admission admission = admissions.remove(scanId);
+		if (admission == null) return false;
+		
+		if (admission.size != null) admission.size.used--;
+		if (admission.team != null) admission.team.used--;
+		activeCount--;
+		return true;
+	}
+	
+	/**
+	 * @return the limited size bucket with the most free slots, or null if none are free
+	 */
+	private Bucket findLender() {
+		Bucket lender = null;
+		for (Bucket bucket : sizeBuckets.values()) {
+			if (bucket.limit <= 0 || !bucket.hasCapacity()) continue;
+			if (lender == null || bucket.free() > lender.free()) lender = bucket;
+		}
+		return lender;
+	}
+	
+	private boolean defer(ScanRequest scan, String bucket, int used, int limit) {
+		deferredCount++;
+		log.debug("At scan limit, deferring scan; scanId={}; limit={}; used={}; max={}", 
+				scan.getId(), bucket, used, limit);
+		return false;
+	}
+
+	@ManagedAttribute(description="Active (admitted) scans")
+	public synchronized int getActiveCount() {
+		return activeCount;
+	}
+
+	@ManagedAttribute(description="Global concurrent scan limit")
+	public int getGlobalLimit() {
+		return globalLimit;
+	}
+
+	@ManagedAttribute(description="Scan admissions deferred due to a scan limit")
+	public synchronized long getDeferredCount() {
+		return deferredCount;
+	}
+
+	/**
+	 * @return used/limit by bucket, e.g. {@code total=3/10; S=2/4; M=1/-; team[abc]=1/2}
+	 */
+	@ManagedAttribute(description="Scan slot occupancy by engine size and team")
+	public synchronized String getOccupancy() {
+		final StringBuilder sb = new StringBuilder()
+				.append("total=").append(activeCount).append('/').append(globalLimit);
+		sizeBuckets.values().forEach((bucket) -> sb.append("; ").append(bucket.name).append('=').append(bucket));
+		teamBuckets.values().forEach((bucket) -> sb.append("; team[").append(bucket.name).append("]=").append(bucket));
+		return sb.toString();
+	}
+	
+	/**
+	 * @return used slots by engine size; key=size name
+	 */
+	public synchronized Map<String, Integer> getSizeOccupancy() {
+		final Map<String, Integer> occupancy = Maps.newLinkedHashMap();
+		sizeBuckets.forEach((size, bucket) -> occupancy.put(size, bucket.used));
+		return occupancy;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("globalLimit", globalLimit)
+				.add("borrowing", borrowing)
+				.add("sizeLimits", Joiner.on(',').withKeyValueSeparator("=").join(sizeBuckets))
+				.add("teamLimits", Joiner.on(',').withKeyValueSeparator("=").join(teamBuckets))
+				.toString();
+	}
+
+	/**
+	 * Scan slots of an engine size or team; limit of 0 or less is unlimited
+	 */
+	private static class Bucket {
+		
+		private final String name;
+		private final int limit;
+		private int used;
+		
+		Bucket(String name, int limit) {
+			this.name = name;
+			this.limit = limit;
+		}
+		
+		boolean hasCapacity() {
+			return limit <= 0 || used < limit;
+		}
+		
+		int free() {
+			return limit - used;
+		}
+		
+		@Override
+		public String toString() {
+			return used + "/" + (limit <= 0 ? "-" : String.valueOf(limit));
+		}
+	}
+	
+	private static class Admission {
+		
+		private final Bucket size;
+		private final Bucket team;
+		
+		Admission(Bucket size, Bucket team) {
+			this.size = size;
+			this.team = team;
+		}
+	}
+
+}
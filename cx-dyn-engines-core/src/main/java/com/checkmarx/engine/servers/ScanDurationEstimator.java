@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import com.checkmarx.engine.rest.model.ScanRequest;
+
+/**
+ * Predicts how long a scan will run on an engine.
+ */
+public interface ScanDurationEstimator {
+	
+	/**
+	 * Predicts how long the scan will run once it starts on an engine.
+	 * 
+	 * @param scan to estimate
+	 * @return the estimated scan duration, in milliseconds
+	 */
+	long predict(ScanRequest scan);
+	
+	/**
+	 * Called when a scan finishes, so implementations may learn from the actual duration.
+	 * Default implementation does nothing.
+	 * 
+	 * @param scan the finished scan
+	 * @param durationMillis actual time the scan ran on its engine, in milliseconds
+	 */
+	default void onScanFinished(ScanRequest scan, long durationMillis) {
+		// no-op
+	}
+	
+	/**
+	 * Saves what was learned since the last flush.  Called periodically, off the scan finishing path.
+	 * Default implementation does nothing.
+	 */
+	default void flush() {
+		// no-op
+	}
+
+}
@@ -13,10 +13,9 @@
  ******************************************************************************/
 package com.checkmarx.engine.servers;
 
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import com.checkmarx.engine.domain.EnginePool;
 import org.slf4j.Logger;
@@ -25,12 +24,22 @@ import org.slf4j.LoggerFactory;
 import com.checkmarx.engine.CxConfig;
 import com.checkmarx.engine.rest.CxEngineApi;
 import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequestSummary;
+import com.checkmarx.engine.utils.LongHashMap;
+import com.checkmarx.engine.utils.LongHashSet;
+import com.checkmarx.engine.utils.LongLongHashMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 
 public class ScanQueueMonitor implements Runnable {
 	
 	private static final Logger log = LoggerFactory.getLogger(ScanQueueMonitor.class);
+	
+	/**
+	 * Admission order for queued scans, oldest first then smallest first
+	 */
+	private static final Comparator<ScanRequest> QUEUED_SCAN_ORDER = 
+			Comparator.comparing(ScanRequest::getQueuedOn, Comparator.nullsLast(Comparator.naturalOrder()))
+				.thenComparing(ScanRequest::getLoc);
 
 	private final BlockingQueue<ScanRequest> scanQueued;
 	//private final BlockingQueue<ScanRequest> scanWorking;
@@ -38,15 +47,50 @@ public class ScanQueueMonitor implements Runnable {
 	private final EnginePool enginePool;
 
 
+	/*
+	 * Scan tracking structures are only accessed by the monitor thread
+	 */
+	
 	/**
 	 * Map of active scan requests by Scan.Id
 	 */
-	private final Map<Long,ScanRequest> activeScanMap = Maps.newHashMap();
-	private final List<Long> workingScans = Lists.newArrayList();
+	private final LongHashMap<ScanRequest> activeScanMap;
+	private final LongHashSet workingScans;
+	
+	/**
+	 * Poll count when each active scan was last seen in the scan queue; key=Scan.Id
+	 */
+	private final LongLongHashMap activeScanLastSeen;
+	private final LongHashSet missingScans = new LongHashSet();
+	private final int missingScanPolls;
 	private final CxEngineApi cxClient;
+	private final EngineBlocker engineBlocker;
 	//private final CxConfig config;
 	private final int concurrentScanLimit;
-	private final AtomicInteger concurrentScans = new AtomicInteger(0);
+	private final ScanAdmissionController admissionController;
+	
+	/**
+	 * learns scan arrivals, null to not record arrivals
+	 */
+	private final ArrivalForecaster arrivalForecaster;
+	
+	/**
+	 * true once the scanQueued queue rejects a scan in the current poll; 
+	 * no more scans are admitted until the next poll 
+	 */
+	private boolean queueSaturated = false;
+	
+	/**
+	 * Fingerprints of scans seen in previous polls, used for delta polling; key=Scan.Id
+	 */
+	private final LongHashMap<ScanFingerprint> scanFingerprints;
+	private final boolean deltaPolling;
+	private long pollCount = 0;
+	
+	/**
+	 * true if the last poll found scans waiting to start, see {@link #isBusy()}
+	 */
+	private volatile boolean busy = false;
 	
 	public ScanQueueMonitor(
 			BlockingQueue<ScanRequest> scanQueued, 
@@ -54,6 +98,9 @@ public class ScanQueueMonitor implements Runnable {
 			BlockingQueue<ScanRequest> scanFinished,
 			EnginePool enginePool,
 			CxEngineApi cxClient,
+			EngineBlocker engineBlocker,
+			ScanAdmissionController admissionController,
+			ArrivalForecaster arrivalForecaster,
 			CxConfig config) {
 		log.info("ctor(): {}", config);
 		
@@ -62,8 +109,17 @@ public class ScanQueueMonitor implements Runnable {
 		this.scanFinished = scanFinished;
 		this.enginePool = enginePool;
 		this.cxClient = cxClient;
+		this.engineBlocker = engineBlocker;
+		this.admissionController = admissionController;
+		this.arrivalForecaster = arrivalForecaster;
 		//this.config = config;
 		this.concurrentScanLimit = config.getConcurrentScanLimit();
+		this.deltaPolling = config.isQueueDeltaPolling();
+		this.missingScanPolls = config.getQueueMissingScanPolls();
+		this.activeScanMap = new LongHashMap<>(concurrentScanLimit);
+		this.workingScans = new LongHashSet(concurrentScanLimit);
+		this.activeScanLastSeen = new LongLongHashMap(concurrentScanLimit, -1);
+		this.scanFingerprints = new LongHashMap<>(concurrentScanLimit);
 	}
 
 	@Override
@@ -71,13 +127,23 @@ public class ScanQueueMonitor implements Runnable {
 		log.trace("run()");
 		
 		try {
-			final List<ScanRequest> queue = cxClient.getScansQueue();
-			log.debug("action=getScansQueue; scanCount={}", queue.size());
-			// TODO: order list before processing, process finished scans first
-			queue.forEach((scan) -> processScan(scan));
-
-			//TODO: check for missing scans and treat as finished
+			final List<ScanRequestSummary> queue = cxClient.getScansQueueSummary();
+			pollCount++;
+			
+			final List<ScanRequest> scans = deltaPolling ? findChangedScans(queue) : bindScans(queue);
+			log.debug("action=getScansQueue; scanCount={}; changedCount={}", queue.size(), scans.size());
+			
+			queueSaturated = false;
+			markActiveScansSeen(queue);
+			if (missingScanPolls > 0) sweepMissingScans();
+			
+			processScans(scans);
+			
+			if (deltaPolling) removeMissingFingerprints();
+			
+			busy = hasPendingScans(queue);
 		} catch (Throwable t) {
+			busy = false;
 			log.error("Error occurred while polling scan queue, cause={}; message={}", 
 					t, t.getMessage(), t); 
 			//TODO: determine if unexpected error should terminate monitor; for now swallow
@@ -85,21 +151,186 @@ public class ScanQueueMonitor implements Runnable {
 		
 	}
 
-	private void processScan(ScanRequest scan) {
+	/**
+	 * Processes scans in phases, so capacity freed by completed scans can be
+	 * reused by queued scans in the same poll: completed scans first, then
+	 * scanning scans, then queued scans in admission order.
+	 */
+	private void processScans(List<ScanRequest> scans) {
+		final List<ScanRequest> completed = Lists.newArrayList();
+		final List<ScanRequest> scanning = Lists.newArrayList();
+		final List<ScanRequest> queued = Lists.newArrayList();
+		
+		scans.forEach((scan) -> {
+			switch (scan.getStatus()) {
+				case Canceled :
+				case Deleted :
+				case Failed :
+				case Finished :
+					completed.add(scan);
+					break;
+				case Scanning :
+					scanning.add(scan);
+					break;
+				case Queued :
+					queued.add(scan);
+					break;
+				default:
+					process(scan);
+					break;
+			}
+		});
+		
+		completed.forEach((scan) -> process(scan));
+		scanning.forEach((scan) -> process(scan));
+		queued.sort(QUEUED_SCAN_ORDER);
+		queued.forEach((scan) -> process(scan));
+	}
+	
+	private void process(ScanRequest scan) {
+		final boolean processed = processScan(scan);
+		if (deltaPolling) updateFingerprint(scan, processed);
+	}
+	
+	private void markActiveScansSeen(List<ScanRequestSummary> queue) {
+		queue.forEach((scan) -> {
+			final long scanId = scan.getId();
+			if (activeScanLastSeen.containsKey(scanId)) {
+				activeScanLastSeen.put(scanId, pollCount);
+			}
+		});
+	}
+	
+	/**
+	 * Treats active scans missing from the scan queue for {@code missingScanPolls}
+	 * consecutive polls as finished, releasing their engine and concurrent scan slot.
+	 */
+	private void sweepMissingScans() {
+		activeScanLastSeen.forEach((scanId, lastSeen) -> {
+			if (pollCount - lastSeen >= missingScanPolls) {
+				missingScans.add(scanId);
+			}
+		});
+		if (missingScans.isEmpty()) return;
+		
+		missingScans.forEach((scanId) -> onMissing(scanId));
+		missingScans.clear();
+	}
+	
+	/**
+	 * Tracks a scan whose engine was re-adopted on startup, so the scan's completion 
+	 * releases the engine.  Called before the monitor is run.
+	 */
+	public void adoptScan(ScanRequest scan) {
+		log.trace("adoptScan(): {}", scan);
+		
+		final long scanId = scan.getId();
+		// already running, so it holds its slots even over a limit
+		if (!admissionController.forceAdmit(scan, enginePool.calcEngineSize(scan))) {
+			log.warn("Adopted scan exceeds a scan limit; scanId={}; occupancy={}", 
+					scanId, admissionController.getOccupancy());
+		}
+		activeScanMap.put(scanId, scan);
+		activeScanLastSeen.put(scanId, pollCount);
+		// a scanning engine is already blocked
+		if (scan.getStatus() == ScanRequest.ScanStatus.Scanning) workingScans.add(scanId);
+		log.info("Scan adopted: {}; occupancy={}", scan, admissionController.getOccupancy());
+	}
+	
+	/**
+	 * Returns true if the last poll found scans waiting to start, either 
+	 * pending in CxManager, or queued for an engine that is still being allocated
+	 * or spinning up.  Used to adapt the polling interval.
+	 */
+	public boolean isBusy() {
+		return busy;
+	}
+	
+	private boolean hasPendingScans(List<ScanRequestSummary> queue) {
+		// queued scans that are not yet scanning are waiting on an engine
+		if (activeScanMap.size() > workingScans.size()) return true;
+		
+		for (ScanRequestSummary scan : queue) {
+			switch (scan.getStatus()) {
+				case New :
+				case PreScan :
+				case Queued :
+				case SourcePullingAndDeployment :
+					return true;
+				default:
+					break;
+			}
+		}
+		return false;
+	}
+
+	private List<ScanRequest> bindScans(List<ScanRequestSummary> queue) {
+		final List<ScanRequest> scans = Lists.newArrayListWithCapacity(queue.size());
+		queue.forEach((scan) -> scans.add(scan.getScan()));
+		return scans;
+	}
+
+	/**
+	 * Returns the scans that are new, or whose fingerprint changed since the previous poll.
+	 * Fingerprints of unchanged scans are marked as seen in the current poll.
+	 * Only changed scans are bound to a full {@link ScanRequest}.
+	 */
+	private List<ScanRequest> findChangedScans(List<ScanRequestSummary> queue) {
+		final List<ScanRequest> changed = Lists.newArrayList();
+		queue.forEach((scan) -> {
+			final ScanFingerprint fingerprint = scanFingerprints.get(scan.getId());
+			if (fingerprint != null && fingerprint.matches(scan)) {
+				fingerprint.lastSeenPoll = pollCount;
+			} else {
+				changed.add(scan.getScan());
+			}
+		});
+		return changed;
+	}
+	
+	/**
+	 * Records the fingerprint of a processed scan.  Scans that were not processed, 
+	 * e.g. deferred due to the concurrent scan limit, are forgotten so they are 
+	 * processed again on the next poll.
+	 */
+	private void updateFingerprint(ScanRequest scan, boolean processed) {
+		final long scanId = scan.getId();
+		if (!processed) {
+			scanFingerprints.remove(scanId);
+			return;
+		}
+		final ScanFingerprint fingerprint = scanFingerprints.get(scanId);
+		if (fingerprint == null) {
+			scanFingerprints.put(scanId, new ScanFingerprint(scan, pollCount));
+		} else {
+			fingerprint.update(scan, pollCount);
+		}
+	}
+	
+	/**
+	 * Removes fingerprints of scans no longer in the scan queue
+	 */
+	private void removeMissingFingerprints() {
+		scanFingerprints.removeIf((fingerprint) -> fingerprint.lastSeenPoll != pollCount);
+	}
+
+	/**
+	 * @return false if the scan was deferred and should be processed again on the next poll
+	 */
+	private boolean processScan(ScanRequest scan) {
 		log.debug("processScan(): {}", scan);
 		
 		final long scanId = scan.getId();
 		//if the scan loc is zero, it is not ready to determine if applicable to Dynamic Engines
 		//if the calcEngineSize ends up with null, their is no applicable engine, therefore Dynamic Engines ignores
 		//TODO replace this block when static engines are managed by Dynamic Engines
-		if(enginePool.calcEngineSize(scan.getLoc()) == null && scan.getLoc() > 0){
+		if(enginePool.calcEngineSize(scan) == null && scan.getLoc() > 0){
 			log.debug("Scan with id {} with loc {} is being ignored by DynamicEngines", scan.getId(), scan.getLoc());
-			return;
+			return true;
 		}
 		switch (scan.getStatus()) {
 			case Queued :
-				onQueued(scanId, scan);
-				break;
+				return onQueued(scanId, scan);
 			case Scanning :
 				onScanning(scanId, scan);
 				break;
@@ -107,34 +338,45 @@ public class ScanQueueMonitor implements Runnable {
 			case Deleted :
 			case Failed :
 			case Finished :
-				onCompleted(scanId, scan);
-				break;
+				return onCompleted(scanId, scan);
 			default:
 				onOther(scan);
 				break;
 		}
+		return true;
 	}
 
-	private void onQueued(final long scanId, ScanRequest scan) {
+	private boolean onQueued(final long scanId, ScanRequest scan) {
 		log.trace("onQueued(): {}", scan);
 
 		// skip if we've already processed scan
 		if (activeScanMap.containsKey(scanId)) {
-			return;
+			return true;
 		}
 			
-		// skip if at concurrent scan limit
-		if (concurrentScans.get() >= concurrentScanLimit) {
-			log.debug("At concurrent scan limit, defering scan...");
-			return;
+		// skip if downstream is saturated
+		if (queueSaturated) {
+			return false;
+		}
+			
+		// skip if at a scan limit
+		if (!admissionController.tryAdmit(scan, enginePool.calcEngineSize(scan))) {
+			return false;
 		}
 
 		log.debug("scan queued, adding to scanQueued queue; id={}", scanId);
-		final int count = concurrentScans.incrementAndGet();
-		scanQueued.add(scan);
+		if (!scanQueued.offer(scan)) {
+			admissionController.release(scanId);
+			queueSaturated = true;
+			log.warn("Scan queue full, deferring scans until next poll; scanId={}; queueSize={}", 
+					scanId, scanQueued.size());
+			return false;
+		}
 		activeScanMap.put(scanId, scan);
-		log.info("Scan queued: {}; concurrentCount={}; concurrentLimit={}", 
-				scan, count, concurrentScanLimit);
+		activeScanLastSeen.put(scanId, pollCount);
+		if (arrivalForecaster != null) arrivalForecaster.record(enginePool.calcEngineSize(scan), scan);
+		log.info("Scan queued: {}; occupancy={}", scan, admissionController.getOccupancy());
+		return true;
 	}
 
 	private void onScanning(final long scanId, ScanRequest scan) {
@@ -145,34 +387,86 @@ public class ScanQueueMonitor implements Runnable {
 			// update active scan
 			activeScanMap.put(scanId, scan);
 
-			//scanWorking.add(scan);
-			//FIXME: move block engine to EngineManager by posting to a queue
-			//scanWorking.add(scan);
 			final long engineId = scan.getEngineId();
 			log.info("Scan is working, blocking engine; scanId={}; engineId={}", scanId, engineId);
-			cxClient.blockEngine(engineId);
+			engineBlocker.onScanStarted(engineId, scanId);
 			workingScans.add(scanId);
 		}
 	}
 
-	private void onCompleted(final long scanId, ScanRequest scan) {
+	/**
+	 * @return false if the finished queue is full, and the scan should be processed again on the next poll
+	 */
+	private boolean onCompleted(final long scanId, ScanRequest scan) {
 		log.trace("onCompleted(): {}", scan);
 		
-		if (activeScanMap.remove(scanId) == null ) {
-			return;
+		if (!activeScanMap.containsKey(scanId)) {
+			return true;
 		}
 		
-		final int count = concurrentScans.decrementAndGet();
-
 		log.debug("Scan complete, adding to scanFinished queue; id={}", scanId);
+		if (!scanFinished.offer(scan)) {
+			log.warn("Scan finished queue full, retrying next poll; scanId={}; queueSize={}", 
+					scanId, scanFinished.size());
+			return false;
+		}
+		
+		activeScanMap.remove(scanId);
+		activeScanLastSeen.remove(scanId);
 		workingScans.remove(scanId);
-		scanFinished.add(scan);
-		log.info("Scan finished: {}; concurrentScans={}", scan, count);
+		admissionController.release(scanId);
+		engineBlocker.onScanCompleted(scanId);
+		log.info("Scan finished: {}; occupancy={}", scan, admissionController.getOccupancy());
+		return true;
+	}
+
+	private void onMissing(final long scanId) {
+		final ScanRequest scan = activeScanMap.get(scanId);
+		log.warn("Scan missing from scan queue, treating as finished; scanId={}; missingPolls={}; {}", 
+				scanId, pollCount - activeScanLastSeen.get(scanId), scan);
+		onCompleted(scanId, scan);
 	}
 
 	private void onOther(ScanRequest scan) {
 		log.trace("onOther(): {}", scan);
 		// do nothing
 	}
+	
+	/**
+	 * Compact fingerprint of the scan fields that drive scan processing
+	 */
+	private static class ScanFingerprint {
+		
+		private long stageId;
+		private long engineId;
+		private int loc;
+		private long lastSeenPoll;
+		
+		ScanFingerprint(ScanRequest scan, long poll) {
+			update(scan, poll);
+		}
+		
+		void update(ScanRequest scan, long poll) {
+			this.stageId = stageId(scan);
+			this.engineId = engineId(scan);
+			this.loc = scan.getLoc();
+			this.lastSeenPoll = poll;
+		}
+		
+		boolean matches(ScanRequestSummary scan) {
+			return stageId == scan.getStageId()
+					&& engineId == scan.getEngineId()
+					&& loc == scan.getLoc();
+		}
+		
+		private static long stageId(ScanRequest scan) {
+			return scan.getStage() == null ? ScanRequestSummary.NONE : scan.getStage().getId();
+		}
+		
+		private static long engineId(ScanRequest scan) {
+			return scan.getEngine() == null ? ScanRequestSummary.NONE : scan.getEngine().getId();
+		}
+		
+	}
 
 }
@@ -27,9 +27,18 @@ import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
 import com.checkmarx.engine.domain.EnginePoolConfig;
 import com.checkmarx.engine.domain.ScanQueue;
 import com.checkmarx.engine.rest.CxEngineApi;
+import com.checkmarx.engine.servers.AllocationJournal;
+import com.checkmarx.engine.servers.ArrivalForecaster;
 import com.checkmarx.engine.servers.CxEngines;
+import com.checkmarx.engine.servers.EngineBlocker;
 import com.checkmarx.engine.servers.EngineManager;
+import com.checkmarx.engine.servers.EwmaScanDurationEstimator;
+import com.checkmarx.engine.servers.LocRateScanDurationEstimator;
+import com.checkmarx.engine.servers.ScanAdmissionController;
+import com.checkmarx.engine.servers.ScanDurationEstimator;
 import com.checkmarx.engine.servers.ScanQueueMonitor;
+import com.checkmarx.engine.utils.ExecutorRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 
 /**
@@ -72,16 +81,64 @@ public class CoreApplicationConfig {
 		return builder.build();
 	}
 	
+	@Bean
+	public ExecutorRegistry executorRegistry() {
+		return new ExecutorRegistry();
+	}
+	
+	@Bean
+	public ScanDurationEstimator scanDurationEstimator(
+			CxConfig config,
+			EnginePool enginePool,
+			ObjectMapper objectMapper) {
+		return new EwmaScanDurationEstimator(config, enginePool, 
+				new LocRateScanDurationEstimator(config), objectMapper);
+	}
+	
+	@Bean
+	public ArrivalForecaster arrivalForecaster(
+			CxConfig config,
+			ObjectMapper objectMapper) {
+		return new ArrivalForecaster(config, objectMapper);
+	}
+	
+	@Bean
+	public AllocationJournal allocationJournal(
+			CxConfig config,
+			ObjectMapper objectMapper) {
+		return new AllocationJournal(config, objectMapper);
+	}
+	
 	@Bean
 	public EngineManager engineManager(
 			CxConfig config,
 			EnginePool enginePool,
 			CxEngineApi cxClient,
 			CxEngines engineProvisioner,
-			ScanQueue scansQueued, ScanQueue scansFinished) {
+			ScanQueue scansQueued, ScanQueue scansFinished,
+			ExecutorRegistry executorRegistry,
+			ScanDurationEstimator durationEstimator,
+			ArrivalForecaster arrivalForecaster,
+			AllocationJournal allocationJournal,
+			EngineBlocker engineBlocker) {
 		
 		return new EngineManager(config, enginePool, cxClient, engineProvisioner, 
-						scansQueued.getQueue(), scansFinished.getQueue());
+						scansQueued.getQueue(), scansFinished.getQueue(), executorRegistry, durationEstimator, 
+						arrivalForecaster, allocationJournal, engineBlocker);
+	}
+	
+	@Bean
+	public EngineBlocker engineBlocker(
+			CxConfig config,
+			CxEngineApi cxClient) {
+		return new EngineBlocker(cxClient, config);
+	}
+	
+	@Bean
+	public ScanAdmissionController scanAdmissionController(
+			CxConfig config,
+			EnginePoolConfig poolConfig) {
+		return new ScanAdmissionController(config, poolConfig.getPool());
 	}
 	
 	@Bean
@@ -89,9 +146,13 @@ public class CoreApplicationConfig {
 			CxConfig config,
 			CxEngineApi cxClient,
 			EnginePool enginePool,
+			EngineBlocker engineBlocker,
+			ScanAdmissionController admissionController,
+			ArrivalForecaster arrivalForecaster,
 			ScanQueue scansQueued, 
 			ScanQueue scansFinished) {
-		return new ScanQueueMonitor(scansQueued.getQueue(), scansFinished.getQueue(), enginePool, cxClient, config);
+		return new ScanQueueMonitor(scansQueued.getQueue(), scansFinished.getQueue(), enginePool, 
+				cxClient, engineBlocker, admissionController, arrivalForecaster, config);
 	}
 	
 }
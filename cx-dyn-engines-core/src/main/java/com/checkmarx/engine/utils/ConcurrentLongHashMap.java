@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+/**
+ * Thread safe {@link LongHashMap}, striped across independently locked segments
+ * to reduce contention.
+ */
+public class ConcurrentLongHashMap<V> {
+
+	private static final int STRIPES = 16;
+	
+	private final LongHashMap<V>[] segments;
+	
+	public ConcurrentLongHashMap() {
+		this(0);
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public ConcurrentLongHashMap(int expectedSize) {
+		this.segments = new LongHashMap[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			segments[i] = new LongHashMap<>(expectedSize / STRIPES);
+		}
+	}
+	
+	private LongHashMap<V> segmentFor(long key) {
+		return segments[LongHashTable.stripeFor(key, STRIPES)];
+	}
+	
+	public V get(long key) {
+		final LongHashMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+	
+	public boolean containsKey(long key) {
+		final LongHashMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.containsKey(key);
+		}
+	}
+	
+	public V put(long key, V value) {
+		final LongHashMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.put(key, value);
+		}
+	}
+	
+	public V remove(long key) {
+		final LongHashMap<V> segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+	
+	/**
+	 * Visits each entry, one segment at a time.  Not a consistent snapshot across segments. 
+	 */
+	public void forEach(LongHashMap.LongObjConsumer<? super V> action) {
+		for (LongHashMap<V> segment : segments) {
+			synchronized (segment) {
+				segment.forEach(action);
+			}
+		}
+	}
+	
+	public int size() {
+		int size = 0;
+		for (LongHashMap<V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+}
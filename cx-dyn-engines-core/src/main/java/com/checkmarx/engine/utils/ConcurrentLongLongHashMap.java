@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+/**
+ * Thread safe {@link LongLongHashMap}, striped across independently locked segments
+ * to reduce contention.
+ */
+public class ConcurrentLongLongHashMap {
+
+	private static final int STRIPES = 16;
+	
+	private final LongLongHashMap[] segments;
+	private final long missingValue;
+	
+	/**
+	 * @param missingValue value returned when a key is not present
+	 */
+	public ConcurrentLongLongHashMap(long missingValue) {
+		this(0, missingValue);
+	}
+	
+	/**
+	 * @param missingValue value returned when a key is not present
+	 */
+	public ConcurrentLongLongHashMap(int expectedSize, long missingValue) {
+		this.missingValue = missingValue;
+		this.segments = new LongLongHashMap[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			segments[i] = new LongLongHashMap(expectedSize / STRIPES, missingValue);
+		}
+	}
+	
+	private LongLongHashMap segmentFor(long key) {
+		return segments[LongHashTable.stripeFor(key, STRIPES)];
+	}
+	
+	public long getMissingValue() {
+		return missingValue;
+	}
+	
+	public long get(long key) {
+		final LongLongHashMap segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+	
+	public boolean containsKey(long key) {
+		final LongLongHashMap segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.containsKey(key);
+		}
+	}
+	
+	public long put(long key, long value) {
+		final LongLongHashMap segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.put(key, value);
+		}
+	}
+	
+	public long remove(long key) {
+		final LongLongHashMap segment = segmentFor(key);
+		synchronized (segment) {
+			return segment.remove(key);
+		}
+	}
+	
+	public int size() {
+		int size = 0;
+		for (LongLongHashMap segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Runs events one at a time on a single thread, fed by a {@link RingBuffer}.  
+ * State only touched by events needs no locking.
+ * <p>
+ * Posting from another thread waits while the ring buffer is full; 
+ * posting from the event loop thread runs the event after the current one, 
+ * so an event never waits on its own loop.
+ */
+public class EventLoop implements Executor {
+	
+	private static final Logger log = LoggerFactory.getLogger(EventLoop.class);
+	
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int SPINS = 100;
+
+	private final String name;
+	private final RingBuffer<Runnable> events;
+	
+	/**
+	 * events posted by the loop thread itself; only touched by the loop thread
+	 */
+	private final Queue<Runnable> localEvents = new ArrayDeque<>();
+	
+	private final LatencyHistogram runTimes = new LatencyHistogram();
+	private final AtomicLong fullWaitCount = new AtomicLong();
+	
+	/**
+	 * posts from other threads in progress, so stop can run events posted as the loop exits
+	 */
+	private final AtomicInteger posting = new AtomicInteger();
+	private volatile long processedCount;
+	private volatile boolean waiting;
+	private volatile boolean running;
+	private volatile Thread thread;
+	
+	public EventLoop(String name, int capacity) {
+		this.name = name;
+		this.events = new RingBuffer<>(capacity);
+	}
+	
+	public synchronized void start() {
+		if (thread != null) return;
+		
+		running = true;
+		thread = ExecutorServiceUtils.buildThreadFactory(name, true).newThread(this::run);
+		thread.start();
+		log.info("Event loop started: name={}; capacity={}", name, events.capacity());
+	}
+	
+	/**
+	 * Stops the loop after the events already posted have run.  
+	 * Events posted while the loop exits run on the calling thread, once the loop thread has exited.
+	 */
+	public void stop(long timeout, TimeUnit unit) {
+		final Thread loopThread = thread;
+		if (loopThread == null) return;
+		
+		running = false;
+		LockSupport.unpark(loopThread);
+		try {
+			loopThread.join(unit.toMillis(timeout));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (loopThread.isAlive()) {
+			log.warn("Event loop did not stop in time: {}", this);
+			loopThread.interrupt();
+			return;
+		}
+		
+		// posts that saw the loop running complete their offer, later posts are rejected
+		while (posting.get() > 0) {
+			Thread.yield();
+		}
+		Runnable event;
+		while ((event = events.poll()) != null) {
+			runEvent(event);
+		}
+	}
+
+	@Override
+	public void execute(Runnable event) {
+		if (inEventLoop()) {
+			localEvents.add(event);
+			return;
+		}
+		
+		posting.incrementAndGet();
+		try {
+			if (!running) {
+				throw new RejectedExecutionException("Event loop is not running: " + name);
+			}
+			
+			int spins = 0;
+			while (!events.offer(event)) {
+				if (spins++ == 0) fullWaitCount.incrementAndGet();
+				if (!running) {
+					throw new RejectedExecutionException("Event loop is not running: " + name);
+				}
+				if (spins < SPINS) Thread.yield(); else LockSupport.parkNanos(PARK_NANOS);
+			}
+		} finally {
+			// an offer after the loop exited is run by stop
+			posting.decrementAndGet();
+		}
+		if (waiting) LockSupport.unpark(thread);
+	}
+	
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+	
+	private void run() {
+		log.info("run(): {}", name);
+		
+		while (running || !events.isEmpty()) {
+			Runnable event = events.poll();
+			if (event == null) {
+				waiting = true;
+				// re-check after publishing waiting, so a concurrent post is not missed
+				event = events.poll();
+				if (event == null) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+					waiting = false;
+					continue;
+				}
+				waiting = false;
+			}
+			runEvent(event);
+			while ((event = localEvents.poll()) != null) {
+				runEvent(event);
+			}
+		}
+		log.info("Event loop exiting: {}", this);
+	}
+	
+	private void runEvent(Runnable event) {
+		final long start = System.nanoTime();
+		try {
+			event.run();
+		} catch (Throwable t) {
+			log.error("Error occurred in event loop; name={}; cause={}; message={}", 
+					name, t, t.getMessage(), t);
+		} finally {
+			runTimes.record(System.nanoTime() - start);
+			processedCount++;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+	
+	public int getDepth() {
+		return events.size();
+	}
+	
+	public int getCapacity() {
+		return events.capacity();
+	}
+	
+	public long getProcessedCount() {
+		return processedCount;
+	}
+	
+	/**
+	 * @return number of posts that waited for the ring buffer to drain
+	 */
+	public long getFullWaitCount() {
+		return fullWaitCount.get();
+	}
+	
+	public LatencyHistogram getRunTimes() {
+		return runTimes;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("name", name)
+				.add("depth", getDepth())
+				.add("capacity", getCapacity())
+				.add("processedCount", processedCount)
+				.add("fullWaitCount", getFullWaitCount())
+				.add("runTimes", runTimes)
+				.toString();
+	}
+
+}
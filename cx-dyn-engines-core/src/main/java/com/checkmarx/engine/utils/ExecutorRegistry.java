@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Registry of named, instrumented thread pools.  Reports pool size, active threads, 
+ * queue depth, rejections and task wait/run times for each registered pool, 
+ * and shuts the pools down together.
+ */
+@ManagedResource(description="Executor registry")
+public class ExecutorRegistry {
+	
+	private static final Logger log = LoggerFactory.getLogger(ExecutorRegistry.class);
+	
+	/**
+	 * registered executors; key=executor name
+	 */
+	private final Map<String, InstrumentedThreadPoolExecutor> executors = Maps.newConcurrentMap();
+	
+	/**
+	 * Creates and registers a fixed size thread pool.  Threads are named {@code <name>-<n>}.
+	 * 
+	 * @param name unique executor name
+	 * @param threads number of pool threads
+	 * @param daemon if true, pool threads are daemon threads
+	 * @return the executor
+	 */
+	public ExecutorService register(String name, int threads, boolean daemon) {
+		log.debug("register(): name={}; threads={}", name, threads);
+		
+		if (threads <= 0) {
+			final String msg = String.format("Invalid executor thread count; name=%s; threads=%d", name, threads);
+			throw new IllegalArgumentException(msg);
+		}
+		
+		final InstrumentedThreadPoolExecutor executor = 
+				ExecutorServiceUtils.buildInstrumentedExecutorService(name, threads, daemon);
+		if (executors.putIfAbsent(name, executor) != null) {
+			executor.shutdown();
+			throw new IllegalArgumentException("Executor already registered: " + name);
+		}
+		return executor;
+	}
+	
+	public InstrumentedThreadPoolExecutor getExecutor(String name) {
+		return executors.get(name);
+	}
+	
+	public Collection<InstrumentedThreadPoolExecutor> getExecutors() {
+		return Collections.unmodifiableCollection(executors.values());
+	}
+	
+	@ManagedAttribute(description="Executor statistics")
+	public String[] getExecutorStats() {
+		return executors.values().stream()
+				.map(InstrumentedThreadPoolExecutor::toString)
+				.toArray(String[]::new);
+	}
+	
+	public void logStats() {
+		executors.values().forEach((executor) -> log.info("Executor stats: {}", executor));
+	}
+	
+	/**
+	 * Shuts down all registered executors, waiting up to the timeout for each 
+	 * before interrupting running tasks.
+	 */
+	public void shutdown(long timeout, TimeUnit unit) {
+		log.info("shutdown()");
+		
+		logStats();
+		executors.values().forEach(ExecutorService::shutdown);
+		try {
+			for (ExecutorService executor : executors.values()) {
+				if (!executor.awaitTermination(timeout, unit)) {
+					executor.shutdownNow();
+				}
+			}
+		} catch (InterruptedException e) {
+			executors.values().forEach(ExecutorService::shutdownNow);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -45,6 +45,14 @@ public class ExecutorServiceUtils {
 	public static ScheduledExecutorService buildScheduledExecutorService(String nameFormat, boolean daemon) {
 		return Executors.newSingleThreadScheduledExecutor(buildThreadFactory(nameFormat, daemon));
 	}
+
+	public static ScheduledExecutorService buildScheduledExecutorService(int count, String nameFormat, boolean daemon) {
+		return Executors.newScheduledThreadPool(count, buildThreadFactory(nameFormat, daemon));
+	}
+
+	public static InstrumentedThreadPoolExecutor buildInstrumentedExecutorService(String name, int count, boolean daemon) {
+		return new InstrumentedThreadPoolExecutor(name, count, buildThreadFactory(name + "-%d", daemon));
+	}
 	
 	
 
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Fixed size {@code ThreadPoolExecutor} that records task queue wait times, 
+ * task run times and rejected tasks.
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+	
+	private final String name;
+	private final LatencyHistogram waitTimes = new LatencyHistogram();
+	private final LatencyHistogram runTimes = new LatencyHistogram();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final ThreadLocal<Long> startNanos = new ThreadLocal<>();
+
+	public InstrumentedThreadPoolExecutor(String name, int threads, ThreadFactory threadFactory) {
+		super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		this.name = name;
+		setRejectedExecutionHandler(new CountingRejectionHandler(getRejectedExecutionHandler()));
+	}
+	
+	@Override
+	public void execute(Runnable command) {
+		super.execute(new TimedTask(command));
+	}
+	
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		super.beforeExecute(t, r);
+		final long now = System.nanoTime();
+		if (r instanceof TimedTask) {
+			waitTimes.record(now - ((TimedTask)r).queuedNanos);
+		}
+		startNanos.set(now);
+	}
+	
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		final Long start = startNanos.get();
+		if (start != null) {
+			runTimes.record(System.nanoTime() - start);
+			startNanos.remove();
+		}
+		super.afterExecute(r, t);
+	}
+
+	public String getName() {
+		return name;
+	}
+	
+	public int getQueueDepth() {
+		return getQueue().size();
+	}
+	
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+	
+	public LatencyHistogram getWaitTimes() {
+		return waitTimes;
+	}
+	
+	public LatencyHistogram getRunTimes() {
+		return runTimes;
+	}
+
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("name", name)
+				.add("poolSize", getPoolSize())
+				.add("activeThreads", getActiveCount())
+				.add("queueDepth", getQueueDepth())
+				.add("completed", getCompletedTaskCount())
+				.add("rejected", getRejectedCount())
+				.add("waitTimes", waitTimes)
+				.add("runTimes", runTimes)
+				.toString();
+	}
+	
+	private static class TimedTask implements Runnable {
+		
+		private final Runnable task;
+		private final long queuedNanos = System.nanoTime();
+		
+		TimedTask(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+		
+	}
+	
+	private class CountingRejectionHandler implements RejectedExecutionHandler {
+		
+		private final RejectedExecutionHandler handler;
+		
+		CountingRejectionHandler(RejectedExecutionHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			rejectedCount.incrementAndGet();
+			handler.rejectedExecution(r, executor);
+		}
+		
+	}
+
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Lock-free latency histogram with power of two millisecond buckets.  
+ * Bucket {@code 0} counts latencies under 1ms, bucket {@code n} counts 
+ * latencies from {@code 2^(n-1)} up to {@code 2^n} ms.  
+ * Percentiles are reported as the upper bound of the matching bucket.
+ */
+public class LatencyHistogram {
+	
+	private static final int BUCKETS = 32;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		
+		buckets.incrementAndGet(bucketFor(TimeUnit.NANOSECONDS.toMillis(nanos)));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+	
+	static int bucketFor(long millis) {
+		if (millis <= 0) return 0;
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getMeanMillis() {
+		final long n = count.get();
+		return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / n);
+	}
+	
+	public long getMaxMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+	}
+	
+	/**
+	 * @param percentile between 0 and 100
+	 * @return upper bound in ms of the bucket containing the percentile, 
+	 * 			or {@code 0} if nothing has been recorded 
+	 */
+	public long getPercentileMillis(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+		
+		long total = 0;
+		final long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) return 0;
+		
+		final long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) return 1L << i;
+		}
+		return 1L << (BUCKETS - 1);
+	}
+	
+	@Override
+	public String toString() {
+		return MoreObjects.toStringHelper(this)
+				.add("count", getCount())
+				.add("meanMs", getMeanMillis())
+				.add("p50Ms", getPercentileMillis(50))
+				.add("p95Ms", getPercentileMillis(95))
+				.add("p99Ms", getPercentileMillis(99))
+				.add("maxMs", getMaxMillis())
+				.toString();
+	}
+
+}
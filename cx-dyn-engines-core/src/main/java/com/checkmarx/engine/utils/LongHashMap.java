@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Map of primitive long keys to non-null object values, that does not box keys
+ * or allocate per entry.  Not thread safe, see {@link ConcurrentLongHashMap}.
+ */
+public class LongHashMap<V> extends LongHashTable {
+
+	@FunctionalInterface
+	public interface LongObjConsumer<V> {
+		void accept(long key, V value);
+	}
+
+	private Object[] values;
+	
+	public LongHashMap() {
+		this(0);
+	}
+	
+	public LongHashMap(int expectedSize) {
+		super(expectedSize);
+		this.values = new Object[keys.length];
+	}
+	
+	/**
+	 * @return the value, or null if the key is not present
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		final int index = indexOf(key);
+		return index < 0 ? null : (V)values[index];
+	}
+	
+	/**
+	 * @return the previous value, or null if the key was not present
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		Objects.requireNonNull(value, "value cannot be null");
+		int index = slotFor(key);
+		if (used[index]) {
+			final V previous = (V)values[index];
+			values[index] = value;
+			return previous;
+		}
+		index = insertAt(index, key);
+		values[index] = value;
+		return null;
+	}
+	
+	/**
+	 * @return the removed value, or null if the key was not present
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		final int index = indexOf(key);
+		if (index < 0) return null;
+		final V value = (V)values[index];
+		removeAt(index);
+		return value;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void forEach(LongObjConsumer<? super V> action) {
+		for (int i = 0; i < keys.length; i++) {
+			if (used[i]) action.accept(keys[i], (V)values[i]);
+		}
+	}
+	
+	/**
+	 * Removes all entries whose value matches the filter.
+	 * 
+	 * @return true if any entries were removed
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean removeIf(Predicate<? super V> filter) {
+		boolean removed = false;
+		int i = 0;
+		while (i < keys.length) {
+			if (used[i] && filter.test((V)values[i])) {
+				// removal may shift an unvisited entry into this slot, so check it again
+				removeAt(i);
+				removed = true;
+			} else {
+				i++;
+			}
+		}
+		return removed;
+	}
+
+	@Override
+	protected void moveValue(int from, int to) {
+		values[to] = values[from];
+	}
+
+	@Override
+	protected void clearValue(int index) {
+		values[index] = null;
+	}
+
+	@Override
+	protected void clearValues() {
+		Arrays.fill(values, null);
+	}
+
+	@Override
+	protected void rehashValues(boolean[] oldUsed, int[] moved, int capacity) {
+		final Object[] oldValues = values;
+		values = new Object[capacity];
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldUsed[i]) values[moved[i]] = oldValues[i];
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Set of primitive long values, that does not box or allocate per entry.  
+ * Not thread safe.
+ */
+public class LongHashSet extends LongHashTable {
+
+	public LongHashSet() {
+		this(0);
+	}
+	
+	public LongHashSet(int expectedSize) {
+		super(expectedSize);
+	}
+	
+	public boolean contains(long value) {
+		return containsKey(value);
+	}
+	
+	/**
+	 * @return true if the value was not already present
+	 */
+	public boolean add(long value) {
+		final int index = slotFor(value);
+		if (used[index]) return false;
+		insertAt(index, value);
+		return true;
+	}
+	
+	/**
+	 * @return true if the value was present
+	 */
+	public boolean remove(long value) {
+		final int index = indexOf(value);
+		if (index < 0) return false;
+		removeAt(index);
+		return true;
+	}
+	
+	public void forEach(LongConsumer action) {
+		for (int i = 0; i < keys.length; i++) {
+			if (used[i]) action.accept(keys[i]);
+		}
+	}
+
+	@Override
+	protected void moveValue(int from, int to) {
+		// no values
+	}
+
+	@Override
+	protected void clearValue(int index) {
+		// no values
+	}
+
+	@Override
+	protected void clearValues() {
+		// no values
+	}
+
+	@Override
+	protected void rehashValues(boolean[] oldUsed, int[] moved, int capacity) {
+		// no values
+	}
+
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import java.util.Arrays;
+
+/**
+ * Base class for the primitive long-keyed hash tables.  Uses open addressing 
+ * with linear probing, and backward shift deletion so no tombstones are left 
+ * behind.  Not thread safe.
+ */
+abstract class LongHashTable {
+
+	private static final int MIN_CAPACITY = 16;
+	private static final int MAX_CAPACITY = 1 << 30;
+	
+	/**
+	 * Golden ratio multiplier used to spread keys, see Knuth's multiplicative hashing
+	 */
+	private static final long PHI = 0x9E3779B97F4A7C15L;
+
+	protected long[] keys;
+	protected boolean[] used;
+	private int size;
+	private int mask;
+	private int shift;
+	
+	protected LongHashTable(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public boolean containsKey(long key) {
+		return indexOf(key) >= 0;
+	}
+	
+	public void clear() {
+		if (size == 0) return;
+		Arrays.fill(used, false);
+		clearValues();
+		size = 0;
+	}
+	
+	/**
+	 * Returns a stripe index for the key, using different hash bits than the table
+	 * itself.  Used by the striped concurrent maps.
+	 * 
+	 * @param stripes stripe count, must be a power of 2
+	 */
+	static int stripeFor(long key, int stripes) {
+		return (int)(key * PHI) & (stripes - 1);
+	}
+
+	/**
+	 * @return slot index of the key, or -1 if not present 
+	 */
+	protected final int indexOf(long key) {
+		int i = hash(key);
+		while (used[i]) {
+			if (keys[i] == key) return i;
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the slot index for the key, claiming a free slot if the key is not present.
+	 * Subclasses must check {@link #used} before calling, to tell a new key from an existing one. 
+	 */
+	protected final int slotFor(long key) {
+		int i = hash(key);
+		while (used[i] && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+	
+	/**
+	 * Claims a free slot returned by {@link #slotFor(long)}, growing the table if needed.
+	 * 
+	 * @return the slot index of the key, which changes if the table grew
+	 */
+	protected final int insertAt(int index, long key) {
+		if (size >= keys.length >> 1) {
+			rehash(keys.length << 1);
+			index = slotFor(key);
+		}
+		keys[index] = key;
+		used[index] = true;
+		size++;
+		return index;
+	}
+	
+	/**
+	 * Removes the entry at the slot index, shifting later entries of the same probe 
+	 * sequence back to fill the hole.  Entries are only moved to the removed index 
+	 * or to indices after it in probe order.
+	 */
+	protected final void removeAt(int index) {
+		size--;
+		int hole = index;
+		int i = index;
+		while (true) {
+			i = (i + 1) & mask;
+			if (!used[i]) break;
+			final int home = hash(keys[i]);
+			// entry stays if its home slot is cyclically within (hole, i]
+			final boolean stays = hole <= i 
+					? hole < home && home <= i 
+					: hole < home || home <= i;
+			if (stays) continue;
+			keys[hole] = keys[i];
+			moveValue(i, hole);
+			hole = i;
+		}
+		used[hole] = false;
+		clearValue(hole);
+	}
+	
+	private void rehash(int capacity) {
+		if (capacity > MAX_CAPACITY) {
+			throw new IllegalStateException("Hash table capacity exceeded; size=" + size);
+		}
+		final long[] oldKeys = keys;
+		final boolean[] oldUsed = used;
+		allocate(capacity);
+		final int[] moved = new int[oldKeys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (!oldUsed[i]) continue;
+			final int slot = slotFor(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			used[slot] = true;
+			moved[i] = slot;
+		}
+		rehashValues(oldUsed, moved, capacity);
+	}
+	
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+	
+	private int hash(long key) {
+		return (int)((key * PHI) >>> shift);
+	}
+	
+	private static int capacityFor(int expectedSize) {
+		final int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize) * 2 - 1) << 1;
+		return Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, capacity));
+	}
+
+	/**
+	 * Moves the value stored at slot {@code from} to slot {@code to}
+	 */
+	protected abstract void moveValue(int from, int to);
+	
+	protected abstract void clearValue(int index);
+	
+	protected abstract void clearValues();
+	
+	/**
+	 * Reallocates the value storage after the keys were rehashed.
+	 * 
+	 * @param oldUsed the used flags of the old table
+	 * @param moved the new slot index of each used old slot
+	 * @param capacity the new table capacity
+	 */
+	protected abstract void rehashValues(boolean[] oldUsed, int[] moved, int capacity);
+
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+/**
+ * Map of primitive long keys to primitive long values, that does not box
+ * or allocate per entry.  Not thread safe, see {@link ConcurrentLongLongHashMap}.
+ */
+public class LongLongHashMap extends LongHashTable {
+
+	@FunctionalInterface
+	public interface LongLongConsumer {
+		void accept(long key, long value);
+	}
+
+	private final long missingValue;
+	private long[] values;
+	
+	/**
+	 * @param missingValue value returned when a key is not present
+	 */
+	public LongLongHashMap(long missingValue) {
+		this(0, missingValue);
+	}
+	
+	/**
+	 * @param missingValue value returned when a key is not present
+	 */
+	public LongLongHashMap(int expectedSize, long missingValue) {
+		super(expectedSize);
+		this.missingValue = missingValue;
+		this.values = new long[keys.length];
+	}
+	
+	public long getMissingValue() {
+		return missingValue;
+	}
+	
+	/**
+	 * @return the value, or the missing value if the key is not present
+	 */
+	public long get(long key) {
+		final int index = indexOf(key);
+		return index < 0 ? missingValue : values[index];
+	}
+	
+	/**
+	 * @return the previous value, or the missing value if the key was not present
+	 */
+	public long put(long key, long value) {
+		int index = slotFor(key);
+		if (used[index]) {
+			final long previous = values[index];
+			values[index] = value;
+			return previous;
+		}
+		index = insertAt(index, key);
+		values[index] = value;
+		return missingValue;
+	}
+	
+	/**
+	 * @return the removed value, or the missing value if the key was not present
+	 */
+	public long remove(long key) {
+		final int index = indexOf(key);
+		if (index < 0) return missingValue;
+		final long value = values[index];
+		removeAt(index);
+		return value;
+	}
+	
+	public void forEach(LongLongConsumer action) {
+		for (int i = 0; i < keys.length; i++) {
+			if (used[i]) action.accept(keys[i], values[i]);
+		}
+	}
+
+	@Override
+	protected void moveValue(int from, int to) {
+		values[to] = values[from];
+	}
+
+	@Override
+	protected void clearValue(int index) {
+		// primitive values need no clearing
+	}
+
+	@Override
+	protected void clearValues() {
+		// primitive values need no clearing
+	}
+
+	@Override
+	protected void rehashValues(boolean[] oldUsed, int[] moved, int capacity) {
+		final long[] oldValues = values;
+		values = new long[capacity];
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldUsed[i]) values[moved[i]] = oldValues[i];
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock free ring buffer for many producers and a single consumer.
+ * <p>
+ * Each slot carries a sequence number; a producer claims a slot by advancing the tail,
+ * then publishes the slot by setting its sequence.  The consumer only reads published slots,
+ * so {@link #poll()} must only be called from one thread.
+ *
+ * @param <E> element type
+ */
+public class RingBuffer<E> {
+
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+	
+	/**
+	 * @param capacity rounded up to a power of 2
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+		}
+		this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.elements = new AtomicReferenceArray<>(this.capacity);
+		this.sequences = new AtomicLongArray(this.capacity);
+		for (int i = 0; i < this.capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+	
+	/**
+	 * Adds an element, safe to call from any thread.
+	 * 
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(E element) {
+		if (element == null) throw new NullPointerException();
+		
+		long pos;
+		int index;
+		while (true) {
+			pos = tail.get();
+			index = (int)pos & mask;
+			final long available = sequences.get(index) - pos;
+			if (available == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) break;
+			} else if (available < 0) {
+				return false;
+			}
+		}
+		elements.lazySet(index, element);
+		// volatile write publishes the element to the consumer
+		sequences.set(index, pos + 1);
+		return true;
+	}
+	
+	/**
+	 * Removes the head element, must only be called from the consumer thread.
+	 * 
+	 * @return the element, or null if empty
+	 */
+	public E poll() {
+		final long pos = head;
+		final int index = (int)pos & mask;
+		if (sequences.get(index) != pos + 1) return null;
+		
+		final E element = elements.get(index);
+		elements.lazySet(index, null);
+		// frees the slot for the producer one lap ahead
+		sequences.lazySet(index, pos + capacity);
+		head = pos + 1;
+		return element;
+	}
+	
+	public int size() {
+		final long size = tail.get() - head;
+		return (int)Math.max(0, Math.min(capacity, size));
+	}
+	
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	public int capacity() {
+		return capacity;
+	}
+	
+}
@@ -17,6 +17,9 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
 
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -77,5 +80,25 @@ public class DynamicEngineTests {
 		assertThat(engine.getTimeToExpire(), is(nullValue()));
 
 	}
+	
+	@Test
+	public void testElapsedTimes() throws Exception {
+		log.trace("testElapsedTimes()");
+		
+		final DynamicEngine engine = new DynamicEngine("name", "S", 3600);
+		engine.setState(State.IDLE);
+		Thread.sleep(100);
+		engine.setState(State.SCANNING);
+		Thread.sleep(50);
+		engine.setState(State.IDLE);
+		
+		// completed states, plus the current state so far
+		final long idleNanos = engine.getElapsedNanos(State.IDLE);
+		assertTrue(idleNanos >= TimeUnit.MILLISECONDS.toNanos(100));
+		assertTrue(engine.getElapsedNanos(State.SCANNING) >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertTrue(engine.getElapsedNanos(State.IDLE) >= idleNanos);
+		assertThat(engine.getElapsedNanos(State.EXPIRING), is(0L));
+		assertThat(engine.printElapsedTimes(), is("SCANNING:0s, EXPIRING:0s, IDLE:0s, UNPROVISIONED:0s, LAUNCHING:0s"));
+	}
 
 }
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.rest.model.ProgramLanguage;
+import com.checkmarx.engine.rest.model.Project;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.servers.EngineRulesLoader;
+
+public class EngineMatchRulesTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(EngineMatchRulesTests.class);
+	
+	public static final EngineSize SMALL = new EngineSize("S", 0, 99999);
+	public static final EngineSize MEDIUM = new EngineSize("M", 100000, 499999);
+	public static final EngineSize LARGE = new EngineSize("L", 500000, 999999999);
+	
+	private EnginePool pool;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+			.addEntry(new EnginePoolEntry(SMALL, 1))
+			.addEntry(new EnginePoolEntry(MEDIUM, 1))
+			.addEntry(new EnginePoolEntry(LARGE, 1))
+			.build();
+	}
+	
+	@Test
+	public void testMatch() {
+		log.trace("testMatch()");
+		
+		final EngineMatchRules rules = compile(
+				"# comment\n" +
+				"\n" +
+				"L : language in (java, Kotlin) and incremental and loc < 500000\n" +
+				"M : project ~ '^core-' or team = 7\n" +
+				"S : origin = \"CxFlow CLI\" and not public\n");
+		assertEquals(3, rules.getRuleCount());
+		
+		assertEquals(LARGE, rules.match(scan(1000, true, "app", "1", "Jenkins", "Java", "JavaScript")));
+		assertNull(rules.match(scan(600000, true, "app", "1", "Jenkins", "Java")));
+		assertNull(rules.match(scan(1000, false, "app", "1", "Jenkins", "Java")));
+		assertEquals(MEDIUM, rules.match(scan(1000, false, "Core-api", "1", "Jenkins", "Go")));
+		assertEquals(MEDIUM, rules.match(scan(1000, false, "app", "7", "Jenkins", "Go")));
+		assertEquals(SMALL, rules.match(scan(1000, false, "app", "1", "cxflow cli", "Go")));
+		assertNull(rules.match(scan(1000, false, null, null, null)));
+	}
+	
+	@Test
+	public void testOperators() {
+		log.trace("testOperators()");
+		
+		final ScanRequest scan = scan(1000, true, "app", "1", "Jenkins", "Java");
+		assertEquals(SMALL, compile("S : (loc >= 1000 and loc <= 1000) and loc != 1 and projectId = 42").match(scan));
+		assertEquals(SMALL, compile("S : incremental = true and public != true").match(scan));
+		assertEquals(SMALL, compile("S : language != Go or not (origin in (a, b))").match(scan));
+		assertNull(compile("S : not incremental or loc > 1000 and origin = Jenkins").match(scan));
+	}
+	
+	@Test
+	public void testQuotedValues() {
+		log.trace("testQuotedValues()");
+		
+		// quoted punctuation and keywords are values, not syntax
+		assertEquals(SMALL, compile("S : project in (\"a,b\", \",\")").match(scan(1000, true, "a,b", "1", "Jenkins")));
+		assertEquals(SMALL, compile("S : project in (\"a,b\", \",\")").match(scan(1000, true, ",", "1", "Jenkins")));
+		assertNull(compile("S : project in (\"a,b\", \",\")").match(scan(1000, true, "a", "1", "Jenkins")));
+		assertEquals(SMALL, compile("S : origin = \"not\"").match(scan(1000, true, "app", "1", "not")));
+		assertEquals(SMALL, compile("S : origin in ('and', 'or', ')')").match(scan(1000, true, "app", "1", ")")));
+		assertInvalid("S : \"loc\" > 1", "expected field, found \"loc\"");
+		assertInvalid("S : loc \">\" 1", "expected operator, found \">\"");
+	}
+	
+	@Test
+	public void testInvalid() {
+		log.trace("testInvalid()");
+		
+		assertInvalid("S loc > 1", "line 1");
+		assertInvalid("# comment\nX : loc > 1", "line 2: unknown engine size X");
+		assertInvalid("S : size > 1", "unknown field size");
+		assertInvalid("S : loc > many", "expected a number");
+		assertInvalid("S : loc ~ 1", "unsupported number operator");
+		assertInvalid("S : project ~ '['", "invalid regex");
+		assertInvalid("S : (loc > 1", "expected )");
+		assertInvalid("S : loc > 1 loc", "unexpected loc");
+		assertInvalid("S : origin = 'abc", "unterminated quote");
+		assertInvalid("S : ", "missing condition");
+	}
+	
+	@Test
+	public void testCalcEngineSize() {
+		log.trace("testCalcEngineSize()");
+		
+		// rules first, then LOC
+		pool.setMatchRules(compile("L : language = Java"));
+		assertEquals(LARGE, pool.calcEngineSize(scan(1000, false, "app", "1", "Jenkins", "Java")));
+		assertEquals(SMALL, pool.calcEngineSize(scan(1000, false, "app", "1", "Jenkins", "Go")));
+		assertEquals(MEDIUM, pool.calcEngineSize(scan(100000, false, "app", "1", "Jenkins")));
+	}
+	
+	@Test
+	public void testReload() throws Exception {
+		log.trace("testReload()");
+		
+		final File rulesFile = Files.createTempFile("engine-rules", ".txt").toFile();
+		try {
+			final CxConfig config = new CxConfig();
+			config.setEngineRulesFile(rulesFile.getPath());
+			final EngineRulesLoader loader = new EngineRulesLoader(config, pool);
+			final ScanRequest scan = scan(1000, false, "app", "1", "Jenkins", "Java");
+			
+			write(rulesFile, "L : language = Java", 1000);
+			loader.run();
+			assertEquals(LARGE, pool.calcEngineSize(scan));
+			
+			// unchanged file is not reloaded
+			loader.run();
+			assertEquals(1, loader.getLoadCount());
+			
+			// invalid rules keep the current rules
+			write(rulesFile, "L : language =", 2000);
+			loader.run();
+			assertEquals(LARGE, pool.calcEngineSize(scan));
+			assertTrue(loader.getLastError().contains("line 1"));
+			
+			write(rulesFile, "M : language = Java", 3000);
+			loader.run();
+			assertEquals(MEDIUM, pool.calcEngineSize(scan));
+			assertNull(loader.getLastError());
+			assertEquals(2, loader.getLoadCount());
+		} finally {
+			rulesFile.delete();
+		}
+	}
+	
+	private void write(File file, String rules, long modified) throws Exception {
+		Files.write(file.toPath(), rules.getBytes(StandardCharsets.UTF_8));
+		file.setLastModified(modified);
+	}
+	
+	private EngineMatchRules compile(String rules) {
+		return EngineMatchRules.compile(rules, pool::getEngineSize);
+	}
+	
+	private void assertInvalid(String rules, String message) {
+		try {
+			compile(rules);
+			fail("Rules should be invalid: " + rules);
+		} catch (IllegalArgumentException e) {
+			log.debug("Invalid rules: {}", e.getMessage());
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+	
+	public static ScanRequest scan(int loc, boolean incremental, String project, String team, String origin, 
+			String... languages) {
+		final ProgramLanguage[] langs = new ProgramLanguage[languages.length];
+		for (int i = 0; i < languages.length; i++) {
+			langs[i] = new ProgramLanguage(i, languages[i]);
+		}
+		return new ScanRequest(1, "run", team, project == null ? null : new Project(42, project), null, 
+				loc, incremental, false, origin, langs, null, null, null);
+	}
+
+}
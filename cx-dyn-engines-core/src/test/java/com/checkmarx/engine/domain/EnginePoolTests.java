@@ -21,6 +21,13 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.*;
 
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,6 +39,8 @@ import org.springframework.test.context.junit4.SpringRunner;
 import com.checkmarx.engine.domain.DynamicEngine.State;
 import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 /**
  * @author rjgey
@@ -124,6 +133,85 @@ public class EnginePoolTests {
 	}
 	
 	
+	@Test
+	public void testAllocateLarger() {
+		log.trace("testAllocateLarger()");
+		
+		// no idle engines
+		assertThat(pool.allocateLargerEngine(SMALL, State.IDLE, 2, 0), is(nullValue()));
+		
+		idleEngine(LARGE);
+		
+		// large is 2 steps from small
+		assertThat(pool.allocateLargerEngine(SMALL, State.IDLE, 1, 0), is(nullValue()));
+		assertThat(pool.allocateLargerEngine(SMALL, State.IDLE, 2, 1), is(nullValue()));
+		
+		// smallest larger size first
+		idleEngine(MEDIUM);
+		DynamicEngine engine = pool.allocateLargerEngine(SMALL, State.IDLE, 2, 0);
+		assertThat(engine.getSize(), is(MEDIUM.getName()));
+		assertThat(engine.getState(), is(State.SCANNING));
+		engine = pool.allocateLargerEngine(SMALL, State.IDLE, 2, 0);
+		assertThat(engine.getSize(), is(LARGE.getName()));
+		
+		// nothing larger than large
+		idleEngine(LARGE);
+		assertThat(pool.allocateLargerEngine(LARGE, State.IDLE, 2, 0), is(nullValue()));
+		assertThat(pool.allocateLargerEngine(SMALL, State.IDLE, 0, 0), is(nullValue()));
+		
+		assertEquals("S->L=1; S->M=1", pool.getBestFitHits());
+		assertEquals("L=1; S=3", pool.getBestFitMisses());
+	}
+	
+	@Test
+	public void testConcurrentAllocate() throws Exception {
+		log.trace("testConcurrentAllocate()");
+		
+		for (int i = 0; i < 3; i++) {
+			idleEngine(SMALL);
+			idleEngine(MEDIUM);
+		}
+		
+		// engines are allocated by one thread at a time
+		final Set<DynamicEngine> allocated = Sets.newConcurrentHashSet();
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		final List<Future<Integer>> results = Lists.newArrayList();
+		for (int t = 0; t < 8; t++) {
+			final EngineSize size = t % 2 == 0 ? SMALL : MEDIUM;
+			results.add(executor.submit(() -> {
+				int count = 0;
+				for (int i = 0; i < 2000; i++) {
+					final DynamicEngine engine = pool.allocateEngine(size, State.IDLE);
+					if (engine == null) continue;
+					
+					assertTrue(allocated.add(engine));
+					assertEquals(State.SCANNING, engine.getState());
+					assertTrue(allocated.remove(engine));
+					pool.idleEngine(engine);
+					count++;
+				}
+				return count;
+			}));
+		}
+		int count = 0;
+		for (Future<Integer> result : results) {
+			count += result.get();
+		}
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+		
+		assertTrue(count > 0);
+		assertEquals(3, pool.getEngineCount(SMALL, State.IDLE));
+		assertEquals(3, pool.getEngineCount(MEDIUM, State.IDLE));
+		assertEquals(0, pool.getEngineCount(SMALL, State.SCANNING));
+		assertEquals(0, pool.getEngineCount(MEDIUM, State.SCANNING));
+	}
+	
+	private void idleEngine(EngineSize size) {
+		final DynamicEngine engine = pool.allocateEngine(size, State.UNPROVISIONED);
+		pool.changeState(engine, State.IDLE);
+	}
+	
 	@Test
 	public void testChangeState() throws InterruptedException {
 		log.trace("testChangeState()");
@@ -142,6 +230,31 @@ public class EnginePoolTests {
 		pool.logEngines();
 	}
 
+	@Test
+	public void testSnapshot() {
+		log.trace("testSnapshot()");
+		
+		final EnginePoolSnapshot before = pool.getSnapshot();
+		assertEquals(9, before.getEpoch());
+		assertEquals(3, before.getEngineCount(SMALL.getName(), State.UNPROVISIONED));
+		
+		final DynamicEngine engine = pool.allocateEngine(SMALL, State.UNPROVISIONED);
+		final EnginePoolSnapshot after = pool.getSnapshot();
+		assertEquals(10, after.getEpoch());
+		assertEquals(State.SCANNING, after.getState(engine.getName()));
+		assertEquals(1, after.getEngineCount(SMALL.getName(), State.SCANNING));
+		assertEquals(2, after.getEngineCount(SMALL.getName(), State.UNPROVISIONED));
+		assertEquals(3, after.getEngineCount(SMALL.getName(), State.ALL));
+		
+		// other sizes are not republished
+		assertSame(before.getEngines(MEDIUM.getName(), State.ALL), after.getEngines(MEDIUM.getName(), State.ALL));
+		
+		// published snapshots are unchanged
+		assertEquals(State.UNPROVISIONED, before.getState(engine.getName()));
+		assertEquals(0, before.getEngineCount(SMALL.getName(), State.SCANNING));
+		assertTrue(pool.toString().contains("SCANNING=[S/" + engine.getName() + "]"));
+	}
+
 	@Test
 	public void testReplaceEngine() {
 		log.trace("testReplaceEngine()");
@@ -177,6 +290,97 @@ public class EnginePoolTests {
 		assertEquals(LARGE, pool.calcEngineSize(500000));
 		assertEquals(LARGE, pool.calcEngineSize(999999999));
 		assertNull(pool.calcEngineSize(100000000000L));
+		assertNull(pool.calcEngineSize(-1));
+	}
+	
+	@Test
+	public void testCalcSizeTiers() {
+		log.trace("testCalcSizeTiers()");
+		
+		// 25 tiers with a gap, and an overlap where the smaller size wins
+		final DefaultEnginePoolBuilder builder = new DefaultEnginePoolBuilder(config);
+		for (int i = 0; i < 25; i++) {
+			if (i == 10) continue;
+			builder.addEntry(new EnginePoolEntry(new EngineSize("T" + i, i * 1000, i * 1000 + 999), 1));
+		}
+		final EngineSize overlap = new EngineSize("X", 20500, 30000);
+		builder.addEntry(new EnginePoolEntry(overlap, 1));
+		pool = builder.build();
+		
+		assertEquals("T0", pool.calcEngineSize(0).getName());
+		assertEquals("T9", pool.calcEngineSize(9999).getName());
+		assertNull(pool.calcEngineSize(10000));
+		assertNull(pool.calcEngineSize(10999));
+		assertEquals("T11", pool.calcEngineSize(11000).getName());
+		assertEquals("T20", pool.calcEngineSize(20999).getName());
+		assertEquals("T24", pool.calcEngineSize(24999).getName());
+		assertEquals(overlap, pool.calcEngineSize(25000));
+		assertEquals(overlap, pool.calcEngineSize(30000));
+		assertNull(pool.calcEngineSize(30001));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidSize() {
+		log.trace("testInvalidSize()");
+		
+		new DefaultEnginePoolBuilder(config)
+			.addEntry(new EnginePoolEntry(new EngineSize("S", 100, 99), 1))
+			.build();
+	}
+	
+	@Test
+	public void testAllocateSlot() {
+		log.trace("testAllocateSlot()");
+		
+		final EnginePoolEntry entry = new EnginePoolEntry(SMALL, 2);
+		entry.setScansPerEngine(2);
+		pool = new DefaultEnginePoolBuilder(config).addEntry(entry).build();
+		
+		// no slots until an engine is scanning with a registered scan
+		assertThat(pool.allocateSlot(SMALL, 2), is(nullValue()));
+		final DynamicEngine engine = pool.allocateEngine(SMALL, State.UNPROVISIONED);
+		assertThat(pool.allocateSlot(SMALL, 2), is(nullValue()));
+		pool.addScan(engine, 1);
+		assertEquals(1, pool.getFreeSlots(SMALL));
+		
+		assertThat(pool.allocateSlot(SMALL, 2), is(engine));
+		assertThat(engine.getScanCount(), is(2));
+		assertEquals(0, pool.getFreeSlots(SMALL));
+		assertThat(pool.allocateSlot(SMALL, 3), is(nullValue()));
+		
+		// engine stays scanning until all slots are free
+		assertEquals(1, pool.releaseScan(engine, 1));
+		assertEquals(State.SCANNING, engine.getState());
+		assertEquals(0, pool.releaseScan(engine, 2));
+		pool.idleEngine(engine);
+		assertEquals(1, pool.getEngineCount(SMALL, State.IDLE));
+		
+		// sizes without concurrent scans have no slots
+		assertThat(pool.getScansPerEngine(MEDIUM.getName()), is(1));
+	}
+	
+	@Test
+	public void testScheduledMinimum() {
+		log.trace("testScheduledMinimum()");
+		
+		final EnginePoolEntry entry = new EnginePoolEntry(SMALL, 3);
+		entry.setMinimum(1);
+		entry.getSchedules().add(new WarmSchedule("MON-FRI", "08:00", "18:00", 2));
+		entry.getSchedules().add(new WarmSchedule("FRI", "22:00", "02:00", 5));
+		
+		// 2019-01-14 is a Monday
+		assertThat(entry.getMinimum(new DateTime(2019, 1, 14, 7, 59)), is(1));
+		assertThat(entry.getMinimum(new DateTime(2019, 1, 14, 8, 0)), is(2));
+		assertThat(entry.getMinimum(new DateTime(2019, 1, 14, 18, 0)), is(1));
+		assertThat(entry.getMinimum(new DateTime(2019, 1, 19, 12, 0)), is(1));
+		
+		// past midnight belongs to Friday, capped at the engine count
+		assertThat(entry.getMinimum(new DateTime(2019, 1, 18, 23, 0)), is(3));
+		assertThat(entry.getMinimum(new DateTime(2019, 1, 19, 1, 0)), is(3));
+		assertThat(entry.getMinimum(new DateTime(2019, 1, 15, 1, 0)), is(1));
+		
+		assertThat(new WarmSchedule("SAT-MON", "00:00", "00:00", 1).isActive(new DateTime(2019, 1, 20, 12, 0)), is(true));
+		assertThat(new WarmSchedule("SAT-MON", "00:00", "00:00", 1).isActive(new DateTime(2019, 1, 16, 12, 0)), is(false));
 	}
 	
 }
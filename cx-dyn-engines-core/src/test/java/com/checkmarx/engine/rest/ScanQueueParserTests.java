@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.rest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequest.ScanStatus;
+import com.checkmarx.engine.rest.model.ScanRequestSummary;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.joda.JodaModule;
+
+public class ScanQueueParserTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(ScanQueueParserTests.class);
+
+	private static final String SCANS_QUEUE = "[" 
+			+ "{\"id\":1000001,\"runId\":\"run-1\",\"stage\":{\"id\":3,\"value\":\"Queued\"},"
+			+ "\"stageDetails\":null,\"teamId\":\"00000000-1111-1111-b111-989c9070eb11\","
+			+ "\"project\":{\"id\":42,\"name\":\"project-a\",\"link\":{\"rel\":\"project\",\"uri\":\"/projects/42\"}},"
+			+ "\"engine\":null,\"languages\":[{\"id\":1,\"name\":\"Java\"},{\"id\":2,\"name\":\"JavaScript\"}],"
+			+ "\"dateCreated\":\"2019-01-15T10:00:00.000Z\",\"queuedOn\":\"2019-01-15T10:00:05.000Z\","
+			+ "\"engineStartedOn\":null,\"loc\":25000,\"isIncremental\":false,\"isPublic\":true,\"origin\":\"Portal\"},"
+			+ "{\"id\":1000002,\"runId\":\"run-2\",\"stage\":{\"id\":4,\"value\":\"Scanning\"},"
+			+ "\"project\":{\"id\":43,\"name\":\"project-b\"},\"engine\":{\"id\":7,\"link\":null},"
+			+ "\"languages\":[],\"loc\":null,\"isIncremental\":true,\"isPublic\":false}"
+			+ "]";
+	
+	// configured like the Spring Boot ObjectMapper
+	private final ObjectMapper mapper = new ObjectMapper()
+			.registerModule(new JodaModule())
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+	private final ScanQueueParser parser = new ScanQueueParser(mapper);
+
+	@Test
+	public void testParse() throws Exception {
+		log.trace("testParse()");
+		
+		final List<ScanRequestSummary> scans = parser.parse(SCANS_QUEUE.getBytes(StandardCharsets.UTF_8));
+		assertThat(scans.size(), is(2));
+		
+		final ScanRequestSummary queued = scans.get(0);
+		assertThat(queued.getId(), is(1000001L));
+		assertThat(queued.getStatus(), is(ScanStatus.Queued));
+		assertThat(queued.getEngineId(), is(ScanRequestSummary.NONE));
+		assertThat(queued.getLoc(), is(25000));
+		assertFalse(queued.isBound());
+		
+		final ScanRequestSummary scanning = scans.get(1);
+		assertThat(scanning.getId(), is(1000002L));
+		assertThat(scanning.getStatus(), is(ScanStatus.Scanning));
+		assertThat(scanning.getEngineId(), is(7L));
+		assertThat(scanning.getLoc(), is(0));
+		assertFalse(scanning.isBound());
+	}
+
+	@Test
+	public void testBindMatchesFullBinding() throws Exception {
+		log.trace("testBindMatchesFullBinding()");
+		
+		final byte[] content = SCANS_QUEUE.getBytes(StandardCharsets.UTF_8);
+		final ScanRequest[] expected = mapper.readValue(content, ScanRequest[].class);
+		final List<ScanRequestSummary> scans = parser.parse(content);
+		
+		for (int i = 0; i < expected.length; i++) {
+			final ScanRequest scan = scans.get(i).getScan();
+			assertTrue(scans.get(i).isBound());
+			assertEquals(expected[i].toString(true), scan.toString(true));
+		}
+	}
+
+	@Test
+	public void testParseEmpty() throws Exception {
+		log.trace("testParseEmpty()");
+		
+		assertTrue(parser.parse("[]".getBytes(StandardCharsets.UTF_8)).isEmpty());
+	}
+
+}
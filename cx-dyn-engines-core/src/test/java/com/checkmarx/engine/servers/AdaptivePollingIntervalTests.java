@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AdaptivePollingIntervalTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(AdaptivePollingIntervalTests.class);
+
+	@Test
+	public void testBackoffAndTighten() {
+		log.trace("testBackoffAndTighten()");
+		
+		final AdaptivePollingInterval interval = new AdaptivePollingInterval(15, 5, 30);
+		assertEquals(15000L, interval.getCurrentMillis());
+		
+		assertEquals(30000L, interval.next(false));
+		assertEquals(30000L, interval.next(false));
+		assertEquals(5000L, interval.next(true));
+		assertEquals(5000L, interval.next(true));
+		assertEquals(10000L, interval.next(false));
+		assertEquals(20000L, interval.next(false));
+		assertEquals(30000L, interval.next(false));
+	}
+
+	@Test
+	public void testInitialIsBounded() {
+		log.trace("testInitialIsBounded()");
+		
+		assertEquals(5000L, new AdaptivePollingInterval(1, 5, 30).getCurrentMillis());
+		assertEquals(30000L, new AdaptivePollingInterval(60, 5, 30).getCurrentMillis());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidRange() {
+		new AdaptivePollingInterval(15, 30, 5);
+	}
+
+}
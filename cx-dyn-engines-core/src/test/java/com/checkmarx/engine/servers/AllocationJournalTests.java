@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.engine;
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.scan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.DefaultEnginePoolBuilder;
+import com.checkmarx.engine.domain.DynamicEngine;
+import com.checkmarx.engine.domain.DynamicEngine.State;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EnginePoolConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.domain.Host;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.servers.AllocationJournal.Assignment;
+import com.checkmarx.engine.servers.EngineLaunchTests.RegisteringCxEngineApi;
+import com.checkmarx.engine.servers.EngineLaunchTests.StubEngines;
+import com.checkmarx.engine.utils.ExecutorRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+
+public class AllocationJournalTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(AllocationJournalTests.class);
+	
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final EngineSize size = new EngineSize("S", 0, 99999);
+	private CxConfig config;
+	private File journalFile;
+	private File snapshotFile;
+	private EngineManager engineManager;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		journalFile = Files.createTempFile("allocation-journal", ".dat").toFile();
+		journalFile.delete();
+		snapshotFile = new File(journalFile.getPath() + ".snapshot");
+		
+		config = new CxConfig();
+		config.setAllocationJournal(true);
+		config.setJournalFile(journalFile.getPath());
+		config.setEngineReuseWindowSecs(0);
+	}
+	
+	@After
+	public void tearDown() {
+		if (engineManager != null) engineManager.stop();
+		journalFile.delete();
+		snapshotFile.delete();
+	}
+	
+	@Test
+	public void testReplay() throws Exception {
+		log.trace("testReplay()");
+		
+		final AllocationJournal journal = open();
+		journal.assign(1, 10, "engine-1");
+		journal.assign(2, 10, "engine-1");
+		journal.assign(3, 11, "engine-2");
+		journal.release(1);
+		journal.unregister(11);
+		journal.onStateChange(new DynamicEngine("engine-1", "S", 3600), State.IDLE, State.SCANNING);
+		
+		// not closed, as after a crash
+		final AllocationJournal replayed = open();
+		final List<Assignment> assignments = replayed.getAssignments();
+		assertEquals(1, assignments.size());
+		assertEquals(2, assignments.get(0).getScanId());
+		assertEquals(10, assignments.get(0).getCxEngineId());
+		assertEquals("engine-1", assignments.get(0).getEngineName());
+		assertEquals(State.SCANNING, replayed.getEngineState("engine-1"));
+	}
+	
+	@Test
+	public void testCompact() throws Exception {
+		log.trace("testCompact()");
+		
+		final AllocationJournal journal = open();
+		journal.assign(1, 10, "engine-1");
+		journal.compact();
+		assertTrue(snapshotFile.exists());
+		assertEquals(AllocationJournal.HEADER_SIZE, journal.getJournalUsedBytes());
+		
+		journal.assign(2, 10, "engine-1");
+		journal.release(1);
+		
+		final AllocationJournal replayed = open();
+		assertEquals(1, replayed.getAssignmentCount());
+		assertEquals(2, replayed.getAssignments().get(0).getScanId());
+	}
+	
+	@Test
+	public void testCompactWhenFull() throws Exception {
+		log.trace("testCompactWhenFull()");
+		
+		final AllocationJournal journal = open();
+		for (int i = 1; i <= 100000; i++) {
+			journal.assign(i, 10, "engine-1");
+			if (i > 1) journal.release(i - 1);
+		}
+		assertTrue(journal.getSnapshotCount() > 0);
+		
+		final AllocationJournal replayed = open();
+		assertEquals(1, replayed.getAssignmentCount());
+		assertEquals(100000, replayed.getAssignments().get(0).getScanId());
+	}
+	
+	@Test
+	public void testTornRecord() throws Exception {
+		log.trace("testTornRecord()");
+		
+		final AllocationJournal journal = open();
+		journal.assign(1, 10, "engine-1");
+		journal.assign(2, 10, "engine-1");
+		
+		// corrupt the second record; each assign record is a header, then 27 bytes
+		final int second = AllocationJournal.HEADER_SIZE + AllocationJournal.RECORD_HEADER_SIZE + 27;
+		try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+			file.seek(second + AllocationJournal.RECORD_HEADER_SIZE + 1);
+			file.write(0xff);
+		}
+		
+		final AllocationJournal replayed = open();
+		assertEquals(1, replayed.getAssignmentCount());
+		assertEquals(1, replayed.getAssignments().get(0).getScanId());
+		
+		// appends continue after the last good record
+		replayed.assign(3, 10, "engine-1");
+		assertEquals(2, open().getAssignmentCount());
+	}
+	
+	@Test
+	public void testAdoptEngine() throws Exception {
+		log.trace("testAdoptEngine()");
+		
+		final AllocationJournal journal = open();
+		final EnginePool pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+				.addEntry(new EnginePoolEntry(size, 2)).build();
+		final RegisteringCxEngineApi cxClient = new RegisteringCxEngineApi();
+		final StubEngines engines = new StubEngines();
+		final BlockingQueue<ScanRequest> scansFinished = new LinkedBlockingQueue<>();
+		engineManager = new EngineManager(config, pool, cxClient, engines, new LinkedBlockingQueue<>(),
+				scansFinished, new ExecutorRegistry(), new LocRateScanDurationEstimator(config), null, journal, null);
+		
+		final DynamicEngine engine = pool.allocateEngine(size, State.UNPROVISIONED, State.IDLE);
+		engine.setHost(new Host(engine.getName(), "10.0.0.1", "http://10.0.0.1", DateTime.now()));
+		final DynamicEngine unprovisioned = pool.allocateEngine(size, State.UNPROVISIONED, State.LAUNCHING);
+		
+		// only a provisioned, idle engine is adopted
+		final List<ScanRequest> scans = Lists.newArrayList(scan(1, "Scanning", 7L));
+		assertFalse(engineManager.adoptEngine(engine(8, false), unprovisioned, scans));
+		assertTrue(engineManager.adoptEngine(engine(7, false), engine, scans));
+		assertEquals(1, pool.getEngineCount(size, State.SCANNING));
+		assertEquals(1, journal.getAssignmentCount());
+		assertEquals(State.SCANNING, journal.getEngineState(engine.getName()));
+		
+		// the adopted scan finishing unregisters and idles the engine
+		engineManager.run();
+		scansFinished.put(scan(1, "Finished", 7L));
+		final long timeout = System.currentTimeMillis() + 5000;
+		while (pool.getEngineCount(size, State.IDLE) < 1 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, pool.getEngineCount(size, State.IDLE));
+		assertEquals(1, cxClient.unregisterCount.get());
+		assertEquals(0, journal.getAssignmentCount());
+	}
+	
+	private AllocationJournal open() throws Exception {
+		final AllocationJournal journal = new AllocationJournal(config, mapper);
+		journal.open();
+		return journal;
+	}
+
+}
@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EngineSize;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * Replays a trace of scan arrivals against a simulated engine pool entry,
+ * once reactively and once with the warm pool raised by an {@link ArrivalForecaster},
+ * and reports the scan wait for an engine saved by forecasting.
+ * <br/> <br/>
+ * The forecaster learns online from the trace, as it does in production,
+ * so the first week of a trace shows no savings.
+ * A trace is read with {@link #readTrace(Reader)}, one {@code queuedOn,size} line per scan.
+ */
+public class ArrivalBacktest {
+	
+	private static final Logger log = LoggerFactory.getLogger(ArrivalBacktest.class);
+	
+	private final CxConfig config;
+	private final EnginePoolEntry entry;
+	private final long launchMillis;
+	private final long scanMillis;
+	private final long tickMillis;
+	private final long idleMillis;
+	
+	/**
+	 * @param config forecast settings; the idle monitor interval is the warm pool refill interval
+	 * @param entry the pool entry to simulate
+	 * @param launchMillis time to launch an engine
+	 * @param scanMillis time each scan runs
+	 * @param idleMillis time an idle engine above the minimum is kept before it is expired
+	 */
+	public ArrivalBacktest(CxConfig config, EnginePoolEntry entry,
+			long launchMillis, long scanMillis, long idleMillis) {
+		this.config = config;
+		this.entry = entry;
+		this.launchMillis = launchMillis;
+		this.scanMillis = scanMillis;
+		this.idleMillis = idleMillis;
+		this.tickMillis = TimeUnit.SECONDS.toMillis(config.getIdleMonitorSecs());
+	}
+	
+	/**
+	 * Reads a trace, one {@code queuedOn,size} line per scan, e.g. {@code 2019-01-14T02:00:00,S}.
+	 * Blank lines and lines starting with {@code #} are skipped.
+	 */
+	public static List<Arrival> readTrace(Reader reader) throws IOException {
+		final List<Arrival> trace = Lists.newArrayList();
+		final BufferedReader lines = new BufferedReader(reader);
+		String line;
+		while ((line = lines.readLine()) != null) {
+			line = line.trim();
+			if (Strings.isNullOrEmpty(line) || line.startsWith("#")) continue;
+			
+			final String[] fields = line.split(",");
+			if (fields.length != 2) {
+				throw new IOException("Invalid trace line: " + line);
+			}
+			trace.add(new Arrival(DateTime.parse(fields[0].trim()), fields[1].trim()));
+		}
+		return trace;
+	}
+	
+	public Report run(List<Arrival> trace) {
+		final EngineSize size = entry.getScanSize();
+		final List<Arrival> arrivals = Lists.newArrayList();
+		trace.forEach((arrival) -> {
+			if (size.getName().equals(arrival.size)) arrivals.add(arrival);
+		});
+		arrivals.sort(Comparator.comparing(Arrival::getQueuedOn));
+		
+		final Simulation reactive = new Simulation(null);
+		reactive.replay(arrivals);
+		
+		final CxConfig forecastConfig = new CxConfig();
+		forecastConfig.setForecastAlpha(config.getForecastAlpha());
+		forecastConfig.setForecastLeadMins(config.getForecastLeadMins());
+		forecastConfig.setForecastFile(null);
+		final Simulation predictive = new Simulation(new ArrivalForecaster(forecastConfig, null));
+		predictive.replay(arrivals);
+		
+		final Report report = new Report(size.getName(), arrivals.size(), reactive, predictive);
+		log.info("Backtest complete: {}", report);
+		return report;
+	}
+	
+	/**
+	 * A scan arrival in a recorded trace
+	 */
+	public static class Arrival {
+		
+		private final DateTime queuedOn;
+		private final String size;
+		
+		public Arrival(DateTime queuedOn, String size) {
+			this.queuedOn = queuedOn;
+			this.size = size;
+		}
+		
+		public DateTime getQueuedOn() {
+			return queuedOn;
+		}
+		
+		public String getSize() {
+			return size;
+		}
+	
+	}
+	
+	/**
+	 * A simulated engine; idle once ready and not busy
+	 */
+	private static class Engine {
+		
+		private long readyAt;
+		private long busyUntil;
+		
+		Engine(long readyAt) {
+			this.readyAt = readyAt;
+		}
+		
+		long availableAt() {
+			return Math.max(readyAt, busyUntil);
+		}
+	
+	}
+	
+	private class Simulation {
+		
+		private final ArrivalForecaster forecaster;
+		private final List<Engine> engines = Lists.newArrayList();
+		private long nextTick = -1;
+		private long waitMillis;
+		private long maxWaitMillis;
+		private int warmHits;
+		private int launches;
+		private long idleEngineMillis;
+		
+		Simulation(ArrivalForecaster forecaster) {
+			this.forecaster = forecaster;
+		}
+		
+		void replay(List<Arrival> arrivals) {
+			for (Arrival arrival : arrivals) {
+				final long now = arrival.queuedOn.getMillis();
+				advance(now);
+				onArrival(now);
+				if (forecaster != null) forecaster.record(entry.getScanSize(), arrival.queuedOn);
+			}
+		}
+		
+		/**
+		 * Runs the warm pool ticks up to the supplied time
+		 */
+		private void advance(long now) {
+			if (nextTick < 0) nextTick = now - now % tickMillis;
+			while (nextTick <= now) {
+				tick(nextTick);
+				nextTick += tickMillis;
+			}
+		}
+		
+		private void tick(long now) {
+			final int minimum = calcMinimum(now);
+			
+			// expire idle engines above the minimum
+			int warm = 0;
+			for (Engine engine : Lists.newArrayList(engines)) {
+				final long availableAt = engine.availableAt();
+				if (availableAt > now && engine.busyUntil > now) continue;
+				if (availableAt <= now - idleMillis && warm >= minimum) {
+					engines.remove(engine);
+					continue;
+				}
+				warm++;
+				if (availableAt <= now) idleEngineMillis += tickMillis;
+			}
+			
+			// launch engines up to the minimum
+			while (warm < minimum && engines.size() < entry.getCount()) {
+				engines.add(new Engine(now + launchMillis));
+				launches++;
+				warm++;
+			}
+		}
+		
+		private int calcMinimum(long now) {
+			final DateTime time = new DateTime(now);
+			final int minimum = entry.getMinimum(time);
+			if (forecaster == null) return minimum;
+			
+			return Math.max(minimum, Math.min(forecaster.forecastEngines(entry.getScanSize(), time), entry.getCount()));
+		}
+		
+		private void onArrival(long now) {
+			Engine engine = null;
+			for (Engine candidate : engines) {
+				if (engine == null || candidate.availableAt() < engine.availableAt()) engine = candidate;
+			}
+			if ((engine == null || engine.availableAt() > now + launchMillis) && engines.size() < entry.getCount()) {
+				engine = new Engine(now + launchMillis);
+				engines.add(engine);
+				launches++;
+			}
+			if (engine == null) return;
+			
+			final long start = Math.max(now, engine.availableAt());
+			final long wait = start - now;
+			if (wait == 0) warmHits++;
+			waitMillis += wait;
+			maxWaitMillis = Math.max(maxWaitMillis, wait);
+			engine.busyUntil = start + scanMillis;
+		}
+	
+	}
+	
+	/**
+	 * Backtest results, reactive vs. forecast warm pool
+	 */
+	public static class Report {
+		
+		private final String size;
+		private final int scans;
+		private final long reactiveWaitMillis;
+		private final long predictiveWaitMillis;
+		private final long reactiveMaxWaitMillis;
+		private final long predictiveMaxWaitMillis;
+		private final int reactiveWarmHits;
+		private final int predictiveWarmHits;
+		private final int reactiveLaunches;
+		private final int predictiveLaunches;
+		private final long reactiveIdleEngineMillis;
+		private final long predictiveIdleEngineMillis;
+		
+		private Report(String size, int scans, Simulation reactive, Simulation predictive) {
+			this.size = size;
+			this.scans = scans;
+			this.reactiveWaitMillis = reactive.waitMillis;
+			this.predictiveWaitMillis = predictive.waitMillis;
+			this.reactiveMaxWaitMillis = reactive.maxWaitMillis;
+			this.predictiveMaxWaitMillis = predictive.maxWaitMillis;
+			this.reactiveWarmHits = reactive.warmHits;
+			this.predictiveWarmHits = predictive.warmHits;
+			this.reactiveLaunches = reactive.launches;
+			this.predictiveLaunches = predictive.launches;
+			this.reactiveIdleEngineMillis = reactive.idleEngineMillis;
+			this.predictiveIdleEngineMillis = predictive.idleEngineMillis;
+		}
+		
+		public String getSize() {
+			return size;
+		}
+		
+		public int getScans() {
+			return scans;
+		}
+		
+		/**
+		 * @return total scan wait for an engine saved by forecasting
+		 */
+		public long getSavedMillis() {
+			return reactiveWaitMillis - predictiveWaitMillis;
+		}
+		
+		/**
+		 * @return additional time engines sat idle due to forecasting, i.e. the cost of the savings
+		 */
+		public long getExtraIdleEngineMillis() {
+			return predictiveIdleEngineMillis - reactiveIdleEngineMillis;
+		}
+		
+		public long getReactiveWaitMillis() {
+			return reactiveWaitMillis;
+		}
+		
+		public long getPredictiveWaitMillis() {
+			return predictiveWaitMillis;
+		}
+		
+		public int getReactiveWarmHits() {
+			return reactiveWarmHits;
+		}
+		
+		public int getPredictiveWarmHits() {
+			return predictiveWarmHits;
+		}
+		
+		@Override
+		public String toString() {
+			return MoreObjects.toStringHelper(this)
+					.add("size", size)
+					.add("scans", scans)
+					.add("savedSecs", TimeUnit.MILLISECONDS.toSeconds(getSavedMillis()))
+					.add("reactiveWaitSecs", TimeUnit.MILLISECONDS.toSeconds(reactiveWaitMillis))
+					.add("predictiveWaitSecs", TimeUnit.MILLISECONDS.toSeconds(predictiveWaitMillis))
+					.add("reactiveMaxWaitSecs", TimeUnit.MILLISECONDS.toSeconds(reactiveMaxWaitMillis))
+					.add("predictiveMaxWaitSecs", TimeUnit.MILLISECONDS.toSeconds(predictiveMaxWaitMillis))
+					.add("reactiveWarmHits", reactiveWarmHits)
+					.add("predictiveWarmHits", predictiveWarmHits)
+					.add("reactiveLaunches", reactiveLaunches)
+					.add("predictiveLaunches", predictiveLaunches)
+					.add("extraIdleEngineMins", TimeUnit.MILLISECONDS.toMinutes(getExtraIdleEngineMillis()))
+					.toString();
+		}
+	
+	}
+
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.servers.ArrivalBacktest.Arrival;
+import com.checkmarx.engine.servers.ArrivalBacktest.Report;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ArrivalForecasterTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(ArrivalForecasterTests.class);
+	
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final EngineSize size = new EngineSize("S", 0, 99999);
+	private CxConfig config;
+	private File modelFile;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		modelFile = Files.createTempFile("arrival-forecast", ".json").toFile();
+		modelFile.delete();
+		
+		config = new CxConfig();
+		config.setForecastAlpha(0.5);
+		config.setForecastLeadMins(15);
+		config.setForecastFile(modelFile.getPath());
+	}
+	
+	@After
+	public void tearDown() {
+		modelFile.delete();
+	}
+	
+	@Test
+	public void testSeasonality() throws Exception {
+		log.trace("testSeasonality()");
+		
+		final ArrivalForecaster forecaster = new ArrivalForecaster(config, mapper);
+		
+		// 2019-01-14 is a Monday; 4 scans at 02:00
+		final DateTime monday = new DateTime(2019, 1, 14, 2, 0);
+		recordWave(forecaster, monday, 4);
+		
+		// same time next week is forecast, not the next day
+		final DateTime nextMonday = monday.plusWeeks(1);
+		assertEquals(4, forecaster.forecastEngines(size, nextMonday));
+		final ArrivalForecaster reloaded = new ArrivalForecaster(config, mapper);
+		assertEquals(0, reloaded.forecastEngines(size, monday.plusDays(1)));
+		
+		// quiet week is learned as zero, weighted by alpha
+		assertEquals(2.0, forecaster.forecast(size, nextMonday.plusWeeks(1), 15 * MINUTE), 0.01);
+	}
+	
+	@Test
+	public void testPartialSlot() throws Exception {
+		log.trace("testPartialSlot()");
+		
+		final ArrivalForecaster forecaster = new ArrivalForecaster(config, mapper);
+		final DateTime monday = new DateTime(2019, 1, 14, 2, 0);
+		recordWave(forecaster, monday, 6);
+		
+		// lead time covers a third of the 02:00 slot
+		final DateTime before = monday.plusWeeks(1).minusMinutes(10);
+		assertEquals(2.0, forecaster.forecast(size, before, 15 * MINUTE), 0.01);
+		assertEquals(0.0, forecaster.forecast(size, before, 10 * MINUTE), 0.01);
+	}
+	
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		log.trace("testSaveAndLoad()");
+		
+		final DateTime monday = new DateTime(2019, 1, 14, 2, 0);
+		recordWave(new ArrivalForecaster(config, mapper), monday, 3);
+		assertTrue(modelFile.exists());
+		
+		final ArrivalForecaster reloaded = new ArrivalForecaster(config, mapper);
+		assertEquals(3, reloaded.forecastEngines(size, monday.plusWeeks(1)));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidAlpha() {
+		log.trace("testInvalidAlpha()");
+		
+		config.setForecastAlpha(0);
+		new ArrivalForecaster(config, mapper);
+	}
+	
+	@Test
+	public void testBacktest() throws Exception {
+		log.trace("testBacktest()");
+		
+		final List<Arrival> trace = ArrivalBacktest.readTrace(new InputStreamReader(
+				getClass().getResourceAsStream("/traces/nightly-ci.csv"), StandardCharsets.UTF_8));
+		
+		final CxConfig backtestConfig = new CxConfig();
+		backtestConfig.setForecastLeadMins(10);
+		final ArrivalBacktest backtest = new ArrivalBacktest(backtestConfig, new EnginePoolEntry(size, 20),
+				8 * MINUTE, 20 * MINUTE, 10 * MINUTE);
+		final Report report = backtest.run(trace);
+		log.info("Backtest report: {}", report);
+		
+		assertEquals(225, report.getScans());
+		assertTrue(report.getSavedMillis() > 0);
+		assertTrue(report.getPredictiveWarmHits() > report.getReactiveWarmHits());
+	}
+	
+	/**
+	 * Records a wave of arrivals, then rolls past its slot
+	 */
+	private void recordWave(ArrivalForecaster forecaster, DateTime start, int scans) {
+		for (int i = 0; i < scans; i++) {
+			forecaster.record(size, start.plusSeconds(30 * i));
+		}
+		forecaster.forecast(size, start.plusHours(1), 0);
+	}
+
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.scan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.domain.EngineSize;
+
+public class BlockedScanQueueTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(BlockedScanQueueTests.class);
+	
+	private final EngineSize small = new EngineSize("S", 0, 19999);
+	private final EngineSize large = new EngineSize("L", 20000, 999999);
+	private final AtomicLong clock = new AtomicLong(1000);
+	private BlockedScanQueue queue;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		queue = new BlockedScanQueue(100, clock::get);
+	}
+
+	@Test
+	public void testOldestFirst() throws Exception {
+		log.trace("testOldestFirst()");
+		
+		queue.add(small, scan(1, "Queued", null));
+		clock.addAndGet(10);
+		queue.add(small, scan(2, "Queued", null));
+		assertFalse(queue.add(small, scan(2, "Queued", null)));
+		assertEquals(2, queue.size());
+		
+		assertEquals(1L, queue.poll(small, Arrays.asList(small)).getId());
+		assertEquals(2L, queue.poll(small, Arrays.asList(small)).getId());
+		assertNull(queue.poll(small, Arrays.asList(small)));
+	}
+	
+	@Test
+	public void testRemove() throws Exception {
+		log.trace("testRemove()");
+		
+		queue.add(small, scan(1, "Queued", null));
+		queue.add(small, scan(2, "Queued", null));
+		queue.add(small, scan(3, "Queued", null));
+		
+		assertTrue(queue.remove(2));
+		assertFalse(queue.remove(2));
+		assertEquals(2, queue.size(small));
+		assertEquals(1L, queue.poll(small, Arrays.asList(small)).getId());
+		assertEquals(3L, queue.poll(small, Arrays.asList(small)).getId());
+		assertEquals(0, queue.size());
+	}
+	
+	@Test
+	public void testAging() throws Exception {
+		log.trace("testAging()");
+		
+		queue.add(small, scan(1, "Queued", null, 1000));
+		clock.addAndGet(50);
+		queue.add(large, scan(2, "Queued", null, 50000));
+		
+		// large scan has a head start on a large engine
+		assertEquals(2L, queue.poll(large, Arrays.asList(large, small)).getId());
+		
+		clock.addAndGet(200);
+		queue.add(large, scan(3, "Queued", null, 50000));
+		
+		// small scan has waited longer than the head start
+		assertEquals(1L, queue.poll(large, Arrays.asList(large, small)).getId());
+		assertEquals(3L, queue.poll(large, Arrays.asList(large, small)).getId());
+		
+		// small scans never run on small engines
+		assertNull(queue.poll(small, Arrays.asList(small)));
+	}
+	
+	@Test
+	public void testRedrivenKeepsPriority() throws Exception {
+		log.trace("testRedrivenKeepsPriority()");
+		
+		queue.add(small, scan(1, "Queued", null));
+		clock.addAndGet(10);
+		queue.add(small, scan(2, "Queued", null));
+		
+		// re-driven scan is blocked again, ahead of the scan blocked after it
+		assertEquals(1L, queue.poll(small, Arrays.asList(small)).getId());
+		clock.addAndGet(10);
+		queue.add(small, scan(1, "Queued", null));
+		assertEquals(20, queue.getMaxWaitMillis());
+		assertEquals(1L, queue.poll(small, Arrays.asList(small)).getId());
+		
+		// allocated scan is forgotten
+		queue.remove(1);
+		queue.add(small, scan(1, "Queued", null));
+		assertEquals(2L, queue.poll(small, Arrays.asList(small)).getId());
+	}
+
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.awaitCount;
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.scan;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.DefaultEnginePoolBuilder;
+import com.checkmarx.engine.domain.DynamicEngine.State;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EnginePoolConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.servers.EngineLaunchTests.RegisteringCxEngineApi;
+import com.checkmarx.engine.servers.EngineLaunchTests.StubEngines;
+import com.checkmarx.engine.utils.ExecutorRegistry;
+
+public class ConcurrentScanTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(ConcurrentScanTests.class);
+	
+	private final EngineSize size = new EngineSize("S", 0, 99999);
+	private final RegisteringCxEngineApi cxClient = new RegisteringCxEngineApi();
+	private final StubEngines engines = new StubEngines();
+	private final BlockingQueue<ScanRequest> scansQueued = new LinkedBlockingQueue<>();
+	private final BlockingQueue<ScanRequest> scansFinished = new LinkedBlockingQueue<>();
+	private CxConfig config;
+	private EnginePool pool;
+	private EngineManager engineManager;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		config = new CxConfig();
+		config.setEngineReuseWindowSecs(0);
+		engines.provisionLatch.countDown();
+		
+		final EnginePoolEntry entry = new EnginePoolEntry(size, 1);
+		entry.setScansPerEngine(2);
+		pool = new DefaultEnginePoolBuilder(new EnginePoolConfig()).addEntry(entry).build();
+	}
+	
+	@After
+	public void tearDown() {
+		if (engineManager != null) engineManager.stop();
+	}
+	
+	@Test
+	public void testScansPacked() throws Exception {
+		log.trace("testScansPacked()");
+		
+		assertScansPacked();
+	}
+	
+	@Test
+	public void testScansPackedOnEventLoop() throws Exception {
+		log.trace("testScansPackedOnEventLoop()");
+		
+		config.setEngineEventLoop(true);
+		assertScansPacked();
+	}
+	
+	@Test
+	public void testUntrackedScan() throws Exception {
+		log.trace("testUntrackedScan()");
+		
+		engineManager = new EngineManager(config, pool, cxClient, engines, scansQueued, scansFinished, 
+				new ExecutorRegistry(), new LocRateScanDurationEstimator(config), null, null, null);
+		engineManager.run();
+		
+		scansQueued.put(scan(1, "Queued", null, 1000));
+		awaitFreeSlots(1);
+		
+		// the CxManager started another scan on the engine, so the engine stays registered
+		cxClient.setQueue(scan(9, "Scanning", 1L));
+		scansFinished.put(scan(1, "Finished", 1L));
+		awaitFreeSlots(1);
+		Thread.sleep(200);
+		assertEquals(0, cxClient.unregisterCount.get());
+		assertEquals(1, pool.getEngineCount(size, State.SCANNING));
+		
+		cxClient.setQueue();
+		scansFinished.put(scan(9, "Finished", 1L));
+		awaitCount(cxClient.unregisterCount, 1);
+		assertEquals(1, cxClient.unregisterCount.get());
+	}
+	
+	@Test
+	public void testEngineUpdateRetried() throws Exception {
+		log.trace("testEngineUpdateRetried()");
+		
+		engineManager = new EngineManager(config, pool, cxClient, engines, scansQueued, scansFinished, 
+				new ExecutorRegistry(), new LocRateScanDurationEstimator(config), null, null, null);
+		engineManager.run();
+		
+		scansQueued.put(scan(1, "Queued", null, 1000));
+		awaitFreeSlots(1);
+		
+		// first update for the second scan fails, and is retried
+		cxClient.updateErrors.set(1);
+		scansQueued.put(scan(2, "Queued", null, 2000));
+		awaitCount(cxClient.updateCount, 1);
+		assertEquals(0, cxClient.updateErrors.get());
+		assertEquals(2000, cxClient.lastUpdated.getMaxLoc());
+		awaitFreeSlots(0);
+	}
+	
+	private void assertScansPacked() throws Exception {
+		engineManager = new EngineManager(config, pool, cxClient, engines, scansQueued, scansFinished, 
+				new ExecutorRegistry(), new LocRateScanDurationEstimator(config), null, null, null);
+		engineManager.run();
+		
+		scansQueued.put(scan(1, "Queued", null, 1000));
+		awaitFreeSlots(1);
+		
+		// second scan shares the engine, widening its LOC range
+		scansQueued.put(scan(2, "Queued", null, 2000));
+		awaitCount(cxClient.updateCount, 1);
+		assertEquals(1, cxClient.registerCount.get());
+		assertEquals(1, pool.getEngineCount(size, State.SCANNING));
+		assertEquals(2000, cxClient.lastUpdated.getMaxLoc());
+		
+		// engine is full, third scan is blocked
+		scansQueued.put(scan(3, "Queued", null));
+		Thread.sleep(200);
+		assertEquals(1, cxClient.updateCount.get());
+		
+		// a finished scan frees its slot for the blocked scan, engine stays registered
+		scansFinished.put(scan(1, "Finished", 1L));
+		awaitCount(cxClient.updateCount, 2);
+		assertEquals(0, cxClient.unregisterCount.get());
+		assertEquals(1, pool.getEngineCount(size, State.SCANNING));
+		
+		// engine is idled and unregistered once all its scans finish
+		scansFinished.put(scan(2, "Finished", 1L));
+		scansFinished.put(scan(3, "Finished", 1L));
+		awaitCount(cxClient.unregisterCount, 1);
+		final long timeout = System.currentTimeMillis() + 5000;
+		while (pool.getEngineCount(size, State.IDLE) < 1 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, pool.getEngineCount(size, State.IDLE));
+		assertEquals(1, cxClient.unregisterCount.get());
+		assertEquals(1, cxClient.registerCount.get());
+	}
+	
+	private void awaitFreeSlots(int expected) throws InterruptedException {
+		final long timeout = System.currentTimeMillis() + 5000;
+		while (pool.getFreeSlots(size) != expected && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, pool.getFreeSlots(size));
+	}
+	
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.awaitCount;
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.engine;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.rest.model.EngineServer;
+import com.checkmarx.engine.servers.ScanQueueProcessingTests.StubCxEngineApi;
+import com.google.common.collect.Lists;
+
+public class EngineBlockerTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(EngineBlockerTests.class);
+
+	private final StubCxEngineApi cxClient = new StubCxEngineApi();
+	private CxConfig config;
+	private EngineBlocker blocker;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		config = new CxConfig();
+		cxClient.setEngines(engine(1, false), engine(2, true), engine(3, false));
+	}
+	
+	@After
+	public void tearDown() {
+		if (blocker != null) blocker.stop();
+	}
+
+	@Test
+	public void testBlock() throws Exception {
+		log.trace("testBlock()");
+		
+		blocker = new EngineBlocker(cxClient, config);
+		blocker.run();
+		
+		assertTrue(blocker.block(1));
+		assertTrue(blocker.block(3));
+		
+		final long timeout = System.currentTimeMillis() + 5000;
+		while (blocker.getPendingCount() > 0 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, blocker.getPendingCount());
+		assertEquals(2, blocker.getBlockedCount());
+		assertEquals(2, cxClient.updateCount.get());
+	}
+	
+	@Test
+	public void testBatch() throws Exception {
+		log.trace("testBatch()");
+		
+		blocker = new EngineBlocker(cxClient, config);
+		assertTrue(blocker.block(1));
+		assertFalse(blocker.block(1));
+		assertTrue(blocker.block(2));
+		assertTrue(blocker.block(4));
+		assertEquals(3, blocker.getPendingCount());
+		
+		blocker.processBatch(Lists.newArrayList(1L, 2L, 4L));
+		blocker.stop();
+		
+		// one engine list call per batch, already blocked and unknown engines skipped
+		assertEquals(1, cxClient.getEnginesCount.get());
+		assertEquals(1, cxClient.updateCount.get());
+		assertEquals(1, blocker.getBlockedCount());
+		assertEquals(0, blocker.getPendingCount());
+		assertEquals(1, blocker.getBatchCount());
+	}
+	
+	@Test
+	public void testAwaitScan() throws Exception {
+		log.trace("testAwaitScan()");
+		
+		blocker = new EngineBlocker(cxClient, config);
+		
+		// engine stays unblocked while an assigned scan waits to start
+		blocker.awaitScan(1, 11);
+		assertTrue(blocker.onScanStarted(1, 10));
+		blocker.processBatch(Lists.newArrayList(1L));
+		assertEquals(0, blocker.getBlockedCount());
+		assertEquals(1, blocker.getAwaitedScanCount());
+		
+		// blocked once the assigned scan starts
+		assertTrue(blocker.onScanStarted(1, 11));
+		blocker.processBatch(Lists.newArrayList(1L));
+		blocker.stop();
+		
+		assertEquals(1, blocker.getBlockedCount());
+		assertEquals(0, blocker.getAwaitedScanCount());
+		assertEquals(0, blocker.getPendingCount());
+	}
+	
+	@Test
+	public void testConcurrentUpdate() throws Exception {
+		log.trace("testConcurrentUpdate()");
+		
+		blocker = new EngineBlocker(cxClient, config);
+		
+		// engine is widened while the block is waiting, the block re-reads it
+		final EngineServer widened = engine(1, false);
+		widened.setMaxLoc(5000);
+		final EngineServer[] updated = { widened, engine(2, true), engine(3, false) };
+		assertTrue(blocker.block(1));
+		blocker.withEngineLock(1, () -> {
+			blocker.processBatch(Lists.newArrayList(1L));
+			sleep(200);
+			cxClient.setEngines(updated);
+			return null;
+		});
+		awaitCount(cxClient.updateCount, 1);
+		assertEquals(5000, cxClient.lastUpdated.getMaxLoc());
+		assertTrue(cxClient.lastUpdated.isBlocked());
+		
+		// engine is assigned a scan while the block is waiting, the block is skipped
+		widened.setBlocked(false);
+		assertTrue(blocker.block(1));
+		blocker.withEngineLock(1, () -> {
+			blocker.processBatch(Lists.newArrayList(1L));
+			sleep(200);
+			blocker.awaitScan(1, 11);
+			return null;
+		});
+		blocker.stop();
+		assertEquals(1, cxClient.updateCount.get());
+		assertFalse(widened.isBlocked());
+		assertEquals(0, blocker.getPendingCount());
+	}
+	
+	@Test
+	public void testFailure() throws Exception {
+		log.trace("testFailure()");
+		
+		config.setEngineBlockAttempts(1);
+		cxClient.failUpdates = true;
+		blocker = new EngineBlocker(cxClient, config);
+		
+		assertTrue(blocker.block(1));
+		blocker.processBatch(Lists.newArrayList(1L));
+		blocker.stop();
+		
+		assertEquals(0, blocker.getBlockedCount());
+		assertEquals(1, blocker.getFailedCount());
+		assertEquals(0, blocker.getPendingCount());
+		
+		// engine can be requested again after giving up
+		assertTrue(blocker.block(1));
+	}
+	
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
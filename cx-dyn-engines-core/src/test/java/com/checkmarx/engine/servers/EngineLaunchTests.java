@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.awaitCount;
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.engine;
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.scan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.DefaultEnginePoolBuilder;
+import com.checkmarx.engine.domain.DynamicEngine;
+import com.checkmarx.engine.domain.DynamicEngine.State;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EnginePoolConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.domain.Host;
+import com.checkmarx.engine.rest.model.EngineServer;
+import com.checkmarx.engine.servers.ScanQueueProcessingTests.StubCxEngineApi;
+import com.checkmarx.engine.utils.ExecutorRegistry;
+
+public class EngineLaunchTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(EngineLaunchTests.class);
+
+	private final RegisteringCxEngineApi cxClient = new RegisteringCxEngineApi();
+	private final StubEngines engines = new StubEngines();
+	private final EngineSize size = new EngineSize("S", 0, 99999);
+	private EnginePool pool;
+	private EngineManager engineManager;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+				.addEntry(new EnginePoolEntry(size, 2))
+				.build();
+		final CxConfig config = new CxConfig();
+		engineManager = new EngineManager(config, pool, cxClient, engines, 
+				new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>(), new ExecutorRegistry(), 
+				new LocRateScanDurationEstimator(config), null, null, null);
+	}
+	
+	@After
+	public void tearDown() {
+		engines.provisionLatch.countDown();
+		engineManager.stop();
+	}
+
+	@Test
+	public void testLaunchDoesNotBlock() throws Exception {
+		log.trace("testLaunchDoesNotBlock()");
+		
+		final EngineManager.ScanLauncher launcher = engineManager.new ScanLauncher();
+		
+		// provisioning blocks, launcher thread returns immediately
+		launcher.onScanQueued(scan(1, "Queued", null));
+		launcher.onScanQueued(scan(2, "Queued", null));
+		assertTrue(engines.provisionStarted.await(5, TimeUnit.SECONDS));
+		assertEquals(0, cxClient.registerCount.get());
+		
+		engines.provisionLatch.countDown();
+		awaitCount(cxClient.registerCount, 2);
+		assertEquals(2, cxClient.registerCount.get());
+		assertEquals(2, engines.stageCount.get() / 4);
+	}
+	
+	@Test
+	public void testLaunchFailure() throws Exception {
+		log.trace("testLaunchFailure()");
+		
+		engines.failReady = true;
+		engines.provisionLatch.countDown();
+		
+		final EngineManager.ScanLauncher launcher = engineManager.new ScanLauncher();
+		launcher.onScanQueued(scan(1, "Queued", null));
+		launcher.onScanQueued(scan(2, "Queued", null));
+		awaitCount(engines.stopCount, 2);
+		
+		assertEquals(2, engines.stopCount.get());
+		assertEquals(0, cxClient.registerCount.get());
+		
+		// failed engines returned to the pool
+		int allocated = 0;
+		final long timeout = System.currentTimeMillis() + 5000;
+		while (allocated < 2 && System.currentTimeMillis() < timeout) {
+			if (pool.allocateEngine(size, State.UNPROVISIONED) != null) allocated++;
+			else Thread.sleep(10);
+		}
+		assertEquals(2, allocated);
+	}
+	
+	static class RegisteringCxEngineApi extends StubCxEngineApi {
+		
+		final AtomicInteger registerCount = new AtomicInteger();
+		
+		@Override
+		public EngineServer registerEngine(EngineServer cxEngine) {
+			try {
+				return engine(registerCount.incrementAndGet(), false);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+	}
+	
+	static class StubEngines implements CxEngines {
+		
+		final CountDownLatch provisionLatch = new CountDownLatch(1);
+		final CountDownLatch provisionStarted = new CountDownLatch(2);
+		final AtomicInteger stageCount = new AtomicInteger();
+		final AtomicInteger stopCount = new AtomicInteger();
+		volatile boolean failReady = false;
+
+		@Override
+		public List<DynamicEngine> listEngines() {
+			return null;
+		}
+
+		@Override
+		public void launch(DynamicEngine engine, EngineSize size, boolean waitForSpinup) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void provision(DynamicEngine engine, EngineSize size) {
+			provisionStarted.countDown();
+			try {
+				provisionLatch.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			stageCount.incrementAndGet();
+		}
+
+		@Override
+		public void awaitRunning(DynamicEngine engine) {
+			engine.setHost(new Host(engine.getName(), "10.0.0.1", "http://10.0.0.1", DateTime.now()));
+			stageCount.incrementAndGet();
+		}
+
+		@Override
+		public void awaitReady(DynamicEngine engine) {
+			if (failReady) throw new IllegalStateException("engine not responding");
+			stageCount.incrementAndGet();
+		}
+
+		@Override
+		public void runLaunchScripts(DynamicEngine engine) {
+			stageCount.incrementAndGet();
+		}
+
+		@Override
+		public void stop(DynamicEngine engine) {
+			stop(engine, false);
+		}
+
+		@Override
+		public void stop(DynamicEngine engine, boolean forceTerminate) {
+			stopCount.incrementAndGet();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.awaitCount;
+import static com.checkmarx.engine.servers.ScanQueueProcessingTests.scan;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.DefaultEnginePoolBuilder;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EnginePoolConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.servers.EngineLaunchTests.RegisteringCxEngineApi;
+import com.checkmarx.engine.servers.EngineLaunchTests.StubEngines;
+import com.checkmarx.engine.utils.ExecutorRegistry;
+
+public class EngineReuseTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(EngineReuseTests.class);
+
+	private final RegisteringCxEngineApi cxClient = new RegisteringCxEngineApi();
+	private final StubEngines engines = new StubEngines();
+	private final BlockingQueue<ScanRequest> scansQueued = new LinkedBlockingQueue<>();
+	private final BlockingQueue<ScanRequest> scansFinished = new LinkedBlockingQueue<>();
+	private final AtomicInteger finishedCount = new AtomicInteger();
+	private CxConfig config;
+	private EngineManager engineManager;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		config = new CxConfig();
+		engines.provisionLatch.countDown();
+	}
+	
+	@After
+	public void tearDown() {
+		if (engineManager != null) engineManager.stop();
+	}
+	
+	private EngineManager createManager(long estimateMillis) {
+		final EnginePool pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+				.addEntry(new EnginePoolEntry(new EngineSize("S", 0, 99999), 1))
+				.build();
+		final ScanDurationEstimator estimator = new ScanDurationEstimator() {
+			@Override
+			public long predict(ScanRequest scan) {
+				return estimateMillis;
+			}
+			@Override
+			public void onScanFinished(ScanRequest scan, long durationMillis) {
+				finishedCount.incrementAndGet();
+			}
+		};
+		return new EngineManager(config, pool, cxClient, engines, scansQueued, scansFinished, 
+				new ExecutorRegistry(), estimator, null, null, null);
+	}
+
+	@Test
+	public void testBusyEngineHandedOver() throws Exception {
+		log.trace("testBusyEngineHandedOver()");
+		
+		assertBusyEngineHandedOver();
+	}
+	
+	@Test
+	public void testBusyEngineHandedOverOnEventLoop() throws Exception {
+		log.trace("testBusyEngineHandedOverOnEventLoop()");
+		
+		config.setEngineEventLoop(true);
+		assertBusyEngineHandedOver();
+	}
+	
+	private void assertBusyEngineHandedOver() throws Exception {
+		engineManager = createManager(1000);
+		engineManager.run();
+		
+		scansQueued.put(scan(1, "Queued", null));
+		awaitCount(cxClient.registerCount, 1);
+		
+		// only engine is busy and finishing soon, scan 2 waits for it
+		scansQueued.put(scan(2, "Queued", null));
+		Thread.sleep(200);
+		assertEquals(1, cxClient.registerCount.get());
+		
+		// scan 1 finishes, engine goes straight to scan 2 without a new launch
+		scansFinished.put(scan(1, "Finished", 1L));
+		awaitCount(cxClient.registerCount, 2);
+		assertEquals(2, cxClient.registerCount.get());
+		assertEquals(1, engines.stageCount.get() / 4);
+		assertEquals(1, finishedCount.get());
+	}
+	
+	@Test
+	public void testReservationExpires() throws Exception {
+		log.trace("testReservationExpires()");
+		
+		config.setEngineReuseWindowSecs(1);
+		engineManager = createManager(200);
+		final EngineManager.ScanLauncher launcher = engineManager.new ScanLauncher();
+		
+		launcher.onScanQueued(scan(1, "Queued", null));
+		awaitCount(cxClient.registerCount, 1);
+		launcher.onScanQueued(scan(2, "Queued", null));
+		
+		engineManager.expireReservations();
+		assertEquals(0, scansQueued.size());
+		
+		// engine did not finish within the window, scan 2 is re-queued
+		Thread.sleep(1500);
+		engineManager.expireReservations();
+		assertEquals(1, scansQueued.size());
+		assertEquals(2L, scansQueued.poll().getId());
+	}
+	
+	@Test
+	public void testReuseDisabled() throws Exception {
+		log.trace("testReuseDisabled()");
+		
+		config.setEngineReuseWindowSecs(0);
+		engineManager = createManager(200);
+		final EngineManager.ScanLauncher launcher = engineManager.new ScanLauncher();
+		
+		launcher.onScanQueued(scan(1, "Queued", null));
+		awaitCount(cxClient.registerCount, 1);
+		launcher.onScanQueued(scan(2, "Queued", null));
+		
+		// scan 2 is blocked, not reserved
+		Thread.sleep(1500);
+		engineManager.expireReservations();
+		assertEquals(0, scansQueued.size());
+	}
+	
+	@Test
+	public void testBlockedScanRedriven() throws Exception {
+		log.trace("testBlockedScanRedriven()");
+		
+		config.setEngineReuseWindowSecs(0);
+		engineManager = createManager(200);
+		engineManager.run();
+		
+		scansQueued.put(scan(1, "Queued", null));
+		awaitCount(cxClient.registerCount, 1);
+		
+		// scan 2 is blocked, then re-driven when scan 1 idles the engine
+		scansQueued.put(scan(2, "Queued", null));
+		Thread.sleep(200);
+		assertEquals(1, cxClient.registerCount.get());
+		
+		scansFinished.put(scan(1, "Finished", 1L));
+		awaitCount(cxClient.registerCount, 2);
+		assertEquals(2, cxClient.registerCount.get());
+	}
+	
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.DefaultEnginePoolBuilder;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EnginePoolConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.model.ProgramLanguage;
+import com.checkmarx.engine.rest.model.Project;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequest.ScanStatus;
+import com.checkmarx.engine.rest.model.Stage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class EwmaScanDurationEstimatorTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(EwmaScanDurationEstimatorTests.class);
+	
+	private static final long FALLBACK_MILLIS = 99999;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final ScanDurationEstimator fallback = (scan) -> FALLBACK_MILLIS;
+	private CxConfig config;
+	private EnginePool pool;
+	private File modelFile;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		modelFile = Files.createTempFile("scan-estimates", ".json").toFile();
+		modelFile.delete();
+		
+		config = new CxConfig();
+		config.setScanEstimateAlpha(0.5);
+		config.setScanEstimateFile(modelFile.getPath());
+		
+		pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+				.addEntry(new EnginePoolEntry(new EngineSize("S", 0, 99999), 1))
+				.addEntry(new EnginePoolEntry(new EngineSize("L", 100000, 999999), 1))
+				.build();
+	}
+	
+	@After
+	public void tearDown() {
+		modelFile.delete();
+	}
+	
+	@Test
+	public void testLearning() throws Exception {
+		log.trace("testLearning()");
+		
+		final EwmaScanDurationEstimator estimator = new EwmaScanDurationEstimator(config, pool, fallback, mapper);
+		assertEquals(FALLBACK_MILLIS, estimator.predict(scan(1, 1, 1000, false, ScanStatus.Queued)));
+		
+		// 10 ms/loc, then 20 ms/loc averages to 15 ms/loc
+		estimator.onScanFinished(scan(1, 1, 1000, false, ScanStatus.Finished), 10000);
+		assertEquals(10000, estimator.predict(scan(2, 1, 1000, false, ScanStatus.Queued)));
+		estimator.onScanFinished(scan(2, 1, 1000, false, ScanStatus.Finished), 20000);
+		assertEquals(30000, estimator.predict(scan(3, 1, 2000, false, ScanStatus.Queued)));
+		
+		// failed scans are not learned
+		estimator.onScanFinished(scan(3, 1, 1000, false, ScanStatus.Failed), 1);
+		assertEquals(15000, estimator.predict(scan(4, 1, 1000, false, ScanStatus.Queued)));
+	}
+	
+	@Test
+	public void testFallbackLevels() throws Exception {
+		log.trace("testFallbackLevels()");
+		
+		final EwmaScanDurationEstimator estimator = new EwmaScanDurationEstimator(config, pool, fallback, mapper);
+		estimator.onScanFinished(scan(1, 1, 1000, false, ScanStatus.Finished), 10000);
+		
+		// another project of the same size and mode uses the size rate
+		assertEquals(5000, estimator.predict(scan(2, 2, 500, false, ScanStatus.Queued)));
+		
+		// a different mode or size has not been learned
+		assertEquals(FALLBACK_MILLIS, estimator.predict(scan(3, 1, 1000, true, ScanStatus.Queued)));
+		assertEquals(FALLBACK_MILLIS, estimator.predict(scan(4, 1, 200000, false, ScanStatus.Queued)));
+		
+		// project rate overrides the size rate
+		estimator.onScanFinished(scan(5, 2, 1000, false, ScanStatus.Finished), 30000);
+		estimator.onScanFinished(scan(6, 2, 1000, false, ScanStatus.Finished), 30000);
+		assertEquals(30000, estimator.predict(scan(7, 2, 1000, false, ScanStatus.Queued)));
+		assertEquals(25000, estimator.predict(scan(8, 3, 1000, false, ScanStatus.Queued)));
+	}
+	
+	@Test
+	public void testPersistence() throws Exception {
+		log.trace("testPersistence()");
+		
+		final EwmaScanDurationEstimator estimator = new EwmaScanDurationEstimator(config, pool, fallback, mapper);
+		estimator.onScanFinished(scan(1, 1, 1000, false, ScanStatus.Finished), 10000);
+		// saved on flush, not on each finished scan
+		assertFalse(modelFile.exists());
+		estimator.flush();
+		assertTrue(modelFile.exists());
+		
+		final EwmaScanDurationEstimator reloaded = new EwmaScanDurationEstimator(config, pool, fallback, mapper);
+		assertEquals(estimator.getRateCount(), reloaded.getRateCount());
+		assertEquals(10000, reloaded.predict(scan(2, 1, 1000, false, ScanStatus.Queued)));
+	}
+	
+	private static ScanRequest scan(long id, long projectId, int loc, boolean incremental, ScanStatus status) {
+		return new ScanRequest(id, "run-" + id, "team", new Project(projectId, "project"), 
+				new Stage(status.getStageId(), status.name()), loc, incremental, false, "test",
+				new ProgramLanguage[] { new ProgramLanguage(1, "Java") }, null, null, null);
+	}
+	
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.model.Project;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.ScanRequest.ScanStatus;
+import com.google.common.collect.Lists;
+
+public class ScanAdmissionControllerTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(ScanAdmissionControllerTests.class);
+
+	private static final String TEAM_A = "team-a";
+	private static final String TEAM_B = "team-b";
+	
+	private final EngineSize small = new EngineSize("S", 0, 19999);
+	private final EngineSize large = new EngineSize("L", 20000, 999999);
+	private CxConfig config;
+	private List<EnginePoolEntry> entries;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		config = new CxConfig();
+		config.setConcurrentScanLimit(10);
+		
+		final EnginePoolEntry smallEntry = new EnginePoolEntry(small, 5);
+		smallEntry.setScanLimit(2);
+		final EnginePoolEntry largeEntry = new EnginePoolEntry(large, 5);
+		largeEntry.setScanLimit(2);
+		entries = Lists.newArrayList(smallEntry, largeEntry);
+	}
+
+	@Test
+	public void testSizeLimit() {
+		log.trace("testSizeLimit()");
+		
+		final ScanAdmissionController controller = new ScanAdmissionController(config, entries);
+		assertTrue(controller.tryAdmit(scan(1, TEAM_A), small));
+		assertTrue(controller.tryAdmit(scan(2, TEAM_A), small));
+		assertFalse(controller.tryAdmit(scan(3, TEAM_A), small));
+		
+		// large scans are not starved by small scans
+		assertTrue(controller.tryAdmit(scan(4, TEAM_A), large));
+		assertEquals(3, controller.getActiveCount());
+		assertEquals(1, controller.getDeferredCount());
+		assertEquals("total=3/10; S=2/2; L=1/2", controller.getOccupancy());
+		
+		assertTrue(controller.release(1));
+		assertFalse(controller.release(1));
+		assertTrue(controller.tryAdmit(scan(3, TEAM_A), small));
+	}
+	
+	@Test
+	public void testGlobalLimit() {
+		log.trace("testGlobalLimit()");
+		
+		config.setConcurrentScanLimit(2);
+		final ScanAdmissionController controller = new ScanAdmissionController(config, entries);
+		assertTrue(controller.tryAdmit(scan(1, TEAM_A), small));
+		assertTrue(controller.tryAdmit(scan(2, TEAM_A), large));
+		assertFalse(controller.tryAdmit(scan(3, TEAM_A), large));
+		
+		// already admitted scans are not counted twice
+		assertTrue(controller.tryAdmit(scan(1, TEAM_A), small));
+		assertEquals(2, controller.getActiveCount());
+	}
+	
+	@Test
+	public void testTeamLimit() {
+		log.trace("testTeamLimit()");
+		
+		config.getTeamScanLimits().put(TEAM_A, 1);
+		final ScanAdmissionController controller = new ScanAdmissionController(config, entries);
+		assertTrue(controller.tryAdmit(scan(1, TEAM_A), small));
+		assertFalse(controller.tryAdmit(scan(2, TEAM_A), large));
+		assertTrue(controller.tryAdmit(scan(3, TEAM_B), large));
+		assertTrue(controller.tryAdmit(scan(4, null), large));
+		assertEquals("total=3/10; S=1/2; L=2/2; team[team-a]=1/1", controller.getOccupancy());
+	}
+	
+	@Test
+	public void testBorrowing() {
+		log.trace("testBorrowing()");
+		
+		config.setScanLimitBorrowing(true);
+		final ScanAdmissionController controller = new ScanAdmissionController(config, entries);
+		assertTrue(controller.tryAdmit(scan(1, TEAM_A), small));
+		assertTrue(controller.tryAdmit(scan(2, TEAM_A), small));
+		
+		// borrows from L
+		assertTrue(controller.tryAdmit(scan(3, TEAM_A), small));
+		assertEquals("total=3/10; S=2/2; L=1/2", controller.getOccupancy());
+		assertTrue(controller.tryAdmit(scan(4, TEAM_A), small));
+		assertFalse(controller.tryAdmit(scan(5, TEAM_A), small));
+		assertFalse(controller.tryAdmit(scan(6, TEAM_A), large));
+		
+		// borrowed slot is returned to L
+		controller.release(3);
+		assertEquals("total=3/10; S=2/2; L=1/2", controller.getOccupancy());
+		assertTrue(controller.tryAdmit(scan(6, TEAM_A), large));
+	}
+	
+	@Test
+	public void testUnlimitedSize() {
+		log.trace("testUnlimitedSize()");
+		
+		entries.forEach((entry) -> entry.setScanLimit(0));
+		final ScanAdmissionController controller = new ScanAdmissionController(config, entries);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(controller.tryAdmit(scan(i, TEAM_A), small));
+		}
+		assertFalse(controller.tryAdmit(scan(10, TEAM_A), null));
+		assertEquals("total=10/10; S=10/-; L=0/-", controller.getOccupancy());
+	}
+	
+	@Test
+	public void testForceAdmit() {
+		log.trace("testForceAdmit()");
+		
+		final ScanAdmissionController controller = new ScanAdmissionController(config, entries);
+		assertTrue(controller.forceAdmit(scan(1, TEAM_A), small));
+		assertTrue(controller.forceAdmit(scan(2, TEAM_A), small));
+		
+		// over the size limit, still counted
+		assertFalse(controller.forceAdmit(scan(3, TEAM_A), small));
+		assertEquals("total=3/10; S=3/2; L=0/2", controller.getOccupancy());
+		assertTrue(controller.forceAdmit(scan(3, TEAM_A), small));
+		assertEquals(3, controller.getActiveCount());
+		
+		// new scans wait until back under the limit
+		controller.release(1);
+		assertFalse(controller.tryAdmit(scan(4, TEAM_A), small));
+		controller.release(2);
+		assertTrue(controller.tryAdmit(scan(4, TEAM_A), small));
+	}
+	
+	private static ScanRequest scan(long id, String teamId) {
+		return new ScanRequest(id, "run-" + id, teamId, new Project(1, "project"), 
+				ScanStatus.to(ScanStatus.Queued), 1000, false, false, "test", null, null, null, null);
+	}
+
+}
@@ -0,0 +1,444 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestClientException;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.DefaultEnginePoolBuilder;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EnginePoolConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.rest.CxEngineApi;
+import com.checkmarx.engine.rest.model.EngineServer;
+import com.checkmarx.engine.rest.model.Login;
+import com.checkmarx.engine.rest.model.ProgramLanguage;
+import com.checkmarx.engine.rest.model.Project;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.rest.model.Stage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+
+/**
+ * ScanQueueMonitor unit tests, using a stubbed scan queue in place of CxManager.
+ */
+public class ScanQueueProcessingTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(ScanQueueProcessingTests.class);
+	
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final BlockingQueue<ScanRequest> scansQueued = new LinkedBlockingQueue<>();
+	private final BlockingQueue<ScanRequest> scansFinished = new LinkedBlockingQueue<>();
+	private final StubCxEngineApi cxClient = new StubCxEngineApi();
+	private CxConfig config;
+	private EngineBlocker engineBlocker;
+	private EnginePoolEntry poolEntry;
+	private EnginePool pool;
+	private ScanAdmissionController admissionController;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		config = new CxConfig();
+		config.setConcurrentScanLimit(1);
+		
+		// not started, block requests stay pending
+		engineBlocker = new EngineBlocker(cxClient, config);
+		
+		poolEntry = new EnginePoolEntry(new EngineSize("S", 0, 99999), 2);
+		pool = new DefaultEnginePoolBuilder(new EnginePoolConfig())
+				.addEntry(poolEntry)
+				.build();
+	}
+	
+	private ScanQueueMonitor createMonitor() {
+		return createMonitor(scansQueued, scansFinished);
+	}
+	
+	private ScanQueueMonitor createMonitor(BlockingQueue<ScanRequest> queued, BlockingQueue<ScanRequest> finished) {
+		admissionController = new ScanAdmissionController(config, Lists.newArrayList(poolEntry));
+		return new ScanQueueMonitor(queued, finished, pool, cxClient, engineBlocker, 
+				admissionController, null, config);
+	}
+	
+	@Test
+	public void testDeferredScanIsRetried() throws Exception {
+		log.trace("testDeferredScanIsRetried()");
+		
+		final ScanQueueMonitor monitor = createMonitor();
+		
+		cxClient.setQueue(scan(1, "Queued", null), scan(2, "Queued", null));
+		monitor.run();
+		assertEquals(1, scansQueued.size());
+		assertEquals(1L, scansQueued.poll().getId());
+		
+		// unchanged queue, scan 2 still deferred
+		monitor.run();
+		assertEquals(0, scansQueued.size());
+		
+		// scan 1 finishes, deferred scan 2 must be picked up even though it did not change
+		cxClient.setQueue(scan(1, "Finished", 10L), scan(2, "Queued", null));
+		monitor.run();
+		assertEquals(1, scansFinished.size());
+		assertEquals(1, scansQueued.size());
+		assertEquals(2L, scansQueued.poll().getId());
+	}
+	
+	@Test
+	public void testUnchangedScansProcessedOnce() throws Exception {
+		log.trace("testUnchangedScansProcessedOnce()");
+		
+		config.setConcurrentScanLimit(5);
+		final ScanQueueMonitor monitor = createMonitor();
+		
+		cxClient.setQueue(scan(1, "Queued", null));
+		monitor.run();
+		cxClient.setQueue(scan(1, "Scanning", 10L));
+		monitor.run();
+		monitor.run();
+		assertEquals(1, engineBlocker.getRequestCount());
+		
+		cxClient.setQueue(scan(1, "Finished", 10L));
+		monitor.run();
+		monitor.run();
+		assertEquals(1, scansQueued.size());
+		assertEquals(1, scansFinished.size());
+	}
+	
+	@Test
+	public void testFullPolling() throws Exception {
+		log.trace("testFullPolling()");
+		
+		config.setQueueDeltaPolling(false);
+		final ScanQueueMonitor monitor = createMonitor();
+		
+		cxClient.setQueue(scan(1, "Queued", null), scan(2, "Queued", null));
+		monitor.run();
+		cxClient.setQueue(scan(1, "Finished", 10L), scan(2, "Queued", null));
+		monitor.run();
+		assertEquals(2, scansQueued.size());
+		assertEquals(1, scansFinished.size());
+	}
+	
+	@Test
+	public void testCompletionsProcessedFirst() throws Exception {
+		log.trace("testCompletionsProcessedFirst()");
+		
+		final ScanQueueMonitor monitor = createMonitor();
+		
+		cxClient.setQueue(scan(1, "Queued", null));
+		monitor.run();
+		assertEquals(1L, scansQueued.poll().getId());
+		
+		// finished scan listed after the queued scan still frees its slot in the same poll
+		cxClient.setQueue(scan(2, "Queued", null), scan(1, "Finished", 10L));
+		monitor.run();
+		assertEquals(1, scansFinished.size());
+		assertEquals(1, scansQueued.size());
+		assertEquals(2L, scansQueued.poll().getId());
+	}
+	
+	@Test
+	public void testQueuedScanOrder() throws Exception {
+		log.trace("testQueuedScanOrder()");
+		
+		config.setConcurrentScanLimit(5);
+		final ScanQueueMonitor monitor = createMonitor();
+		
+		final DateTime now = DateTime.now();
+		cxClient.setQueue(
+				queuedScan(1, 5000, now), 
+				queuedScan(2, 1000, null),
+				queuedScan(3, 9000, now.minusMinutes(1)),
+				queuedScan(4, 2000, now));
+		monitor.run();
+		assertEquals(4, scansQueued.size());
+		assertEquals(3L, scansQueued.poll().getId());
+		assertEquals(4L, scansQueued.poll().getId());
+		assertEquals(1L, scansQueued.poll().getId());
+		assertEquals(2L, scansQueued.poll().getId());
+	}
+	
+	@Test
+	public void testMissingScanTreatedAsFinished() throws Exception {
+		log.trace("testMissingScanTreatedAsFinished()");
+		
+		final ScanQueueMonitor monitor = createMonitor();
+		
+		cxClient.setQueue(scan(1, "Queued", null));
+		monitor.run();
+		assertEquals(1L, scansQueued.poll().getId());
+		
+		// scan drops out of the queue without a terminal status
+		cxClient.setQueue(scan(2, "Queued", null));
+		monitor.run();
+		monitor.run();
+		assertEquals(0, scansFinished.size());
+		assertEquals(0, scansQueued.size());
+		
+		// missing for 3 polls, slot is released for scan 2
+		monitor.run();
+		assertEquals(1, scansFinished.size());
+		assertEquals(1L, scansFinished.poll().getId());
+		assertEquals(1, scansQueued.size());
+		assertEquals(2L, scansQueued.poll().getId());
+	}
+	
+	@Test
+	public void testReappearingScanNotFinished() throws Exception {
+		log.trace("testReappearingScanNotFinished()");
+		
+		final ScanQueueMonitor monitor = createMonitor();
+		
+		cxClient.setQueue(scan(1, "Queued", null));
+		monitor.run();
+		cxClient.setQueue();
+		monitor.run();
+		monitor.run();
+		cxClient.setQueue(scan(1, "Scanning", 10L));
+		monitor.run();
+		cxClient.setQueue();
+		monitor.run();
+		monitor.run();
+		assertEquals(0, scansFinished.size());
+		assertEquals(1, engineBlocker.getRequestCount());
+		
+		config.setQueueMissingScanPolls(0);
+		final ScanQueueMonitor disabled = createMonitor();
+		cxClient.setQueue(scan(3, "Queued", null));
+		disabled.run();
+		cxClient.setQueue();
+		for (int i = 0; i < 5; i++) disabled.run();
+		assertEquals(0, scansFinished.size());
+	}
+	
+	@Test
+	public void testQueueFullDefersScans() throws Exception {
+		log.trace("testQueueFullDefersScans()");
+		
+		config.setConcurrentScanLimit(5);
+		final BlockingQueue<ScanRequest> queued = new LinkedBlockingQueue<>(1);
+		final BlockingQueue<ScanRequest> finished = new LinkedBlockingQueue<>(1);
+		final ScanQueueMonitor monitor = createMonitor(queued, finished);
+		
+		// queue holds one scan, scan 2 deferred without taking a slot
+		cxClient.setQueue(scan(1, "Queued", null), scan(2, "Queued", null));
+		monitor.run();
+		assertEquals(1, queued.size());
+		assertEquals(1, admissionController.getActiveCount());
+		
+		// queue drained, scan 2 admitted on the next poll
+		assertEquals(1L, queued.poll().getId());
+		monitor.run();
+		assertEquals(2L, queued.poll().getId());
+		assertEquals(2, admissionController.getActiveCount());
+		
+		// finished queue full, scan 2 stays active until there is room
+		finished.add(scan(99, "Finished", 10L));
+		cxClient.setQueue(scan(1, "Finished", 10L), scan(2, "Finished", 10L));
+		monitor.run();
+		assertEquals(2, admissionController.getActiveCount());
+		assertEquals(99L, finished.poll().getId());
+		monitor.run();
+		assertEquals(1L, finished.poll().getId());
+		assertEquals(1, admissionController.getActiveCount());
+		monitor.run();
+		assertEquals(2L, finished.poll().getId());
+		assertEquals(0, admissionController.getActiveCount());
+	}
+	
+	@Test
+	public void testBusy() throws Exception {
+		log.trace("testBusy()");
+		
+		final ScanQueueMonitor monitor = createMonitor();
+		
+		cxClient.setQueue();
+		monitor.run();
+		assertFalse(monitor.isBusy());
+		
+		cxClient.setQueue(scan(1, "PreScan", null));
+		monitor.run();
+		assertTrue(monitor.isBusy());
+		
+		// scan queued for an engine that is spinning up
+		cxClient.setQueue(scan(1, "Queued", null));
+		monitor.run();
+		cxClient.setQueue(scan(1, "Queued", 10L));
+		monitor.run();
+		assertTrue(monitor.isBusy());
+		
+		cxClient.setQueue(scan(1, "Scanning", 10L));
+		monitor.run();
+		assertFalse(monitor.isBusy());
+	}
+	
+	static ScanRequest scan(long id, String status, Long engineId) throws IOException {
+		return scan(id, status, engineId, 1000);
+	}
+
+	static ScanRequest scan(long id, String status, Long engineId, int loc) throws IOException {
+		final ScanRequest.ScanStatus scanStatus = ScanRequest.ScanStatus.valueOf(status);
+		final String engine = engineId == null ? "" : String.format("\"engine\":{\"id\":%d},", engineId);
+		final String json = String.format(
+				"{\"id\":%d,\"runId\":\"run-%d\",\"stage\":{\"id\":%d,\"value\":\"%s\"},%s" +
+				"\"project\":{\"id\":1,\"name\":\"project\"},\"loc\":%d,\"languages\":[]}",
+				id, id, scanStatus.getStageId(), status, engine, loc);
+		return mapper.readValue(json, ScanRequest.class);
+	}
+
+	static EngineServer engine(long id, boolean blocked) throws IOException {
+		final String json = String.format(
+				"{\"id\":%d,\"name\":\"engine-%d\",\"uri\":\"http://engine-%d\",\"isBlocked\":%b}",
+				id, id, id, blocked);
+		return mapper.readValue(json, EngineServer.class);
+	}
+
+	static ScanRequest queuedScan(long id, int loc, DateTime queuedOn) {
+		final ScanRequest.ScanStatus status = ScanRequest.ScanStatus.Queued;
+		return new ScanRequest(id, "run-" + id, "team", new Project(1, "project"), 
+				new Stage(status.getStageId(), status.name()), loc, false, false, "test",
+				new ProgramLanguage[0], queuedOn, queuedOn, null);
+	}
+
+	/**
+	 * Waits up to 5 seconds for a stub call count, failing the test on timeout.
+	 */
+	static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+		final long timeout = System.currentTimeMillis() + 5000;
+		while (count.get() < expected) {
+			if (System.currentTimeMillis() >= timeout) {
+				fail(String.format("Timed out waiting for count; expected=%d; actual=%d", expected, count.get()));
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	static class StubCxEngineApi implements CxEngineApi {
+		
+		private List<ScanRequest> queue = Lists.newArrayList();
+		private List<EngineServer> engines = Lists.newArrayList();
+		final AtomicInteger getEnginesCount = new AtomicInteger();
+		final AtomicInteger updateCount = new AtomicInteger();
+		final AtomicInteger unregisterCount = new AtomicInteger();
+		volatile EngineServer lastUpdated;
+		volatile boolean failUpdates = false;
+		
+		/**
+		 * next updates to fail with a rest client error
+		 */
+		final AtomicInteger updateErrors = new AtomicInteger();
+		
+		void setQueue(ScanRequest... scans) {
+			queue = Lists.newArrayList(scans);
+		}
+		
+		void setEngines(EngineServer... engines) {
+			this.engines = Lists.newArrayList(engines);
+		}
+
+		@Override
+		public List<ScanRequest> getScansQueue() {
+			return queue;
+		}
+
+		@Override
+		public EngineServer blockEngine(long engineId) {
+			return null;
+		}
+
+		@Override
+		public boolean login() {
+			return true;
+		}
+
+		@Override
+		public boolean login(Login login) {
+			return true;
+		}
+
+		@Override
+		public String getCxVersion() {
+			return "8.8.0";
+		}
+
+		@Override
+		public List<EngineServer> getEngines() {
+			getEnginesCount.incrementAndGet();
+			return engines;
+		}
+
+		@Override
+		public EngineServer getEngine(long id) {
+			return engines.stream().filter((engine) -> engine.getId() == id).findFirst().orElse(null);
+		}
+
+		@Override
+		public EngineServer getEngine(String name) {
+			return null;
+		}
+
+		@Override
+		public EngineServer registerEngine(EngineServer engine) {
+			return engine;
+		}
+
+		@Override
+		public void unregisterEngine(long id) {
+			unregisterCount.incrementAndGet();
+		}
+
+		@Override
+		public EngineServer updateEngine(EngineServer engine) {
+			if (failUpdates) throw new IllegalStateException("update failed");
+			if (updateErrors.getAndUpdate((n) -> Math.max(0, n - 1)) > 0) {
+				throw new RestClientException("update failed");
+			}
+			lastUpdated = engine;
+			updateCount.incrementAndGet();
+			return engine;
+		}
+
+		@Override
+		public EngineServer blockEngine(String engineName) {
+			return null;
+		}
+
+		@Override
+		public EngineServer unblockEngine(long engineId) {
+			return null;
+		}
+
+	}
+	
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.servers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.checkmarx.engine.CxConfig;
+import com.checkmarx.engine.domain.DefaultEnginePoolBuilder;
+import com.checkmarx.engine.domain.DynamicEngine.State;
+import com.checkmarx.engine.domain.EnginePool;
+import com.checkmarx.engine.domain.EnginePool.EnginePoolEntry;
+import com.checkmarx.engine.domain.EnginePoolConfig;
+import com.checkmarx.engine.domain.EngineSize;
+import com.checkmarx.engine.domain.WarmSchedule;
+import com.checkmarx.engine.rest.model.ScanRequest;
+import com.checkmarx.engine.servers.EngineLaunchTests.RegisteringCxEngineApi;
+import com.checkmarx.engine.servers.EngineLaunchTests.StubEngines;
+import com.checkmarx.engine.utils.ExecutorRegistry;
+
+public class WarmPoolTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(WarmPoolTests.class);
+
+	private final EngineSize size = new EngineSize("S", 0, 99999);
+	private final StubEngines engines = new StubEngines();
+	private final BlockingQueue<ScanRequest> scansQueued = new LinkedBlockingQueue<>();
+	private final BlockingQueue<ScanRequest> scansFinished = new LinkedBlockingQueue<>();
+	private EnginePool pool;
+	private EngineManager engineManager;
+	
+	@Before
+	public void setUp() throws Exception {
+		log.trace("setup()");
+		
+		final EnginePoolEntry entry = new EnginePoolEntry(size, 3);
+		entry.setMinimum(1);
+		entry.getSchedules().add(new WarmSchedule("MON-FRI", "08:00", "18:00", 2));
+		pool = new DefaultEnginePoolBuilder(new EnginePoolConfig()).addEntry(entry).build();
+		
+		engineManager = new EngineManager(new CxConfig(), pool, new RegisteringCxEngineApi(), engines, 
+				scansQueued, scansFinished, new ExecutorRegistry(), new LocRateScanDurationEstimator(new CxConfig()), null, null, null);
+	}
+	
+	@After
+	public void tearDown() {
+		engineManager.stop();
+	}
+
+	@Test
+	public void testRefill() throws Exception {
+		log.trace("testRefill()");
+		
+		final EngineManager.WarmPoolController controller = engineManager.new WarmPoolController();
+		
+		// 2019-01-19 is a Saturday, outside the schedule
+		final DateTime weekend = new DateTime(2019, 1, 19, 12, 0);
+		assertEquals(1, controller.refill(size, weekend));
+		assertEquals(1, pool.getEngineCount(size, State.LAUNCHING));
+		
+		// launching engines count as warm
+		assertEquals(0, controller.refill(size, weekend));
+		
+		engines.provisionLatch.countDown();
+		awaitIdle(1);
+		assertEquals(0, pool.getEngineCount(size, State.LAUNCHING));
+		assertEquals(1, pool.getMinimum(size));
+		
+		// scheduled minimum raises the warm pool
+		final DateTime weekday = new DateTime(2019, 1, 14, 9, 0);
+		assertEquals(1, controller.refill(size, weekday));
+		awaitIdle(2);
+		assertEquals(2, pool.getMinimum(size));
+		assertEquals(0, controller.refill(size, weekday));
+	}
+	
+	@Test
+	public void testFailedLaunchReleased() throws Exception {
+		log.trace("testFailedLaunchReleased()");
+		
+		final EngineManager.WarmPoolController controller = engineManager.new WarmPoolController();
+		engines.failReady = true;
+		engines.provisionLatch.countDown();
+		
+		assertEquals(1, controller.refill(size, new DateTime(2019, 1, 19, 12, 0)));
+		final long timeout = System.currentTimeMillis() + 5000;
+		while (pool.getEngineCount(size, State.UNPROVISIONED) < 3 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(3, pool.getEngineCount(size, State.UNPROVISIONED));
+		assertEquals(1, engines.stopCount.get());
+	}
+	
+	@Test
+	public void testForecastRaisesMinimum() throws Exception {
+		log.trace("testForecastRaisesMinimum()");
+		
+		final CxConfig config = new CxConfig();
+		config.setForecastScaling(true);
+		config.setForecastFile("");
+		config.setForecastLeadMins(15);
+		final ArrivalForecaster forecaster = new ArrivalForecaster(config, null);
+		engineManager.stop();
+		engineManager = new EngineManager(config, pool, new RegisteringCxEngineApi(), engines, 
+				scansQueued, scansFinished, new ExecutorRegistry(), new LocRateScanDurationEstimator(config), 
+				forecaster, null, null);
+		final EngineManager.WarmPoolController controller = engineManager.new WarmPoolController();
+		
+		// 3 scans arrived Saturday at noon, outside the schedule
+		final DateTime weekend = new DateTime(2019, 1, 19, 12, 0);
+		for (int i = 0; i < 3; i++) {
+			forecaster.record(size, weekend.plusMinutes(i));
+		}
+		
+		// a week later, the forecast raises the minimum above the entry minimum of 1
+		final DateTime nextWeekend = weekend.plusWeeks(1);
+		assertEquals(3, controller.refill(size, nextWeekend));
+		assertEquals(3, pool.getMinimum(size));
+	}
+	
+	private void awaitIdle(int expected) throws InterruptedException {
+		final long timeout = System.currentTimeMillis() + 5000;
+		while (pool.getEngineCount(size, State.IDLE) < expected && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, pool.getEngineCount(size, State.IDLE));
+	}
+	
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+public class EventLoopTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(EventLoopTests.class);
+	
+	@Test
+	public void testRingBuffer() {
+		log.trace("testRingBuffer()");
+		
+		final RingBuffer<Integer> ring = new RingBuffer<>(3);
+		assertThat(ring.capacity(), is(4));
+		
+		for (int i = 0; i < 4; i++) assertThat(ring.offer(i), is(true));
+		assertThat(ring.offer(4), is(false));
+		assertThat(ring.size(), is(4));
+		
+		// wraps around
+		assertThat(ring.poll(), is(0));
+		assertThat(ring.offer(4), is(true));
+		for (int i = 1; i < 5; i++) assertThat(ring.poll(), is(i));
+		assertThat(ring.poll(), nullValue());
+		assertThat(ring.isEmpty(), is(true));
+	}
+	
+	@Test
+	public void testProducersInOrder() throws Exception {
+		log.trace("testProducersInOrder()");
+		
+		final int producers = 4;
+		final int events = 10000;
+		final EventLoop loop = new EventLoop("test-events", 16);
+		loop.start();
+		
+		// state owned by the loop, no locking
+		final int[] lastSeen = new int[producers];
+		final int[] outOfOrder = { 0 };
+		final List<Thread> threads = Lists.newArrayList();
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads.add(new Thread(() -> {
+				for (int i = 1; i <= events; i++) {
+					final int seq = i;
+					loop.execute(() -> {
+						if (lastSeen[producer] != seq - 1) outOfOrder[0]++;
+						lastSeen[producer] = seq;
+					});
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) thread.join();
+		
+		loop.stop(5, TimeUnit.SECONDS);
+		assertThat(loop.getProcessedCount(), is((long)producers * events));
+		assertThat(outOfOrder[0], is(0));
+		for (int p = 0; p < producers; p++) assertThat(lastSeen[p], is(events));
+	}
+	
+	@Test
+	public void testPostFromLoop() throws Exception {
+		log.trace("testPostFromLoop()");
+		
+		final EventLoop loop = new EventLoop("test-events", 1);
+		loop.start();
+		
+		// posting from the loop does not wait on the full ring buffer
+		final List<Integer> order = Lists.newArrayList();
+		final CountDownLatch done = new CountDownLatch(1);
+		loop.execute(() -> {
+			order.add(1);
+			loop.execute(() -> order.add(3));
+			loop.execute(done::countDown);
+			order.add(2);
+		});
+		
+		assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(order, is(Lists.newArrayList(1, 2, 3)));
+		loop.stop(5, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void testPostWhileStopping() throws Exception {
+		log.trace("testPostWhileStopping()");
+		
+		final int producers = 4;
+		for (int round = 0; round < 20; round++) {
+			final EventLoop loop = new EventLoop("test-events", 16);
+			loop.start();
+			
+			// every post is either rejected or run, none is lost
+			final AtomicLong posted = new AtomicLong();
+			final AtomicLong ran = new AtomicLong();
+			final CountDownLatch started = new CountDownLatch(producers);
+			final List<Thread> threads = Lists.newArrayList();
+			for (int p = 0; p < producers; p++) {
+				threads.add(new Thread(() -> {
+					started.countDown();
+					try {
+						while (true) {
+							loop.execute(ran::incrementAndGet);
+							posted.incrementAndGet();
+						}
+					} catch (RejectedExecutionException e) {
+						// loop stopped
+					}
+				}));
+			}
+			threads.forEach(Thread::start);
+			started.await();
+			
+			loop.stop(5, TimeUnit.SECONDS);
+			for (Thread thread : threads) thread.join();
+			assertThat(ran.get(), is(posted.get()));
+		}
+	}
+
+}
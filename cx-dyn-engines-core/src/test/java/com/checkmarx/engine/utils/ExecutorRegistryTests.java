@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ExecutorRegistryTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(ExecutorRegistryTests.class);
+	
+	@Test
+	public void testHistogram() {
+		log.trace("testHistogram()");
+		
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertThat(histogram.getPercentileMillis(50), is(0L));
+		
+		for (int i = 0; i < 90; i++) histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+		for (int i = 0; i < 10; i++) histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+		
+		assertThat(histogram.getCount(), is(100L));
+		assertThat(histogram.getMaxMillis(), is(100L));
+		assertThat(histogram.getMeanMillis(), is(12L));
+		assertThat(histogram.getPercentileMillis(50), is(4L));
+		assertThat(histogram.getPercentileMillis(90), is(4L));
+		assertThat(histogram.getPercentileMillis(95), is(128L));
+	}
+	
+	@Test
+	public void testExecutorStats() throws Exception {
+		log.trace("testExecutorStats()");
+		
+		final ExecutorRegistry registry = new ExecutorRegistry();
+		final ExecutorService executor = registry.register("test", 1, true);
+		final InstrumentedThreadPoolExecutor stats = registry.getExecutor("test");
+		
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		executor.execute(() -> {
+			running.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		executor.submit(() -> "done");
+		
+		assertThat(running.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(stats.getActiveCount(), is(1));
+		assertThat(stats.getQueueDepth(), is(1));
+		
+		release.countDown();
+		registry.shutdown(5, TimeUnit.SECONDS);
+		assertThat(executor.isTerminated(), is(true));
+		assertThat(stats.getRunTimes().getCount(), is(2L));
+		assertThat(stats.getWaitTimes().getCount(), is(2L));
+		assertThat(registry.getExecutorStats().length, is(1));
+		
+		try {
+			executor.execute(() -> {});
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertThat(stats.getRejectedCount(), is(1L));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testDuplicateName() {
+		log.trace("testDuplicateName()");
+		
+		final ExecutorRegistry registry = new ExecutorRegistry();
+		try {
+			registry.register("test", 1, true);
+			registry.register("test", 1, true);
+		} finally {
+			registry.shutdown(1, TimeUnit.SECONDS);
+		}
+	}
+	
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2017-2019 Checkmarx
+ *  
+ * This software is licensed for customer's internal use only.
+ *  
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ******************************************************************************/
+package com.checkmarx.engine.utils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class LongHashTableTests {
+	
+	private static final Logger log = LoggerFactory.getLogger(LongHashTableTests.class);
+	
+	private static final int OPERATIONS = 200000;
+	
+	@Test
+	public void testLongHashMap() {
+		log.trace("testLongHashMap()");
+		
+		final LongHashMap<String> map = new LongHashMap<>();
+		final Map<Long, String> expected = Maps.newHashMap();
+		final Random random = new Random(42);
+		
+		for (int i = 0; i < OPERATIONS; i++) {
+			// small key range forces collisions, growth and removal of shifted entries
+			final long key = random.nextInt(5000) * 1024L;
+			switch (random.nextInt(3)) {
+				case 0 :
+					assertThat(map.put(key, "v" + i), is(expected.put(key, "v" + i)));
+					break;
+				case 1 :
+					assertThat(map.remove(key), is(expected.remove(key)));
+					break;
+				default:
+					assertThat(map.get(key), is(expected.get(key)));
+					break;
+			}
+			assertThat(map.size(), is(expected.size()));
+		}
+		
+		final Map<Long, String> actual = Maps.newHashMap();
+		map.forEach((key, value) -> actual.put(key, value));
+		assertThat(actual, is(expected));
+		
+		map.clear();
+		assertThat(map.isEmpty(), is(true));
+		assertThat(map.get(1024L), is(nullValue()));
+	}
+
+	@Test
+	public void testRemoveIf() {
+		log.trace("testRemoveIf()");
+		
+		final LongHashMap<Long> map = new LongHashMap<>();
+		for (long key = 0; key < 10000; key++) {
+			map.put(key, key);
+		}
+		assertThat(map.removeIf((value) -> value % 3 != 0), is(true));
+		assertThat(map.size(), is(3334));
+		for (long key = 0; key < 10000; key++) {
+			assertThat(map.containsKey(key), is(key % 3 == 0));
+		}
+		assertThat(map.removeIf((value) -> value < 0), is(false));
+	}
+	
+	@Test
+	public void testLongLongHashMap() {
+		log.trace("testLongLongHashMap()");
+		
+		final LongLongHashMap map = new LongLongHashMap(-1);
+		final Map<Long, Long> expected = Maps.newHashMap();
+		final Random random = new Random(7);
+		
+		for (int i = 0; i < OPERATIONS; i++) {
+			final long key = random.nextInt(5000) - 2500;
+			switch (random.nextInt(3)) {
+				case 0 :
+					assertThat(map.put(key, i), is(orMissing(expected.put(key, (long)i))));
+					break;
+				case 1 :
+					assertThat(map.remove(key), is(orMissing(expected.remove(key))));
+					break;
+				default:
+					assertThat(map.get(key), is(orMissing(expected.get(key))));
+					break;
+			}
+		}
+		assertThat(map.size(), is(expected.size()));
+	}
+	
+	private static long orMissing(Long value) {
+		return value == null ? -1 : value;
+	}
+	
+	@Test
+	public void testLongHashSet() {
+		log.trace("testLongHashSet()");
+		
+		final LongHashSet set = new LongHashSet();
+		final Set<Long> expected = Sets.newHashSet();
+		final Random random = new Random(11);
+		
+		for (int i = 0; i < OPERATIONS; i++) {
+			final long value = random.nextLong() % 3000;
+			if (random.nextBoolean()) {
+				assertThat(set.add(value), is(expected.add(value)));
+			} else {
+				assertThat(set.remove(value), is(expected.remove(value)));
+			}
+			assertThat(set.contains(value), is(expected.contains(value)));
+		}
+		assertThat(set.size(), is(expected.size()));
+	}
+	
+	@Test
+	public void testConcurrentMaps() throws Exception {
+		log.trace("testConcurrentMaps()");
+		
+		final ConcurrentLongHashMap<Long> map = new ConcurrentLongHashMap<>();
+		final ConcurrentLongLongHashMap longMap = new ConcurrentLongLongHashMap(-1);
+		final int threads = 8;
+		final int keysPerThread = 10000;
+		
+		final ExecutorService executor = ExecutorServiceUtils.buildPooledExecutorService(threads, "test-%d", true);
+		for (int t = 0; t < threads; t++) {
+			final long base = t * (long)keysPerThread;
+			executor.execute(() -> {
+				for (long key = base; key < base + keysPerThread; key++) {
+					map.put(key, key);
+					longMap.put(key, key);
+					if (key % 2 == 0) {
+						map.remove(key);
+						longMap.remove(key);
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		assertThat(executor.awaitTermination(30, TimeUnit.SECONDS), is(true));
+		
+		assertThat(map.size(), is(threads * keysPerThread / 2));
+		assertThat(longMap.size(), is(threads * keysPerThread / 2));
+		for (long key = 0; key < threads * keysPerThread; key++) {
+			final boolean present = key % 2 != 0;
+			assertThat(map.containsKey(key), is(present));
+			assertThat(longMap.get(key), is(present ? key : -1L));
+		}
+	}
+
+}